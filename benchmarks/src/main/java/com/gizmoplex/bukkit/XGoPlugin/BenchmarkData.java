@@ -0,0 +1,205 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Generates the location names, locations, worlds and players the benchmarks
+ * run on, and the data folders of plugins enabled for them. Data is generated
+ * from a fixed seed, so every run measures the same data.
+ *
+ * @author
+ *
+ */
+final class BenchmarkData
+{
+
+
+  static final String[] WORLD_NAMES = { "world", "world_nether", "world_the_end" };
+
+  private static final String[] WORDS = { "home", "base", "mine", "farm", "spawn", "shop", "tower", "portal", "village", "castle", "lake", "arena" };
+
+
+  private BenchmarkData()
+  {
+  }
+
+
+  /***
+   * Returns distinct location names, most of them sharing a few common
+   * starts, as on a real server.
+   *
+   * @param count
+   *          - The number of names.
+   * @return
+   */
+  static List<String> locationNames(int count)
+  {
+    List<String> names = new ArrayList<String>(count);
+    Random random = new Random(42);
+
+    for (int i = 0; i < count; i++)
+    {
+      names.add(WORDS[random.nextInt(WORDS.length)] + "_" + i);
+    }
+
+    return (names);
+  }
+
+
+  /***
+   * Returns a location map of the current storage engine holding locations
+   * spread over the worlds.
+   *
+   * @param names
+   *          - The names of the locations.
+   * @return
+   */
+  static Map<String, LocationReference> locations(List<String> names)
+  {
+    return (fill(LocationMaps.create(names.size()), names));
+  }
+
+
+  /***
+   * Adds locations spread over the worlds to a map.
+   *
+   * @param locations
+   *          - The map to add to.
+   * @param names
+   *          - The names of the locations.
+   * @return The map.
+   */
+  static <M extends Map<String, LocationReference>> M fill(M locations,
+      List<String> names)
+  {
+    Random random = new Random(42);
+
+    for (String name : names)
+    {
+      locations.put(name, new LocationReference(WORLD_NAMES[random.nextInt(WORLD_NAMES.length)], random.nextInt(20000) - 10000, 64 + random.nextInt(64), random.nextInt(20000) - 10000, random.nextFloat() * 360, 0));
+    }
+
+    return (locations);
+  }
+
+
+  /***
+   * Returns world stand-ins named like the worlds of the locations.
+   *
+   * @return
+   */
+  static List<World> worlds()
+  {
+    List<World> worlds = new ArrayList<World>();
+
+    for (String worldName : WORLD_NAMES)
+    {
+      worlds.add(BukkitStandIns.world(worldName));
+    }
+
+    return (worlds);
+  }
+
+
+  /***
+   * Creates a plugin data folder holding public locations and the locations
+   * of a player, saved as the plugin saves them. Public location names are
+   * prefixed with "#", as the plugin requires.
+   *
+   * @param publicNames
+   *          - The names of the public locations, without the prefix.
+   * @param playerName
+   *          - The name of the player.
+   * @param privateNames
+   *          - The names of the player's locations.
+   * @return The data folder.
+   * @throws IOException
+   */
+  static File dataFolder(List<String> publicNames, String playerName,
+      List<String> privateNames) throws IOException
+  {
+    File folder = File.createTempFile("xgo-bench", "");
+    File dataFolder = new File(folder, "XGo");
+    List<String> prefixed = new ArrayList<String>(publicNames.size());
+    LocationStorage storage;
+
+    folder.delete();
+    dataFolder.mkdirs();
+
+    for (String name : publicNames)
+    {
+      prefixed.add("#" + name);
+    }
+
+    storage = new FileLocationStorage(dataFolder, Logger.getLogger("XGoBenchmarks"));
+    if (!storage.open() || !storage.savePublicLocations(locations(prefixed)) || !storage.save(playerName, locations(privateNames)) || !storage.close())
+      throw new IOException("Unable to write benchmark data.");
+
+    return (dataFolder);
+  }
+
+
+  /***
+   * Deletes a data folder created by dataFolder() with everything in it.
+   *
+   * @param dataFolder
+   *          - The data folder.
+   */
+  static void delete(File dataFolder)
+  {
+    deleteTree(dataFolder.getParentFile());
+  }
+
+
+  /***
+   * Deletes a file, or a folder with everything in it.
+   */
+  private static void deleteTree(File file)
+  {
+    File[] files = file.listFiles();
+
+    if (files != null)
+    {
+      for (File child : files)
+      {
+        deleteTree(child);
+      }
+    }
+
+    file.delete();
+  }
+
+
+  /***
+   * Returns online player stand-ins.
+   *
+   * @param count
+   *          - The number of players.
+   * @return
+   */
+  static Player[] players(int count)
+  {
+    Player[] players = new Player[count];
+
+    for (int i = 0; i < count; i++)
+    {
+      players[i] = BukkitStandIns.player("Player" + i);
+    }
+
+    return (players);
+  }
+
+}
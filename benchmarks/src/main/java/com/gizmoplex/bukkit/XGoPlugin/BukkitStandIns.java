@@ -0,0 +1,352 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+
+
+/***
+ * Lightweight in-process stand-ins for the Bukkit server, worlds and
+ * players, so the benchmarks run without a server. The stand-ins are dynamic
+ * proxies answering the few calls the plugin makes on its hot paths; any
+ * other call returns zero, false or null. The plugin itself can be enabled on
+ * a stand-in server, so benchmarks call its real commands and completers.
+ * Scheduled tasks never run.
+ *
+ * @author
+ *
+ */
+final class BukkitStandIns
+{
+
+
+  private BukkitStandIns()
+  {
+  }
+
+
+  /***
+   * Creates a world.
+   *
+   * @param name
+   *          - The name of the world.
+   * @return
+   */
+  static World world(String name)
+  {
+    Map<String, Object> answers = new HashMap<String, Object>();
+
+    answers.put("getName", name);
+
+    return (create(World.class, answers));
+  }
+
+
+  /***
+   * Creates an online player holding every permission.
+   *
+   * @param name
+   *          - The name of the player.
+   * @return
+   */
+  static Player player(String name)
+  {
+    Map<String, Object> answers = new HashMap<String, Object>();
+
+    answers.put("getName", name);
+    answers.put("isOnline", Boolean.TRUE);
+    answers.put("hasPermission", Boolean.TRUE);
+
+    return (create(Player.class, answers));
+  }
+
+
+  /***
+   * Creates a server with the specified worlds and online players, called
+   * from its main thread.
+   *
+   * @param worlds
+   *          - The loaded worlds.
+   * @param players
+   *          - The online players.
+   * @return
+   */
+  static Server server(List<World> worlds, Player[] players)
+  {
+    return (create(Server.class, serverAnswers(worlds, players)));
+  }
+
+
+  /***
+   * Creates the plugin on a server with the specified worlds and online
+   * players, and enables it like the server does. The plugin reads its
+   * description and default configuration from the plugin.yml and
+   * config.yml on the class path.
+   *
+   * @param worlds
+   *          - The loaded worlds.
+   * @param players
+   *          - The online players.
+   * @param dataFolder
+   *          - The plugin data folder.
+   * @return
+   * @throws Exception
+   *           If the plugin cannot be created or fails to enable.
+   */
+  static XGoPlugin enable(List<World> worlds, Player[] players,
+      File dataFolder) throws Exception
+  {
+    Map<String, Object> answers = serverAnswers(worlds, players);
+    final Map<String, PluginCommand> commands = new HashMap<String, PluginCommand>();
+    final Plugin[] owner = new Plugin[1];
+    PluginDescriptionFile description;
+    InputStream in;
+    XGoPlugin plugin;
+
+    // Commands are created for the plugin as it asks for them
+    answers.put("getPluginCommand", new Answer()
+    {
+      @Override
+      public Object answer(Object[] args) throws Exception
+      {
+        PluginCommand command = commands.get(args[0]);
+
+        if (command == null)
+        {
+          command = command((String) args[0], owner[0]);
+          commands.put((String) args[0], command);
+        }
+
+        return (command);
+      }
+    });
+
+    in = BukkitStandIns.class.getResourceAsStream("/plugin.yml");
+    try
+    {
+      description = new PluginDescriptionFile(in);
+    }
+    finally
+    {
+      in.close();
+    }
+
+    plugin = new XGoPlugin(create(Server.class, answers), description, dataFolder);
+    owner[0] = plugin;
+    setEnabled(plugin, true);
+    if (!plugin.isEnabled())
+      throw new IllegalStateException("Plugin failed to enable.");
+
+    return (plugin);
+  }
+
+
+  /***
+   * Disables a plugin enabled by enable(), saving its data.
+   *
+   * @param plugin
+   *          - The plugin.
+   * @throws Exception
+   */
+  static void disable(JavaPlugin plugin) throws Exception
+  {
+    setEnabled(plugin, false);
+  }
+
+
+  /***
+   * Returns the answers of a server with the specified worlds and online
+   * players.
+   */
+  private static Map<String, Object> serverAnswers(List<World> worlds,
+      Player[] players)
+  {
+    Map<String, Object> answers = new HashMap<String, Object>();
+    final Map<String, World> worldsByName = new HashMap<String, World>();
+
+    for (World world : worlds)
+    {
+      worldsByName.put(world.getName(), world);
+    }
+
+    answers.put("getWorlds", new ArrayList<World>(worlds));
+    answers.put("getOnlinePlayers", players.clone());
+    answers.put("isPrimaryThread", Boolean.TRUE);
+    answers.put("getWorld", new Answer()
+    {
+      @Override
+      public Object answer(Object[] args)
+      {
+        return (worldsByName.get(args[0]));
+      }
+    });
+    answers.put("getLogger", Logger.getLogger("BukkitStandIns"));
+    answers.put("getScheduler", create(BukkitScheduler.class, new HashMap<String, Object>()));
+    answers.put("getPluginManager", create(PluginManager.class, new HashMap<String, Object>()));
+
+    return (answers);
+  }
+
+
+  /***
+   * Creates a plugin bound to a server, as needed to resolve location
+   * references. The plugin is not enabled.
+   *
+   * @param server
+   *          - The server.
+   * @return
+   */
+  static JavaPlugin plugin(Server server)
+  {
+    return (new StandInPlugin(server));
+  }
+
+
+  /***
+   * Sets whether a plugin is enabled, which calls onEnable() or onDisable()
+   * like the server's plugin loader.
+   */
+  private static void setEnabled(JavaPlugin plugin, boolean enabled)
+      throws Exception
+  {
+    Method setEnabled = JavaPlugin.class.getDeclaredMethod("setEnabled", boolean.class);
+
+    setEnabled.setAccessible(true);
+    setEnabled.invoke(plugin, enabled);
+  }
+
+
+  /***
+   * Creates a command of a plugin. PluginCommand has no public constructor,
+   * as only the server creates commands.
+   */
+  private static PluginCommand command(String name, Plugin owner)
+      throws Exception
+  {
+    Constructor<PluginCommand> constructor;
+
+    constructor = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+    constructor.setAccessible(true);
+
+    return (constructor.newInstance(name, owner));
+  }
+
+
+  /***
+   * Creates a proxy answering calls by method name. Answers are returned as
+   * is, unless they compute the result from the arguments.
+   */
+  private static <T> T create(final Class<T> type,
+      final Map<String, Object> answers)
+  {
+    Object proxy;
+
+    proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+          throws Exception
+      {
+        Object answer;
+
+        // Stand-ins are only equal to themselves
+        if (method.getName().equals("equals") && args != null && args.length == 1)
+          return (proxy == args[0]);
+        if (method.getName().equals("hashCode") && args == null)
+          return (System.identityHashCode(proxy));
+        if (method.getName().equals("toString") && args == null)
+          return (type.getSimpleName() + answers.get("getName"));
+
+        answer = answers.get(method.getName());
+        if (answer instanceof Answer)
+          return (((Answer) answer).answer(args));
+        if (answer != null)
+          return (answer);
+
+        return (defaultValue(method.getReturnType()));
+      }
+    });
+
+    return (type.cast(proxy));
+  }
+
+
+  /***
+   * Returns the value of a call without an answer.
+   */
+  private static Object defaultValue(Class<?> type)
+  {
+    if (type == boolean.class)
+      return (Boolean.FALSE);
+    if (type == int.class)
+      return (0);
+    if (type == long.class)
+      return (0L);
+    if (type == double.class)
+      return (0.0);
+    if (type == float.class)
+      return (0.0f);
+    if (type == short.class)
+      return ((short) 0);
+    if (type == byte.class)
+      return ((byte) 0);
+    if (type == char.class)
+      return ((char) 0);
+
+    return (null);
+  }
+
+
+  /***
+   * Computes the result of a call from its arguments.
+   *
+   * @author
+   *
+   */
+  private interface Answer
+  {
+
+
+    Object answer(Object[] args) throws Exception;
+
+  }
+
+
+  /***
+   * A plugin created outside a plugin class loader.
+   *
+   * @author
+   *
+   */
+  private static final class StandInPlugin extends JavaPlugin
+  {
+
+
+    @SuppressWarnings("deprecation")
+    StandInPlugin(Server server)
+    {
+      super(null, server, new PluginDescriptionFile("XGo", "0.1", XGoPlugin.class.getName()), new File("."), new File("."));
+    }
+
+  }
+
+}
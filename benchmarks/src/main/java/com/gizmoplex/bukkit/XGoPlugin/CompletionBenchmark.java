@@ -0,0 +1,127 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/***
+ * Tab completion of the go and go-send commands by the completers of the
+ * plugin, enabled on stand-ins for the server and called through its
+ * commands like the server does. Half of the locations are public, the other
+ * half belong to the completing player.
+ *
+ * @author
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionBenchmark
+{
+
+
+  private static final String[] FIRST_KEYS = { "mi", "#mi" };
+  private static final String[] TYPED = { "", "m", "mi", "min", "mine", "mine_", "mine_1" };
+  private static final String[] SENT_PLAYERS = { "Player1", "Player2" };
+
+  @Param({ "100", "1000", "10000" })
+  public int locationCount;
+
+  @Param({ "10", "100", "1000" })
+  public int playerCount;
+
+  private File _dataFolder;
+  private XGoPlugin _plugin;
+  private PluginCommand _go;
+  private PluginCommand _goSend;
+  private Player _player;
+  private int _next;
+
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    List<String> names = BenchmarkData.locationNames(locationCount);
+    Player[] players = BenchmarkData.players(playerCount);
+
+    _player = players[0];
+    _dataFolder = BenchmarkData.dataFolder(names.subList(0, names.size() / 2), _player.getName(), names.subList(names.size() / 2, names.size()));
+    _plugin = BukkitStandIns.enable(BenchmarkData.worlds(), players, _dataFolder);
+    _go = _plugin.getCommand("go");
+    _goSend = _plugin.getCommand("go-send");
+  }
+
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception
+  {
+    BukkitStandIns.disable(_plugin);
+    BenchmarkData.delete(_dataFolder);
+  }
+
+
+  /***
+   * Completes a single go argument the player's completion cache cannot
+   * answer, alternating between a private and a public prefix.
+   */
+  @Benchmark
+  public List<String> goFirstKey()
+  {
+    _next = (_next + 1) % FIRST_KEYS.length;
+
+    return (_go.tabComplete(_player, "go", new String[] { FIRST_KEYS[_next] }));
+  }
+
+
+  /***
+   * Completes a go argument after every key typed, as a client does.
+   */
+  @Benchmark
+  public int goTyping()
+  {
+    int count = 0;
+
+    for (int i = 0; i < TYPED.length; i++)
+    {
+      count += _go.tabComplete(_player, "go", new String[] { TYPED[i] }).size();
+    }
+
+    return (count);
+  }
+
+
+  /***
+   * Completes the last go-send argument, which may be another player, a
+   * location or a player to send to, alternating between two players so the
+   * completion cache cannot answer.
+   */
+  @Benchmark
+  public List<String> goSendLastArgument()
+  {
+    _next = (_next + 1) % SENT_PLAYERS.length;
+
+    return (_goSend.tabComplete(_player, "go-send", new String[] { "Player3", SENT_PLAYERS[_next] }));
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * The /go-list command of the plugin, enabled on stand-ins for the server
+ * and called through its command like the server does, with the default
+ * line width and page length: rendering the pages after the player's
+ * locations changed, and answering from the page cache once rendered. Half
+ * of the locations are public, the other half belong to the player.
+ *
+ * @author
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListRenderBenchmark
+{
+
+
+  private static final String CHANGED_NAME = "zz_changed";
+
+  @Param({ "100", "1000", "10000" })
+  public int locationCount;
+
+  @Param({ "", "mine" })
+  public String filter;
+
+  private File _dataFolder;
+  private XGoPlugin _plugin;
+  private PluginCommand _goList;
+  private Player _player;
+  private String[] _args;
+
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception
+  {
+    List<String> names = BenchmarkData.locationNames(locationCount);
+    Player[] players = BenchmarkData.players(1);
+
+    _player = players[0];
+    _dataFolder = BenchmarkData.dataFolder(names.subList(0, names.size() / 2), _player.getName(), names.subList(names.size() / 2, names.size()));
+    _plugin = BukkitStandIns.enable(BenchmarkData.worlds(), players, _dataFolder);
+    _goList = _plugin.getCommand("go-list");
+    _args = filter.isEmpty() ? new String[] { "1" } : new String[] { "1", filter };
+  }
+
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception
+  {
+    BukkitStandIns.disable(_plugin);
+    BenchmarkData.delete(_dataFolder);
+  }
+
+
+  /***
+   * Lists and renders the names like the go-list command on a cache miss.
+   */
+  @Benchmark
+  public boolean render(ChangedLocations changed)
+  {
+    return (_goList.execute(_player, "go-list", _args));
+  }
+
+
+  /***
+   * Returns a page of a list rendered before.
+   */
+  @Benchmark
+  public boolean cachedPage()
+  {
+    return (_goList.execute(_player, "go-list", _args));
+  }
+
+
+  /***
+   * Adds or removes a location of the player before each call, outside the
+   * measured time, so the rendered pages are out of date as after a /go-add
+   * or /go-del.
+   *
+   * @author
+   *
+   */
+  @State(Scope.Thread)
+  public static class ChangedLocations
+  {
+
+
+    @Setup(Level.Invocation)
+    public void change(ListRenderBenchmark benchmark)
+    {
+      String playerName = benchmark._player.getName();
+
+      if (benchmark._plugin.getPlayerLocations(playerName).containsKey(CHANGED_NAME))
+        benchmark._plugin.removeLocation(playerName, CHANGED_NAME);
+      else
+        benchmark._plugin.putLocation(playerName, CHANGED_NAME, new LocationReference(BenchmarkData.WORLD_NAMES[0], 0, 64, 0, 0, 0));
+    }
+
+  }
+
+}
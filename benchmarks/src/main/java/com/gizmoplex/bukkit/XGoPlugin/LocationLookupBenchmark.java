@@ -0,0 +1,131 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Looking up a location by name and turning it into a Bukkit location, as
+ * every teleport does: directly with LocationReference.ceateLocation(), and
+ * through the resolved location cache with its default capacity.
+ *
+ * @author
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationLookupBenchmark
+{
+
+
+  @Param({ "hash", "packed" })
+  public String engine;
+
+  @Param({ "1000", "100000" })
+  public int locationCount;
+
+  private Map<String, LocationReference> _locations;
+  private String[] _names;
+  private JavaPlugin _plugin;
+  private ResolvedLocationCache _resolved;
+  private int _next;
+
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    List<World> worlds = new ArrayList<World>();
+    List<String> names;
+
+    for (String worldName : BenchmarkData.WORLD_NAMES)
+    {
+      worlds.add(BukkitStandIns.world(worldName));
+    }
+
+    LocationMaps.setEngine(engine);
+    names = BenchmarkData.locationNames(locationCount);
+    _locations = LocationMaps.freeze(BenchmarkData.locations(names));
+    _names = names.toArray(new String[names.size()]);
+    _plugin = BukkitStandIns.plugin(BukkitStandIns.server(worlds, new Player[0]));
+    _resolved = new ResolvedLocationCache(_plugin, 1024);
+  }
+
+
+  /***
+   * Returns the next name to look up. Names are visited in a fixed stride so
+   * lookups do not hit the same entry every time.
+   */
+  private String nextName()
+  {
+    _next = (_next + 7919) % _names.length;
+
+    return (_names[_next]);
+  }
+
+
+  /***
+   * Returns the next name among the most used ones, which fit in the
+   * resolved location cache.
+   */
+  private String nextHotName()
+  {
+    _next = (_next + 1) % Math.min(256, _names.length);
+
+    return (_names[_next]);
+  }
+
+
+  @Benchmark
+  public LocationReference lookup()
+  {
+    return (_locations.get(nextName()));
+  }
+
+
+  @Benchmark
+  public Location lookupAndCreate()
+  {
+    return (_locations.get(nextName()).ceateLocation(_plugin));
+  }
+
+
+  @Benchmark
+  public Location lookupAndResolveHot()
+  {
+    return (_resolved.resolve(_locations.get(nextHotName())));
+  }
+
+
+  @Benchmark
+  public Location lookupAndCreateHot()
+  {
+    return (_locations.get(nextHotName()).ceateLocation(_plugin));
+  }
+
+}
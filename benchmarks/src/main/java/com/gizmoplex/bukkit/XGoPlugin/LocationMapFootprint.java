@@ -0,0 +1,104 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Measures the heap used per location by each storage engine: a HashMap of
+ * location references and a PackedLocationMap, on their own and segmented
+ * as LocationMaps creates them. Each map is filled with the
+ * same generated locations, and the used heap after garbage collection is
+ * compared with the used heap before. The names are created up front and are
+ * not counted, as both engines share them. Run with a heap large enough for
+ * the largest map, such as:
+ *   java -Xmx2g -cp target/benchmarks.jar \
+ *       com.gizmoplex.bukkit.XGoPlugin.LocationMapFootprint 1000000
+ *
+ * @author
+ *
+ */
+public final class LocationMapFootprint
+{
+
+
+  private LocationMapFootprint()
+  {
+  }
+
+
+  /***
+   * Measures both engines.
+   *
+   * @param args
+   *          - The number of locations, 1000000 if omitted.
+   */
+  public static void main(String[] args) throws InterruptedException
+  {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    List<String> names = BenchmarkData.locationNames(count);
+
+    report("hash", names);
+    report("packed", names);
+    report("segmented hash", names);
+    report("segmented packed", names);
+  }
+
+
+  /***
+   * Fills a presized map of an engine and prints the heap it takes,
+   * including its table.
+   */
+  private static void report(String engine, List<String> names)
+      throws InterruptedException
+  {
+    Map<String, LocationReference> locations;
+    long before;
+    long after;
+
+    before = usedHeap();
+    if (engine.startsWith("segmented "))
+    {
+      LocationMaps.setEngine(engine.substring(10));
+      locations = LocationMaps.create(names.size());
+    }
+    else if (engine.equals("packed"))
+    {
+      locations = new PackedLocationMap(names.size());
+    }
+    else
+    {
+      locations = new HashMap<String, LocationReference>(names.size() * 4 / 3 + 1);
+    }
+    BenchmarkData.fill(locations, names);
+    after = usedHeap();
+
+    System.out.println(String.format("%-18s %,d locations, %,.1f MB, %.1f bytes per location", engine + ":", locations.size(), (after - before) / 1048576.0, (after - before) / (double) locations.size()));
+  }
+
+
+  /***
+   * Returns the used heap after collecting garbage until it stops shrinking.
+   */
+  private static long usedHeap() throws InterruptedException
+  {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    long previous;
+
+    do
+    {
+      previous = used;
+      System.gc();
+      Thread.sleep(100);
+      used = runtime.totalMemory() - runtime.freeMemory();
+    } while (used < previous);
+
+    return (used);
+  }
+
+}
@@ -0,0 +1,119 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gizmoplex.bukkit.LocationReference;
+import com.gizmoplex.bukkit.PluginDataAdapter;
+
+
+/***
+ * Loading and saving large location maps with PluginDataAdapter, the Java
+ * serialization format of earlier versions, and with the location data
+ * format used now.
+ *
+ * @author
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark
+{
+
+
+  @Param({ "1000", "10000", "100000" })
+  public int locationCount;
+
+  private File _folder;
+  private File _adapterFile;
+  private File _dataFile;
+  private HashMap<String, LocationReference> _locations;
+
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException
+  {
+    PluginDataAdapter<HashMap<String, LocationReference>> adapter;
+
+    _folder = File.createTempFile("xgo-bench", "");
+    _folder.delete();
+    _folder.mkdir();
+    _adapterFile = new File(_folder, "locations.bin");
+    _dataFile = new File(_folder, "locations.dat");
+
+    _locations = new HashMap<String, LocationReference>(BenchmarkData.locations(BenchmarkData.locationNames(locationCount)));
+
+    // Write the files the load benchmarks read
+    adapter = new PluginDataAdapter<HashMap<String, LocationReference>>(_adapterFile.getPath());
+    adapter.SetObject(_locations);
+    if (!adapter.Save() || !LocationDataWriter.save(_dataFile, _locations))
+      throw new IOException("Unable to write benchmark data.");
+  }
+
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    for (File file : _folder.listFiles())
+    {
+      file.delete();
+    }
+    _folder.delete();
+  }
+
+
+  @Benchmark
+  public boolean adapterSave()
+  {
+    PluginDataAdapter<HashMap<String, LocationReference>> adapter;
+
+    adapter = new PluginDataAdapter<HashMap<String, LocationReference>>(new File(_folder, "save.bin").getPath());
+    adapter.SetObject(_locations);
+
+    return (adapter.Save());
+  }
+
+
+  @Benchmark
+  public Map<String, LocationReference> adapterLoad()
+  {
+    return (PluginDataFiles.<HashMap<String, LocationReference>> load(_adapterFile));
+  }
+
+
+  @Benchmark
+  public boolean locationDataSave()
+  {
+    return (LocationDataWriter.save(new File(_folder, "save.dat"), _locations));
+  }
+
+
+  @Benchmark
+  public Map<String, LocationReference> locationDataLoad() throws IOException
+  {
+    return (LocationDataReader.load(_dataFile));
+  }
+
+}
@@ -0,0 +1,112 @@
+package com.gizmoplex.bukkit.XGoLoadTest;
+
+
+import java.util.Arrays;
+
+
+/***
+ * Records every duration of a kind of operation, so exact percentiles can be
+ * reported at the end of a run.
+ *
+ * @author
+ *
+ */
+final class LatencyRecorder
+{
+
+
+  private long[] _nanos = new long[1024];
+  private int _count;
+  private long _total;
+
+
+  /***
+   * Records the time since a start time taken with System.nanoTime().
+   *
+   * @param startNanos
+   *          - The start time.
+   */
+  void record(long startNanos)
+  {
+    recordNanos(System.nanoTime() - startNanos);
+  }
+
+
+  /***
+   * Records a duration.
+   *
+   * @param nanos
+   *          - The duration in nanoseconds.
+   */
+  void recordNanos(long nanos)
+  {
+    if (_count == _nanos.length)
+      _nanos = Arrays.copyOf(_nanos, _count << 1);
+
+    _nanos[_count++] = nanos;
+    _total += nanos;
+  }
+
+
+  /***
+   * Returns the number of recorded durations.
+   *
+   * @return
+   */
+  int count()
+  {
+    return (_count);
+  }
+
+
+  /***
+   * Returns the number of recorded durations longer than a limit.
+   *
+   * @param nanos
+   *          - The limit in nanoseconds.
+   * @return
+   */
+  int countOver(long nanos)
+  {
+    int count = 0;
+
+    for (int i = 0; i < _count; i++)
+    {
+      if (_nanos[i] > nanos)
+        count++;
+    }
+
+    return (count);
+  }
+
+
+  /***
+   * Returns a line describing the durations in milliseconds.
+   *
+   * @return
+   */
+  String describe()
+  {
+    long[] sorted;
+
+    if (_count == 0)
+      return ("none");
+
+    sorted = Arrays.copyOf(_nanos, _count);
+    Arrays.sort(sorted);
+
+    return (String.format("%d, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms", _count, _total / 1e6 / _count, percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6, percentile(sorted, 0.999) / 1e6, sorted[_count - 1] / 1e6));
+  }
+
+
+  /***
+   * Returns a percentile of sorted durations.
+   */
+  private static long percentile(long[] sorted, double percentile)
+  {
+    int rank = (int) Math.ceil(sorted.length * percentile);
+
+    return (sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))]);
+  }
+
+}
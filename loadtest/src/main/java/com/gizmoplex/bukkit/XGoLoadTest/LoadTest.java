@@ -0,0 +1,549 @@
+package com.gizmoplex.bukkit.XGoLoadTest;
+
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.CommandException;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
+
+
+/***
+ * Headless load test of the XGo plugin. The plugin jar is loaded and enabled
+ * through Bukkit's own plugin loader on a simulated server, then thousands
+ * of simulated players join and run /go, /go-add, /go-del and tab
+ * completion at configurable rates while the server ticks. The real command
+ * executors and completers handle every call. At the end, the time each tick
+ * spent in the plugin, command latencies and heap growth are reported.
+ *
+ * <pre>
+ * java -jar target/loadtest.jar [--option value]...
+ *
+ *   --plugin           plugin jar (target/xgo-plugin.jar)
+ *   --work             working folder, a new temporary folder by default
+ *   --engine           in-memory storage engine, hash or packed (the
+ *                      plugin's default)
+ *   --players          number of simulated players (1000)
+ *   --join-per-tick    players joining per tick until all are online (10)
+ *   --seconds          seconds to run once all players are online (60)
+ *   --go-rate          /go commands per player per second (0.1)
+ *   --add-rate         /go-add commands per player per second (0.02)
+ *   --complete-rate    tab completions per player per second (0.5)
+ *   --public-locations public locations added before players join (100)
+ *   --max-private      private locations per player; older ones are
+ *                      deleted (20)
+ *   --paced            sleep between ticks to run at 20 ticks per
+ *                      second (true)
+ *   --seed             random seed (1)
+ * </pre>
+ *
+ * @author
+ *
+ */
+public final class LoadTest
+{
+
+
+  private static final String[] WORLD_NAMES = { "world", "world_nether", "world_the_end" };
+  private static final long TICK_NANOS = 50000000L;
+
+  private final Map<String, String> _options;
+  private final Random _random;
+  private final List<SimulatedPlayer> _players = new ArrayList<SimulatedPlayer>();
+  private final LinkedHashMap<String, LatencyRecorder> _latencies = new LinkedHashMap<String, LatencyRecorder>();
+  private final LatencyRecorder _tickTimes = new LatencyRecorder();
+  private SimulatedServer _server;
+  private int _publicLocationCount;
+  private int _nextLocation;
+  private int _errors;
+
+
+  private LoadTest(Map<String, String> options)
+  {
+    _options = options;
+    _random = new Random(Long.parseLong(option("seed", "1")));
+  }
+
+
+  /***
+   * Runs the load test.
+   *
+   * @param args
+   *          - Options as "--name value" pairs.
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception
+  {
+    Map<String, String> options = new LinkedHashMap<String, String>();
+
+    for (int i = 0; i + 1 < args.length; i += 2)
+    {
+      if (!args[i].startsWith("--"))
+        throw new IllegalArgumentException("Expected an option instead of " + args[i] + ".");
+      options.put(args[i].substring(2), args[i + 1]);
+    }
+
+    new LoadTest(options).run();
+    System.exit(0);
+  }
+
+
+  /***
+   * Loads and enables the plugin, runs the simulation, disables the plugin
+   * and prints the report.
+   */
+  private void run() throws Exception
+  {
+    JavaPluginLoader loader;
+    Plugin plugin;
+    File work;
+    File jar;
+    SimulatedPlayer admin;
+    int playerCount = Integer.parseInt(option("players", "1000"));
+    int joinPerTick = Integer.parseInt(option("join-per-tick", "10"));
+    long ticks = Long.parseLong(option("seconds", "60")) * 20;
+    boolean paced = Boolean.parseBoolean(option("paced", "true"));
+    long heapBefore;
+    long heapPeak = 0;
+    long heapAfter;
+    long locationCount;
+    long start;
+    long tickStart;
+    long sleep;
+
+    // Copy the plugin into its own plugins folder, which holds its data
+    work = _options.containsKey("work") ? new File(_options.get("work")) : Files.createTempDirectory("xgo-loadtest").toFile();
+    new File(work, "plugins").mkdirs();
+    jar = new File(new File(work, "plugins"), "XGo.jar");
+    Files.copy(new File(option("plugin", "target/xgo-plugin.jar")).toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    // Select the storage engine; other settings keep the plugin's defaults
+    if (_options.containsKey("engine"))
+    {
+      new File(work, "plugins/XGo").mkdirs();
+      Files.write(new File(work, "plugins/XGo/config.yml").toPath(), Arrays.asList("storage:", "  engine: " + _options.get("engine")), StandardCharsets.UTF_8);
+    }
+
+    // Load and enable the plugin like the server does
+    _server = new SimulatedServer(WORLD_NAMES);
+    Bukkit.setServer(_server.getServer());
+    loader = new JavaPluginLoader(_server.getServer());
+    plugin = loader.loadPlugin(jar);
+    _server.setPlugin(plugin);
+
+    start = System.nanoTime();
+    loader.enablePlugin(plugin);
+    latency("enable").record(start);
+    if (!plugin.isEnabled())
+      throw new IllegalStateException("Plugin failed to enable.");
+
+    heapBefore = usedHeapAfterGc();
+
+    // Add the public locations
+    admin = new SimulatedPlayer(_server.getServer(), "LoadTestAdmin", randomLocation());
+    _server.join(admin);
+    _publicLocationCount = Integer.parseInt(option("public-locations", "100"));
+    for (int i = 0; i < _publicLocationCount; i++)
+    {
+      admin.getPlayer().teleport(randomLocation());
+      execute(admin, "go-add", "#pub" + i);
+    }
+
+    // Tick until all players joined, then for the configured time
+    for (long tick = 0; tick < ticks || _players.size() < playerCount; tick = _players.size() < playerCount ? 0 : tick + 1)
+    {
+      tickStart = System.nanoTime();
+
+      _server.tick();
+
+      for (int i = 0; i < joinPerTick && _players.size() < playerCount; i++)
+      {
+        join();
+      }
+
+      for (int i = 0; i < _players.size(); i++)
+      {
+        act(_players.get(i));
+      }
+
+      _tickTimes.record(tickStart);
+
+      if (_server.getTick() % 100 == 0)
+        heapPeak = Math.max(heapPeak, usedHeap());
+
+      if (paced)
+      {
+        sleep = TICK_NANOS - (System.nanoTime() - tickStart);
+        if (sleep > 0)
+          Thread.sleep(sleep / 1000000L, (int) (sleep % 1000000L));
+      }
+    }
+
+    locationCount = countLocations(plugin);
+    heapAfter = usedHeapAfterGc();
+
+    // Let the teleports still queued finish
+    for (int i = 0; i < 200; i++)
+    {
+      _server.tick();
+    }
+
+    report(plugin, heapBefore, heapPeak, heapAfter, locationCount);
+
+    // Quit every player, then disable the plugin, saving its data
+    start = System.nanoTime();
+    for (SimulatedPlayer player : _players)
+    {
+      _server.quit(player);
+    }
+    _server.quit(admin);
+    latency("quit all").record(start);
+
+    start = System.nanoTime();
+    loader.disablePlugin(plugin);
+    latency("disable").record(start);
+    _server.shutdown();
+
+    System.out.println("quit all:          " + latency("quit all").describe());
+    System.out.println("disable:           " + latency("disable").describe());
+    System.out.println("data folder:       " + new File(jar.getParentFile(), plugin.getName()).getPath());
+  }
+
+
+  /***
+   * Lets a new player join.
+   */
+  private void join() throws Exception
+  {
+    SimulatedPlayer player = new SimulatedPlayer(_server.getServer(), "Player" + _players.size(), randomLocation());
+    long start = System.nanoTime();
+
+    _server.join(player);
+    latency("join").record(start);
+
+    _players.add(player);
+  }
+
+
+  /***
+   * Lets a player do what the rates call for in this tick.
+   */
+  private void act(SimulatedPlayer player) throws Exception
+  {
+    String name;
+
+    // Add a location where the player is, making room if at the limit
+    if (roll("add-rate", "0.02"))
+    {
+      if (player.getLocationNames().size() >= Integer.parseInt(option("max-private", "20")))
+        execute(player, "go-del", player.getLocationNames().removeFirst());
+
+      player.getPlayer().teleport(randomLocation());
+      name = "loc" + _nextLocation++;
+      execute(player, "go-add", name);
+      player.getLocationNames().addLast(name);
+    }
+
+    if (roll("go-rate", "0.1"))
+      execute(player, "go", destination(player));
+
+    // Complete the start of a destination
+    if (roll("complete-rate", "0.5"))
+    {
+      name = destination(player);
+      complete(player, "go", name.substring(0, Math.min(name.length(), 1 + _random.nextInt(3))));
+    }
+  }
+
+
+  /***
+   * Returns a destination for a player: one of the player's locations, a
+   * public location or another player.
+   */
+  private String destination(SimulatedPlayer player)
+  {
+    int kind = _random.nextInt(10);
+    ArrayList<String> names;
+
+    if (kind < 4 && !player.getLocationNames().isEmpty())
+    {
+      names = new ArrayList<String>(player.getLocationNames());
+      return (names.get(_random.nextInt(names.size())));
+    }
+
+    if (kind < 8 && _publicLocationCount > 0)
+      return ("#pub" + _random.nextInt(_publicLocationCount));
+
+    return ("@" + _players.get(_random.nextInt(_players.size())).getName());
+  }
+
+
+  /***
+   * Runs a command as a player through the plugin command, like the server.
+   */
+  private void execute(SimulatedPlayer player, String name, String... args)
+  {
+    PluginCommand command = _server.getCommand(name);
+    long start = System.nanoTime();
+
+    try
+    {
+      command.execute(player.getPlayer(), name, args);
+    }
+    catch (CommandException e)
+    {
+      if (_errors++ < 10)
+        e.printStackTrace();
+    }
+
+    latency("/" + name).record(start);
+  }
+
+
+  /***
+   * Runs a tab completion as a player through the plugin command.
+   */
+  private void complete(SimulatedPlayer player, String name, String... args)
+  {
+    PluginCommand command = _server.getCommand(name);
+    long start = System.nanoTime();
+
+    try
+    {
+      command.tabComplete(player.getPlayer(), name, args);
+    }
+    catch (CommandException e)
+    {
+      if (_errors++ < 10)
+        e.printStackTrace();
+    }
+
+    latency("complete /" + name).record(start);
+  }
+
+
+  /***
+   * Prints the report.
+   */
+  private void report(Plugin plugin, long heapBefore, long heapPeak,
+      long heapAfter, long locationCount)
+  {
+    final List<String> stats = new ArrayList<String>();
+    CommandSender console;
+
+    System.out.println();
+    System.out.println("players:           " + _players.size());
+    System.out.println("ticks:             " + _tickTimes.count() + ", over 50 ms: " + _tickTimes.countOver(TICK_NANOS));
+    System.out.println("tick time:         " + _tickTimes.describe());
+    for (Map.Entry<String, LatencyRecorder> entry : _latencies.entrySet())
+    {
+      System.out.println(String.format("%-19s", entry.getKey() + ":") + entry.getValue().describe());
+    }
+    System.out.println("command errors:    " + _errors);
+    System.out.println("loaded chunks:     " + _server.getLoadedChunkCount());
+    System.out.println("heap before:       " + heapBefore / 1024 + " KB");
+    System.out.println("heap peak sampled: " + heapPeak / 1024 + " KB");
+    System.out.println("heap after:        " + heapAfter / 1024 + " KB");
+    System.out.println("resident locations:" + locationCount);
+    if (locationCount > 0)
+      System.out.println("heap per location: " + (heapAfter - heapBefore) / locationCount + " bytes, including indexes and caches");
+
+    // The plugin's own metrics
+    console = (CommandSender) Proxy.newProxyInstance(CommandSender.class.getClassLoader(), new Class<?>[] { CommandSender.class }, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if (method.getName().equals("sendMessage") && args[0] instanceof String)
+          stats.add((String) args[0]);
+        if (method.getName().equals("getName"))
+          return ("CONSOLE");
+        if (method.getName().equals("hasPermission") || method.getName().equals("isOp"))
+          return (Boolean.TRUE);
+
+        return (defaultValue(method.getReturnType()));
+      }
+    });
+    _server.getCommand("go-stats").execute(console, "go-stats", new String[0]);
+
+    System.out.println();
+    System.out.println("plugin metrics:");
+    for (String line : stats)
+    {
+      System.out.println("  " + line);
+    }
+    System.out.println();
+  }
+
+
+  /***
+   * Returns the number of public and resident private locations, read
+   * through the plugin's public API.
+   */
+  private static long countLocations(Plugin plugin) throws Exception
+  {
+    long count;
+    Map<?, ?> privateLocations;
+
+    count = ((Map<?, ?>) plugin.getClass().getMethod("getPublicLocations").invoke(plugin)).size();
+    privateLocations = (Map<?, ?>) plugin.getClass().getMethod("getPrivateLocations").invoke(plugin);
+    for (Object locations : privateLocations.values())
+    {
+      count += ((Map<?, ?>) locations).size();
+    }
+
+    return (count);
+  }
+
+
+  /***
+   * Returns whether an action happens in this tick for its rate per second.
+   */
+  private boolean roll(String rateOption, String defaultRate)
+  {
+    return (_random.nextDouble() < Double.parseDouble(option(rateOption, defaultRate)) / 20);
+  }
+
+
+  /***
+   * Returns a random location in one of the worlds.
+   */
+  private Location randomLocation()
+  {
+    World world = _server.getWorld(WORLD_NAMES[_random.nextInt(WORLD_NAMES.length)]);
+
+    return (new Location(world, _random.nextInt(20000) - 10000, 64 + _random.nextInt(64), _random.nextInt(20000) - 10000, _random.nextFloat() * 360, 0));
+  }
+
+
+  /***
+   * Returns the recorder of an operation.
+   */
+  private LatencyRecorder latency(String name)
+  {
+    LatencyRecorder recorder = _latencies.get(name);
+
+    if (recorder == null)
+    {
+      recorder = new LatencyRecorder();
+      _latencies.put(name, recorder);
+    }
+
+    return (recorder);
+  }
+
+
+  /***
+   * Returns an option, or its default if not given.
+   */
+  private String option(String name, String defaultValue)
+  {
+    String value = _options.get(name);
+
+    return (value != null ? value : defaultValue);
+  }
+
+
+  /***
+   * Returns the used heap.
+   */
+  private static long usedHeap()
+  {
+    return (ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+  }
+
+
+  /***
+   * Returns the used heap after collecting garbage.
+   */
+  private static long usedHeapAfterGc() throws InterruptedException
+  {
+    for (int i = 0; i < 3; i++)
+    {
+      System.gc();
+      Thread.sleep(100);
+    }
+
+    return (usedHeap());
+  }
+
+
+  /***
+   * Creates the event of a player logging in.
+   */
+  static Event preLoginEvent(String playerName)
+  {
+    return (new AsyncPlayerPreLoginEvent(playerName, InetAddress.getLoopbackAddress(), UUID.nameUUIDFromBytes(playerName.getBytes())));
+  }
+
+
+  /***
+   * Creates the event of a player joining.
+   */
+  static Event joinEvent(Player player)
+  {
+    return (new PlayerJoinEvent(player, null));
+  }
+
+
+  /***
+   * Creates the event of a player quitting.
+   */
+  static Event quitEvent(Player player)
+  {
+    return (new PlayerQuitEvent(player, null));
+  }
+
+
+  /***
+   * Returns the value of a stand-in call without an answer: zero, false or
+   * null.
+   */
+  static Object defaultValue(Class<?> type)
+  {
+    if (type == boolean.class)
+      return (Boolean.FALSE);
+    if (type == int.class)
+      return (0);
+    if (type == long.class)
+      return (0L);
+    if (type == double.class)
+      return (0.0);
+    if (type == float.class)
+      return (0.0f);
+    if (type == short.class)
+      return ((short) 0);
+    if (type == byte.class)
+      return ((byte) 0);
+    if (type == char.class)
+      return ((char) 0);
+
+    return (null);
+  }
+
+}
@@ -0,0 +1,197 @@
+package com.gizmoplex.bukkit.XGoLoadTest;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+
+
+/***
+ * A simulated online player. The player holds every permission, keeps the
+ * location it was last teleported to, and counts the messages it is sent
+ * instead of showing them. The Player is a dynamic proxy; calls the plugin
+ * does not make return zero, false or null.
+ *
+ * @author
+ *
+ */
+final class SimulatedPlayer implements InvocationHandler
+{
+
+
+  private final Server _server;
+  private final String _name;
+  private final UUID _uniqueId;
+  private final Player _player;
+  private final AtomicLong _messages = new AtomicLong();
+  private final ArrayDeque<String> _locationNames = new ArrayDeque<String>();
+  private volatile Location _location;
+  private volatile boolean _online = true;
+  private volatile String _lastMessage;
+
+
+  /***
+   * Creates a player.
+   *
+   * @param server
+   *          - The server the player is on.
+   * @param name
+   *          - The name of the player.
+   * @param location
+   *          - The location the player joins at.
+   */
+  SimulatedPlayer(Server server, String name, Location location)
+  {
+    _server = server;
+    _name = name;
+    _uniqueId = UUID.nameUUIDFromBytes(name.getBytes());
+    _location = location;
+    _player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] { Player.class }, this);
+  }
+
+
+  /***
+   * Returns the Bukkit player.
+   *
+   * @return
+   */
+  Player getPlayer()
+  {
+    return (_player);
+  }
+
+
+  /***
+   * Returns the name of the player.
+   *
+   * @return
+   */
+  String getName()
+  {
+    return (_name);
+  }
+
+
+  /***
+   * Returns the names of the private locations the player added, oldest
+   * first.
+   *
+   * @return
+   */
+  ArrayDeque<String> getLocationNames()
+  {
+    return (_locationNames);
+  }
+
+
+  /***
+   * Returns the number of messages the player was sent.
+   *
+   * @return
+   */
+  long getMessageCount()
+  {
+    return (_messages.get());
+  }
+
+
+  /***
+   * Returns the last message the player was sent.
+   *
+   * @return
+   */
+  String getLastMessage()
+  {
+    return (_lastMessage);
+  }
+
+
+  /***
+   * Marks the player as having left the server.
+   */
+  void quit()
+  {
+    _online = false;
+  }
+
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args)
+  {
+    String name = method.getName();
+    int argCount = args == null ? 0 : args.length;
+
+    // Players are only equal to themselves
+    if (name.equals("equals") && argCount == 1)
+      return (proxy == args[0]);
+    if (name.equals("hashCode") && argCount == 0)
+      return (System.identityHashCode(proxy));
+    if (name.equals("toString") && argCount == 0)
+      return ("SimulatedPlayer{name=" + _name + "}");
+
+    if (name.equals("getName") || name.equals("getDisplayName") || name.equals("getPlayerListName"))
+      return (_name);
+    if (name.equals("getUniqueId"))
+      return (_uniqueId);
+    if (name.equals("getServer"))
+      return (_server);
+    if (name.equals("isOnline") || name.equals("isValid"))
+      return (_online);
+    if (name.equals("hasPermission") || name.equals("isPermissionSet") || name.equals("isOp"))
+      return (Boolean.TRUE);
+    if (name.equals("getLocation") && argCount == 0)
+      return (_location.clone());
+    if (name.equals("getWorld"))
+      return (_location.getWorld());
+
+    if (name.equals("sendMessage"))
+    {
+      if (args[0] instanceof String[])
+      {
+        for (String message : (String[]) args[0])
+        {
+          message(message);
+        }
+      }
+      else
+      {
+        message((String) args[0]);
+      }
+      return (null);
+    }
+
+    if (name.equals("teleport"))
+    {
+      if (!_online)
+        return (Boolean.FALSE);
+
+      if (args[0] instanceof Location)
+        _location = ((Location) args[0]).clone();
+      else
+        _location = ((Entity) args[0]).getLocation();
+
+      return (Boolean.TRUE);
+    }
+
+    return (LoadTest.defaultValue(method.getReturnType()));
+  }
+
+
+  /***
+   * Counts a message sent to the player.
+   */
+  private void message(String message)
+  {
+    _messages.incrementAndGet();
+    _lastMessage = message;
+  }
+
+}
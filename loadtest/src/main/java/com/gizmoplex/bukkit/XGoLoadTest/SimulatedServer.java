@@ -0,0 +1,662 @@
+package com.gizmoplex.bukkit.XGoLoadTest;
+
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+
+/***
+ * A headless stand-in for a Bukkit server. It provides the worlds, online
+ * players, scheduler, plugin manager and plugin commands the plugin uses,
+ * all as dynamic proxies, and runs the scheduled tasks one tick at a time
+ * when tick() is called. The thread that created the server is its main
+ * thread. Event handlers registered by the plugin are called directly by
+ * callEvent(), ignoring priorities.
+ *
+ * @author
+ *
+ */
+final class SimulatedServer
+{
+
+
+  private final Thread _mainThread = Thread.currentThread();
+  private final Logger _logger = Logger.getLogger("SimulatedServer");
+  private final Server _server;
+  private final BukkitScheduler _scheduler;
+  private final PluginManager _pluginManager;
+  private final LinkedHashMap<String, World> _worlds = new LinkedHashMap<String, World>();
+  private final Map<String, Set<Long>> _loadedChunks = new ConcurrentHashMap<String, Set<Long>>();
+  private final LinkedHashMap<String, SimulatedPlayer> _players = new LinkedHashMap<String, SimulatedPlayer>();
+  private final List<Object[]> _handlers = new ArrayList<Object[]>();
+  private final Map<String, PluginCommand> _commands = new ConcurrentHashMap<String, PluginCommand>();
+  private final ConcurrentLinkedQueue<Task> _scheduled = new ConcurrentLinkedQueue<Task>();
+  private final List<Task> _tasks = new ArrayList<Task>();
+  private final ExecutorService _async = Executors.newCachedThreadPool();
+  private final AtomicInteger _taskIds = new AtomicInteger();
+  private volatile Player[] _onlinePlayers = new Player[0];
+  private volatile Plugin _plugin;
+  private volatile long _tick;
+
+
+  /***
+   * Creates a server with the specified worlds.
+   *
+   * @param worldNames
+   *          - The names of the loaded worlds.
+   */
+  SimulatedServer(String[] worldNames)
+  {
+    _server = proxy(Server.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        return (serverCall(proxy, method, args));
+      }
+    });
+
+    _scheduler = proxy(BukkitScheduler.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        return (schedulerCall(proxy, method, args));
+      }
+    });
+
+    _pluginManager = proxy(PluginManager.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+        throws Exception
+      {
+        return (pluginManagerCall(proxy, method, args));
+      }
+    });
+
+    for (int i = 0; i < worldNames.length; i++)
+    {
+      _worlds.put(worldNames[i], createWorld(worldNames[i]));
+    }
+  }
+
+
+  /***
+   * Returns the Bukkit server.
+   *
+   * @return
+   */
+  Server getServer()
+  {
+    return (_server);
+  }
+
+
+  /***
+   * Sets the plugin owning the commands.
+   *
+   * @param plugin
+   *          - The plugin.
+   */
+  void setPlugin(Plugin plugin)
+  {
+    _plugin = plugin;
+  }
+
+
+  /***
+   * Returns a loaded world.
+   *
+   * @param name
+   *          - The name of the world.
+   * @return
+   */
+  World getWorld(String name)
+  {
+    return (_worlds.get(name));
+  }
+
+
+  /***
+   * Returns the number of ticks run so far.
+   *
+   * @return
+   */
+  long getTick()
+  {
+    return (_tick);
+  }
+
+
+  /***
+   * Returns the number of loaded chunks in all worlds.
+   *
+   * @return
+   */
+  int getLoadedChunkCount()
+  {
+    int count = 0;
+
+    for (Set<Long> chunks : _loadedChunks.values())
+    {
+      count += chunks.size();
+    }
+
+    return (count);
+  }
+
+
+  /***
+   * Returns a plugin command by name.
+   *
+   * @param name
+   *          - The command name.
+   * @return
+   */
+  PluginCommand getCommand(String name)
+  {
+    return (_server.getPluginCommand(name));
+  }
+
+
+  /***
+   * Adds a player and calls the login and join events: the asynchronous
+   * pre-login event on another thread, then the join event on the main
+   * thread, as a server does.
+   *
+   * @param player
+   *          - The joining player.
+   * @throws Exception
+   */
+  void join(SimulatedPlayer player) throws Exception
+  {
+    final Event preLogin = LoadTest.preLoginEvent(player.getName());
+
+    _async.submit(new Callable<Void>()
+    {
+      @Override
+      public Void call() throws Exception
+      {
+        callEvent(preLogin);
+        return (null);
+      }
+    }).get();
+
+    _players.put(player.getName(), player);
+    _onlinePlayers = onlinePlayers();
+    callEvent(LoadTest.joinEvent(player.getPlayer()));
+  }
+
+
+  /***
+   * Removes a player and calls the quit event.
+   *
+   * @param player
+   *          - The leaving player.
+   * @throws Exception
+   */
+  void quit(SimulatedPlayer player) throws Exception
+  {
+    callEvent(LoadTest.quitEvent(player.getPlayer()));
+    player.quit();
+    _players.remove(player.getName());
+    _onlinePlayers = onlinePlayers();
+  }
+
+
+  /***
+   * Runs the tasks due in the next tick.
+   */
+  void tick()
+  {
+    Iterator<Task> i;
+    Task task;
+
+    _tick++;
+
+    // Take the tasks scheduled since the last tick
+    while ((task = _scheduled.poll()) != null)
+    {
+      _tasks.add(task);
+    }
+
+    i = _tasks.iterator();
+    while (i.hasNext())
+    {
+      task = i.next();
+      if (task.cancelled)
+      {
+        i.remove();
+        continue;
+      }
+      if (task.due > _tick)
+        continue;
+
+      if (task.async)
+        _async.execute(task.runnable);
+      else
+        task.runnable.run();
+
+      if (task.period > 0)
+        task.due = _tick + task.period;
+      else
+        i.remove();
+    }
+  }
+
+
+  /***
+   * Stops the asynchronous task threads, waiting for running tasks.
+   *
+   * @throws InterruptedException
+   */
+  void shutdown() throws InterruptedException
+  {
+    _async.shutdown();
+    _async.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+
+  /***
+   * Calls the handlers of an event registered by the plugin.
+   *
+   * @param event
+   *          - The event.
+   * @throws Exception
+   */
+  void callEvent(Event event) throws Exception
+  {
+    Object[] handler;
+
+    for (int i = 0; i < _handlers.size(); i++)
+    {
+      handler = _handlers.get(i);
+      if (((Method) handler[1]).getParameterTypes()[0].isInstance(event))
+      {
+        try
+        {
+          ((Method) handler[1]).invoke(handler[0], event);
+        }
+        catch (InvocationTargetException e)
+        {
+          throw (Exception) e.getCause();
+        }
+      }
+    }
+  }
+
+
+  /***
+   * Answers a call on the server.
+   */
+  private Object serverCall(Object proxy, Method method, Object[] args)
+  {
+    String name = method.getName();
+
+    if (name.equals("getOnlinePlayers"))
+      return (_onlinePlayers.clone());
+    if (name.equals("getPlayerExact"))
+      return (findPlayer((String) args[0], true));
+    if (name.equals("getPlayer") && args[0] instanceof String)
+      return (findPlayer((String) args[0], false));
+    if (name.equals("getWorld") && args[0] instanceof String)
+      return (_worlds.get(args[0]));
+    if (name.equals("getWorlds"))
+      return (new ArrayList<World>(_worlds.values()));
+    if (name.equals("getScheduler"))
+      return (_scheduler);
+    if (name.equals("getPluginManager"))
+      return (_pluginManager);
+    if (name.equals("isPrimaryThread"))
+      return (Thread.currentThread() == _mainThread);
+    if (name.equals("getLogger"))
+      return (_logger);
+    if (name.equals("getPluginCommand"))
+      return (pluginCommand((String) args[0]));
+    if (name.equals("getName"))
+      return ("SimulatedServer");
+    if (name.equals("getVersion") || name.equals("getBukkitVersion"))
+      return ("1.7.10-R0.1-SNAPSHOT");
+    if (name.equals("getMaxPlayers"))
+      return (Integer.MAX_VALUE);
+
+    return (objectCall(proxy, method, args));
+  }
+
+
+  /***
+   * Answers a call on the scheduler.
+   */
+  private Object schedulerCall(Object proxy, Method method, Object[] args)
+  {
+    String name = method.getName();
+    final FutureTask<Object> future;
+
+    if (name.equals("runTask"))
+      return (schedule((Runnable) args[1], 1, 0, false));
+    if (name.equals("runTaskLater"))
+      return (schedule((Runnable) args[1], (Long) args[2], 0, false));
+    if (name.equals("runTaskTimer"))
+      return (schedule((Runnable) args[1], (Long) args[2], (Long) args[3], false));
+    if (name.equals("runTaskAsynchronously"))
+      return (schedule((Runnable) args[1], 1, 0, true));
+    if (name.equals("runTaskTimerAsynchronously"))
+      return (schedule((Runnable) args[1], (Long) args[2], (Long) args[3], true));
+
+    if (name.equals("callSyncMethod"))
+    {
+      @SuppressWarnings("unchecked")
+      Callable<Object> callable = (Callable<Object>) args[1];
+      future = new FutureTask<Object>(callable);
+      schedule(future, 1, 0, false);
+      return (future);
+    }
+
+    if (name.equals("cancelTasks"))
+    {
+      for (Task task : _scheduled)
+      {
+        task.cancelled = true;
+      }
+      for (Task task : _tasks)
+      {
+        task.cancelled = true;
+      }
+      return (null);
+    }
+
+    return (objectCall(proxy, method, args));
+  }
+
+
+  /***
+   * Answers a call on the plugin manager.
+   */
+  private Object pluginManagerCall(Object proxy, Method method,
+      Object[] args)
+    throws Exception
+  {
+    String name = method.getName();
+
+    if (name.equals("registerEvents"))
+    {
+      register((Listener) args[0]);
+      return (null);
+    }
+
+    if (name.equals("callEvent"))
+    {
+      callEvent((Event) args[0]);
+      return (null);
+    }
+
+    if (name.equals("getPlugin"))
+      return (_plugin != null && _plugin.getName().equals(args[0]) ? _plugin : null);
+    if (name.equals("isPluginEnabled"))
+      return (_plugin != null && _plugin.isEnabled());
+
+    return (objectCall(proxy, method, args));
+  }
+
+
+  /***
+   * Answers the Object methods of a proxy, and any other call with zero,
+   * false or null.
+   */
+  private static Object objectCall(Object proxy, Method method,
+      Object[] args)
+  {
+    if (method.getName().equals("equals") && args != null && args.length == 1)
+      return (proxy == args[0]);
+    if (method.getName().equals("hashCode") && args == null)
+      return (System.identityHashCode(proxy));
+    if (method.getName().equals("toString") && args == null)
+      return ("Simulated" + method.getDeclaringClass().getSimpleName());
+
+    return (LoadTest.defaultValue(method.getReturnType()));
+  }
+
+
+  /***
+   * Creates a world whose chunks are loaded when asked for.
+   */
+  private World createWorld(final String worldName)
+  {
+    final Set<Long> chunks = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    _loadedChunks.put(worldName, chunks);
+
+    return (proxy(World.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        String name = method.getName();
+        List<Player> players;
+
+        if (name.equals("equals") && args != null && args.length == 1)
+          return (proxy == args[0]);
+        if (name.equals("hashCode") && args == null)
+          return (worldName.hashCode());
+        if (name.equals("getName"))
+          return (worldName);
+        if (name.equals("isChunkLoaded") && args != null && args.length == 2)
+          return (chunks.contains(key((Integer) args[0], (Integer) args[1])));
+        if (name.equals("loadChunk") && args != null && args.length >= 2 && args[0] instanceof Integer)
+        {
+          chunks.add(key((Integer) args[0], (Integer) args[1]));
+          return (Boolean.TRUE);
+        }
+        if (name.equals("unloadChunk") && args != null && args.length >= 2 && args[0] instanceof Integer)
+          return (chunks.remove(key((Integer) args[0], (Integer) args[1])));
+        if (name.equals("getSpawnLocation"))
+          return (new Location((World) proxy, 0, 64, 0));
+
+        if (name.equals("getPlayers"))
+        {
+          players = new ArrayList<Player>();
+          for (Player player : _onlinePlayers)
+          {
+            if (player.getWorld() == proxy)
+              players.add(player);
+          }
+          return (players);
+        }
+
+        return (objectCall(proxy, method, args));
+      }
+    }));
+  }
+
+
+  /***
+   * Returns the online player with a name, or starting with it unless exact.
+   */
+  private Player findPlayer(String name, boolean exact)
+  {
+    Player best = null;
+
+    for (Player player : _onlinePlayers)
+    {
+      if (player.getName().equalsIgnoreCase(name))
+        return (player);
+
+      if (!exact && player.getName().regionMatches(true, 0, name, 0, name.length())
+          && (best == null || player.getName().length() < best.getName().length()))
+        best = player;
+    }
+
+    return (best);
+  }
+
+
+  /***
+   * Returns the online players in join order.
+   */
+  private Player[] onlinePlayers()
+  {
+    Player[] players = new Player[_players.size()];
+    int i = 0;
+
+    for (SimulatedPlayer player : _players.values())
+    {
+      players[i++] = player.getPlayer();
+    }
+
+    return (players);
+  }
+
+
+  /***
+   * Returns the command of the plugin with a name, creating it on first use.
+   * PluginCommand has no public constructor, as only the server creates
+   * commands.
+   */
+  private PluginCommand pluginCommand(String name)
+  {
+    PluginCommand command;
+    Constructor<PluginCommand> constructor;
+
+    command = _commands.get(name);
+    if (command == null && _plugin != null)
+    {
+      try
+      {
+        constructor = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+        constructor.setAccessible(true);
+        command = constructor.newInstance(name, _plugin);
+      }
+      catch (Exception e)
+      {
+        throw new IllegalStateException("Unable to create command " + name + ".", e);
+      }
+      _commands.put(name, command);
+    }
+
+    return (command);
+  }
+
+
+  /***
+   * Remembers the event handler methods of a listener.
+   */
+  private void register(Listener listener)
+  {
+    for (Method method : listener.getClass().getDeclaredMethods())
+    {
+      if (method.isAnnotationPresent(EventHandler.class) && method.getParameterTypes().length == 1)
+      {
+        method.setAccessible(true);
+        _handlers.add(new Object[] { listener, method });
+      }
+    }
+  }
+
+
+  /***
+   * Schedules a task. Tasks scheduled from any thread run from the next
+   * tick on.
+   */
+  private BukkitTask schedule(Runnable runnable, long delay, long period,
+      boolean async)
+  {
+    final Task task = new Task();
+
+    task.id = _taskIds.incrementAndGet();
+    task.runnable = runnable;
+    task.due = _tick + Math.max(1, delay);
+    task.period = period;
+    task.async = async;
+    _scheduled.add(task);
+
+    return (proxy(BukkitTask.class, new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+      {
+        if (method.getName().equals("getTaskId"))
+          return (task.id);
+        if (method.getName().equals("getOwner"))
+          return (_plugin);
+        if (method.getName().equals("isSync"))
+          return (!task.async);
+        if (method.getName().equals("cancel"))
+        {
+          task.cancelled = true;
+          return (null);
+        }
+
+        return (objectCall(proxy, method, args));
+      }
+    }));
+  }
+
+
+  /***
+   * Returns the key of a chunk within its world.
+   */
+  private static long key(int x, int z)
+  {
+    return (((long) x << 32) | (z & 0xFFFFFFFFL));
+  }
+
+
+  /***
+   * Creates a proxy of an interface.
+   */
+  private static <T> T proxy(Class<T> type, InvocationHandler handler)
+  {
+    return (type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler)));
+  }
+
+
+  /***
+   * A scheduled task.
+   *
+   * @author
+   *
+   */
+  private static final class Task
+  {
+    int id;
+    Runnable runnable;
+    long due;
+    long period;
+    boolean async;
+    volatile boolean cancelled;
+  }
+
+}
@@ -0,0 +1,293 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+
+/***
+ * Loads the chunks around a teleport destination before the teleport
+ * happens, so a cold destination does not stall the tick the player is
+ * teleported in. On servers providing World.getChunkAtAsync(), the chunks are
+ * requested from the server's loader threads. Otherwise, they are loaded on
+ * the main thread a few chunks per tick. Either way, the preloader has to be
+ * run once per tick.
+ *
+ * @author
+ *
+ */
+final class ChunkPreloader implements Runnable
+{
+
+
+  /***
+   * Receives the outcome of a preload.
+   */
+  interface Callback
+  {
+
+
+    /***
+     * Called on the main thread once the chunks are loaded or the timeout
+     * expired.
+     *
+     * @param loaded
+     *          - True if all chunks were loaded, false on timeout.
+     */
+    void ready(boolean loaded);
+
+  }
+
+
+  private static final Method GET_CHUNK_AT_ASYNC = findGetChunkAtAsync();
+
+  private final int _radius;
+  private final int _timeoutTicks;
+  private final int _chunksPerTick;
+  private final List<Job> _jobs = new ArrayList<Job>();
+
+
+  /***
+   * Creates a preloader.
+   *
+   * @param radius
+   *          - The radius in chunks to load around the destination chunk.
+   * @param timeoutTicks
+   *          - Ticks to wait for the chunks before giving up.
+   * @param chunksPerTick
+   *          - Chunks loaded per tick when loading on the main thread.
+   */
+  ChunkPreloader(int radius, int timeoutTicks, int chunksPerTick)
+  {
+    _radius = Math.max(0, radius);
+    _timeoutTicks = timeoutTicks;
+    _chunksPerTick = Math.max(1, chunksPerTick);
+  }
+
+
+  /***
+   * Returns whether chunks are loaded by the server asynchronously.
+   *
+   * @return
+   */
+  static boolean isAsyncSupported()
+  {
+    return (GET_CHUNK_AT_ASYNC != null);
+  }
+
+
+  /***
+   * Returns whether every chunk around the location is loaded.
+   *
+   * @param location
+   *          - The destination.
+   * @return
+   */
+  boolean isLoaded(Location location)
+  {
+    World world = location.getWorld();
+    int chunkX = location.getBlockX() >> 4;
+    int chunkZ = location.getBlockZ() >> 4;
+
+    for (int x = chunkX - _radius; x <= chunkX + _radius; x++)
+    {
+      for (int z = chunkZ - _radius; z <= chunkZ + _radius; z++)
+      {
+        if (!world.isChunkLoaded(x, z))
+          return (false);
+      }
+    }
+
+    return (true);
+  }
+
+
+  /***
+   * Starts loading the chunks around the location.
+   *
+   * @param location
+   *          - The destination.
+   * @param callback
+   *          - Called once the chunks are loaded or the timeout expired.
+   */
+  void preload(Location location, Callback callback)
+  {
+    preload(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4, _radius, callback);
+  }
+
+
+  /***
+   * Starts loading the chunks within a radius around a chunk.
+   *
+   * @param world
+   *          - The world of the chunks.
+   * @param chunkX
+   *          - The x coordinate of the center chunk.
+   * @param chunkZ
+   *          - The z coordinate of the center chunk.
+   * @param radius
+   *          - The radius in chunks to load around the center chunk.
+   * @param callback
+   *          - Called once the chunks are loaded or the timeout expired, or
+   *          null.
+   */
+  void preload(World world, int chunkX, int chunkZ, int radius,
+      Callback callback)
+  {
+    Job job = new Job();
+
+    job.world = world;
+    job.callback = callback;
+
+    // Queue the chunks that are not loaded yet, nearest first
+    for (int r = 0; r <= radius; r++)
+    {
+      for (int x = chunkX - r; x <= chunkX + r; x++)
+      {
+        for (int z = chunkZ - r; z <= chunkZ + r; z++)
+        {
+          if (Math.max(Math.abs(x - chunkX), Math.abs(z - chunkZ)) == r && !job.world.isChunkLoaded(x, z))
+          {
+            job.chunks.add(new int[] { x, z });
+            requestAsync(job.world, x, z);
+          }
+        }
+      }
+    }
+
+    _jobs.add(job);
+  }
+
+
+  /***
+   * Advances the pending preloads by one tick.
+   */
+  @Override
+  public void run()
+  {
+    Iterator<Job> i;
+    Job job;
+    List<Job> finished = null;
+    int budget = _chunksPerTick;
+
+    i = _jobs.iterator();
+    while (i.hasNext())
+    {
+      job = i.next();
+      job.ticks++;
+
+      budget = job.advance(budget);
+
+      if (job.chunks.isEmpty() || job.ticks >= _timeoutTicks)
+      {
+        i.remove();
+        if (finished == null)
+          finished = new ArrayList<Job>();
+        finished.add(job);
+      }
+    }
+
+    // Callbacks run last, as they may start new preloads
+    if (finished != null)
+    {
+      for (int j = 0; j < finished.size(); j++)
+      {
+        job = finished.get(j);
+        if (job.callback != null)
+          job.callback.ready(job.chunks.isEmpty());
+      }
+    }
+  }
+
+
+  /***
+   * Asks the server to load a chunk on its loader threads, if supported.
+   */
+  private static void requestAsync(World world, int x, int z)
+  {
+    if (GET_CHUNK_AT_ASYNC == null)
+      return;
+
+    try
+    {
+      GET_CHUNK_AT_ASYNC.invoke(world, x, z, Boolean.TRUE);
+    }
+    catch (Exception e)
+    {
+      // The chunk will be loaded on the main thread instead
+    }
+  }
+
+
+  /***
+   * Looks up World.getChunkAtAsync(int, int, boolean), which is not part of
+   * the Bukkit API but is provided by some servers.
+   */
+  private static Method findGetChunkAtAsync()
+  {
+    try
+    {
+      return (World.class.getMethod("getChunkAtAsync", int.class, int.class, boolean.class));
+    }
+    catch (NoSuchMethodException e)
+    {
+      return (null);
+    }
+  }
+
+
+  /***
+   * A pending preload.
+   *
+   * @author
+   *
+   */
+  private static class Job
+  {
+
+
+    World world;
+    Callback callback;
+    List<int[]> chunks = new ArrayList<int[]>();
+    int ticks;
+
+
+    /***
+     * Drops the chunks loaded since the last tick. When chunks are not loaded
+     * asynchronously, loads chunks on this thread within the budget.
+     *
+     * @param budget
+     *          - Chunks that may still be loaded on this thread this tick.
+     * @return The remaining budget.
+     */
+    int advance(int budget)
+    {
+      Iterator<int[]> i = chunks.iterator();
+      int[] chunk;
+
+      while (i.hasNext())
+      {
+        chunk = i.next();
+        if (world.isChunkLoaded(chunk[0], chunk[1]))
+        {
+          i.remove();
+        }
+        else if (GET_CHUNK_AT_ASYNC == null && budget > 0)
+        {
+          world.loadChunk(chunk[0], chunk[1], true);
+          budget--;
+          i.remove();
+        }
+      }
+
+      return (budget);
+    }
+
+  }
+
+}
@@ -0,0 +1,102 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/***
+ * Remembers the last location completion computed for a player. As the player
+ * keeps typing, the prefix only grows, so the next candidate list can be
+ * filtered from the previous one instead of being rebuilt from the indexes.
+ * The cached list is only reused while the version stamps of the indexes it
+ * was built from are unchanged.
+ *
+ * @author
+ *
+ */
+final class CompletionCache
+{
+
+
+  private String _scope;
+  private String _prefix;
+  private long _publicVersion;
+  private long _privateVersion;
+  private List<String> _candidates;
+
+
+  /***
+   * Returns the cached candidates matching the prefix, or null if the cache
+   * cannot answer the query.
+   *
+   * @param scope
+   *          - The command the completion is for.
+   * @param prefix
+   *          - The prefix typed by the player.
+   * @param publicVersion
+   *          - The current public index version, or -1 if not included.
+   * @param privateVersion
+   *          - The current private index version.
+   * @return
+   */
+  synchronized List<String> lookup(String scope, String prefix, long publicVersion,
+      long privateVersion)
+  {
+    List<String> candidates;
+    String candidate;
+
+    // Cache must have been built from the same data
+    if (_candidates == null || !scope.equals(_scope)
+        || publicVersion != _publicVersion || privateVersion != _privateVersion)
+      return (null);
+
+    // Same prefix, reuse the list as is
+    if (prefix.equals(_prefix))
+      return (_candidates);
+
+    // Prefix must extend the cached prefix
+    if (prefix.length() < _prefix.length()
+        || !prefix.regionMatches(true, 0, _prefix, 0, _prefix.length()))
+      return (null);
+
+    // Narrow the cached candidates
+    candidates = new ArrayList<String>();
+    for (int i = 0; i < _candidates.size(); i++)
+    {
+      candidate = _candidates.get(i);
+      if (candidate.regionMatches(true, 0, prefix, 0, prefix.length()))
+        candidates.add(candidate);
+    }
+
+    store(scope, prefix, publicVersion, privateVersion, candidates);
+
+    return (candidates);
+  }
+
+
+  /***
+   * Stores a computed candidate list.
+   *
+   * @param scope
+   *          - The command the completion is for.
+   * @param prefix
+   *          - The prefix typed by the player.
+   * @param publicVersion
+   *          - The public index version, or -1 if not included.
+   * @param privateVersion
+   *          - The private index version.
+   * @param candidates
+   *          - The matching location names.
+   */
+  synchronized void store(String scope, String prefix, long publicVersion,
+      long privateVersion, List<String> candidates)
+  {
+    _scope = scope;
+    _prefix = prefix;
+    _publicVersion = publicVersion;
+    _privateVersion = privateVersion;
+    _candidates = candidates;
+  }
+
+}
@@ -0,0 +1,189 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Saves the public locations in publicLocations.dat and the private
+ * locations in one file per player, in the location data format. Only whole
+ * maps are saved, so the plugin journals the changes in between.
+ *
+ * @author
+ *
+ */
+final class FileLocationStorage implements LocationStorage
+{
+
+
+  private final File _dataFolder;
+  private final File _publicLocationsFile;
+  private final Logger _logger;
+  private final PrivateLocationStore _privateLocationStore;
+  private final AtomicLong _publicBytesWritten = new AtomicLong();
+
+
+  /***
+   * Creates a storage in the plugin data folder.
+   *
+   * @param dataFolder
+   *          - The plugin data folder.
+   * @param logger
+   *          - The plugin logger.
+   */
+  FileLocationStorage(File dataFolder, Logger logger)
+  {
+    _dataFolder = dataFolder;
+    _publicLocationsFile = new File(dataFolder, "publicLocations.dat");
+    _logger = logger;
+    _privateLocationStore = new PrivateLocationStore(dataFolder, logger);
+  }
+
+
+  /***
+   * Returns whether there are location files in a data folder, including
+   * those of earlier versions.
+   *
+   * @param dataFolder
+   *          - The plugin data folder.
+   * @return
+   */
+  static boolean exists(File dataFolder)
+  {
+    return (new File(dataFolder, "publicLocations.dat").exists() || new File(dataFolder, "publicLocations.bin").exists() || new File(dataFolder, "players").exists() || new File(dataFolder, "privateLocations.bin").exists());
+  }
+
+
+  @Override
+  public boolean open()
+  {
+    return (_privateLocationStore.open());
+  }
+
+
+  @Override
+  public boolean refresh()
+  {
+    return (_privateLocationStore.reloadIndex());
+  }
+
+
+  /***
+   * Loads the public locations, converting the file written with Java
+   * serialization by earlier versions to the location data format. If there
+   * is neither file, the public locations start out empty.
+   */
+  @Override
+  public Map<String, LocationReference> loadPublicLocations()
+  {
+    File legacyFile = new File(_dataFolder, "publicLocations.bin");
+    Map<String, LocationReference> locations;
+
+    if (_publicLocationsFile.exists())
+    {
+      try
+      {
+        return (LocationDataReader.load(_publicLocationsFile));
+      }
+      catch (IOException e)
+      {
+        _logger.log(Level.SEVERE, "Unable to load public locations.", e);
+        return (null);
+      }
+    }
+
+    if (!legacyFile.exists())
+      return (LocationMaps.create(0));
+
+    _logger.info("Migrating " + legacyFile.getName() + " to the location data format.");
+
+    locations = PluginDataFiles.load(legacyFile);
+    if (locations == null || !LocationDataWriter.save(_publicLocationsFile, locations))
+      return (null);
+
+    legacyFile.renameTo(new File(legacyFile.getPath() + ".migrated"));
+
+    return (LocationMaps.copy(locations));
+  }
+
+
+  @Override
+  public boolean savePublicLocations(Map<String, LocationReference> locations)
+  {
+    if (!LocationDataWriter.save(_publicLocationsFile, locations))
+      return (false);
+
+    _publicBytesWritten.addAndGet(_publicLocationsFile.length());
+
+    return (true);
+  }
+
+
+  @Override
+  public Map<String, LocationReference> load(String playerName)
+  {
+    return (_privateLocationStore.load(playerName));
+  }
+
+
+  @Override
+  public boolean save(String playerName,
+      Map<String, LocationReference> locations)
+  {
+    return (_privateLocationStore.save(playerName, locations));
+  }
+
+
+  @Override
+  public Set<String> getPlayerNames()
+  {
+    return (_privateLocationStore.getPlayerNames());
+  }
+
+
+  @Override
+  public long getWriteCount(String playerName)
+  {
+    return (_privateLocationStore.getWriteCount(playerName));
+  }
+
+
+  @Override
+  public long getBytesWritten()
+  {
+    return (_publicBytesWritten.get() + _privateLocationStore.getBytesWritten());
+  }
+
+
+  @Override
+  public LocationChangeListener getChangeWriter()
+  {
+    return (null);
+  }
+
+
+  /***
+   * Saves the index of the private location files if it changed.
+   */
+  @Override
+  public boolean flush()
+  {
+    return (_privateLocationStore.saveIndexIfChanged());
+  }
+
+
+  @Override
+  public boolean close()
+  {
+    return (_privateLocationStore.saveIndexIfChanged());
+  }
+
+}
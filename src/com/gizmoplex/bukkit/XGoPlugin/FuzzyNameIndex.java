@@ -0,0 +1,324 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+
+/***
+ * Trigram index of location names that finds the names closest to a
+ * mistyped one. Candidates are the names sharing enough trigrams with the
+ * typed name to be within the allowed edit distance, as every edit changes at
+ * most three trigrams; only those are compared by edit distance. A typed name
+ * too short for that, which may share no trigram with a close name, is
+ * compared with every name of a close enough length instead. Matching
+ * ignores case. The index is synchronized, so it may be queried from any
+ * thread.
+ *
+ * @author
+ *
+ */
+final class FuzzyNameIndex
+{
+
+
+  private static final Comparator<Suggestion> CLOSEST_FIRST = new Comparator<Suggestion>()
+  {
+    @Override
+    public int compare(Suggestion a, Suggestion b)
+    {
+      int ret;
+
+      ret = a.distance - b.distance;
+      if (ret == 0)
+        ret = String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+
+      return (ret);
+    }
+  };
+
+  private final HashMap<String, HashSet<String>> _names = new HashMap<String, HashSet<String>>();
+  private final HashMap<Integer, HashSet<String>> _lengths = new HashMap<Integer, HashSet<String>>();
+
+
+  /***
+   * Creates an index over the specified names.
+   *
+   * @param names
+   *          - The initial location names.
+   */
+  FuzzyNameIndex(Collection<String> names)
+  {
+    for (String name : names)
+    {
+      add(name);
+    }
+  }
+
+
+  /***
+   * Adds a name to the index.
+   *
+   * @param name
+   *          - The location name.
+   */
+  synchronized void add(String name)
+  {
+    HashSet<String> names;
+
+    for (String gram : trigrams(name))
+    {
+      names = _names.get(gram);
+      if (names == null)
+      {
+        names = new HashSet<String>();
+        _names.put(gram, names);
+      }
+      names.add(name);
+    }
+
+    names = _lengths.get(name.length());
+    if (names == null)
+    {
+      names = new HashSet<String>();
+      _lengths.put(name.length(), names);
+    }
+    names.add(name);
+  }
+
+
+  /***
+   * Removes a name from the index.
+   *
+   * @param name
+   *          - The location name.
+   */
+  synchronized void remove(String name)
+  {
+    HashSet<String> names;
+
+    for (String gram : trigrams(name))
+    {
+      names = _names.get(gram);
+      if (names != null)
+      {
+        names.remove(name);
+        if (names.isEmpty())
+          _names.remove(gram);
+      }
+    }
+
+    names = _lengths.get(name.length());
+    if (names != null)
+    {
+      names.remove(name);
+      if (names.isEmpty())
+        _lengths.remove(name.length());
+    }
+  }
+
+
+  /***
+   * Returns the names within the edit distance of the typed name, closest
+   * first.
+   *
+   * @param typed
+   *          - The name typed by the player.
+   * @param maxDistance
+   *          - The largest edit distance of a returned name.
+   * @param count
+   *          - The maximum number of names to return.
+   * @return
+   */
+  synchronized List<Suggestion> closest(String typed, int maxDistance, int count)
+  {
+    HashSet<String> grams = trigrams(typed);
+    HashMap<String, int[]> shared = new HashMap<String, int[]>();
+    List<Suggestion> suggestions = new ArrayList<Suggestion>();
+    HashSet<String> names;
+    int[] counter;
+    int minShared;
+    int distance;
+
+    // A close name may share no trigram, so compare every name of a close
+    // enough length
+    minShared = grams.size() - 3 * maxDistance;
+    if (minShared < 1)
+    {
+      for (int length = typed.length() - maxDistance; length <= typed.length() + maxDistance; length++)
+      {
+        names = _lengths.get(length);
+        if (names == null)
+          continue;
+
+        for (String name : names)
+        {
+          distance = distance(typed, name, maxDistance);
+          if (distance <= maxDistance)
+            suggestions.add(new Suggestion(name, distance));
+        }
+      }
+
+      return (closest(suggestions, count));
+    }
+
+    // Count the trigrams each name shares with the typed name
+    for (String gram : grams)
+    {
+      names = _names.get(gram);
+      if (names == null)
+        continue;
+
+      for (String name : names)
+      {
+        counter = shared.get(name);
+        if (counter == null)
+          shared.put(name, new int[] { 1 });
+        else
+          counter[0]++;
+      }
+    }
+
+    // Compare the names sharing enough trigrams
+    for (Map.Entry<String, int[]> entry : shared.entrySet())
+    {
+      if (entry.getValue()[0] < minShared)
+        continue;
+
+      distance = distance(typed, entry.getKey(), maxDistance);
+      if (distance <= maxDistance)
+        suggestions.add(new Suggestion(entry.getKey(), distance));
+    }
+
+    return (closest(suggestions, count));
+  }
+
+
+  /***
+   * Merges two lists of suggestions, closest first.
+   *
+   * @param a
+   *          - Suggestions, closest first.
+   * @param b
+   *          - Other suggestions, closest first.
+   * @param count
+   *          - The maximum number of suggestions to return.
+   * @return
+   */
+  static List<Suggestion> merge(List<Suggestion> a, List<Suggestion> b,
+      int count)
+  {
+    List<Suggestion> merged = new ArrayList<Suggestion>(a);
+
+    merged.addAll(b);
+
+    return (closest(merged, count));
+  }
+
+
+  /***
+   * Sorts suggestions closest first and returns at most a number of them.
+   */
+  private static List<Suggestion> closest(List<Suggestion> suggestions,
+      int count)
+  {
+    Collections.sort(suggestions, CLOSEST_FIRST);
+    if (suggestions.size() > count)
+      suggestions = new ArrayList<Suggestion>(suggestions.subList(0, count));
+
+    return (suggestions);
+  }
+
+
+  /***
+   * Returns the distinct trigrams of a name, padded so the first and last
+   * characters get trigrams of their own.
+   */
+  private static HashSet<String> trigrams(String name)
+  {
+    HashSet<String> grams = new HashSet<String>();
+    String padded = " " + name.toLowerCase() + " ";
+
+    for (int i = 0; i + 3 <= padded.length(); i++)
+    {
+      grams.add(padded.substring(i, i + 3));
+    }
+
+    return (grams);
+  }
+
+
+  /***
+   * Returns the edit distance between two names ignoring case, or a value
+   * above the maximum as soon as it is certain to exceed it.
+   */
+  private static int distance(String a, String b, int maxDistance)
+  {
+    int[] previous;
+    int[] current;
+    int[] swap;
+    int rowMin;
+    int cost;
+
+    if (Math.abs(a.length() - b.length()) > maxDistance)
+      return (maxDistance + 1);
+
+    previous = new int[b.length() + 1];
+    current = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++)
+    {
+      previous[j] = j;
+    }
+
+    for (int i = 1; i <= a.length(); i++)
+    {
+      current[0] = i;
+      rowMin = i;
+      for (int j = 1; j <= b.length(); j++)
+      {
+        cost = Character.toLowerCase(a.charAt(i - 1)) == Character.toLowerCase(b.charAt(j - 1)) ? 0 : 1;
+        current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+        rowMin = Math.min(rowMin, current[j]);
+      }
+
+      if (rowMin > maxDistance)
+        return (maxDistance + 1);
+
+      swap = previous;
+      previous = current;
+      current = swap;
+    }
+
+    return (previous[b.length()]);
+  }
+
+
+  /***
+   * A name close to the typed name.
+   *
+   * @author
+   *
+   */
+  static final class Suggestion
+  {
+
+
+    final String name;
+    final int distance;
+
+
+    Suggestion(String name, int distance)
+    {
+      this.name = name;
+      this.distance = distance;
+    }
+
+  }
+
+}
@@ -0,0 +1,136 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/***
+ * Remembers the last location list rendered for a player, split into pages,
+ * so paging through the list does not sort and render the names again. The
+ * cached pages are only reused while the version stamps of the indexes they
+ * were rendered from are unchanged.
+ *
+ * @author
+ *
+ */
+final class ListPageCache
+{
+
+
+  private String _scope;
+  private String _filter;
+  private long _publicVersion;
+  private long _privateVersion;
+  private List<String> _pages;
+
+
+  /***
+   * Returns the cached pages, or null if they were rendered for another
+   * query or from other data.
+   *
+   * @param scope
+   *          - The locations listed.
+   * @param filter
+   *          - The text listed names contain.
+   * @param publicVersion
+   *          - The current public index version, or -1 if not included.
+   * @param privateVersion
+   *          - The current private index version, or -1 if not included.
+   * @return
+   */
+  synchronized List<String> lookup(String scope, String filter, long publicVersion,
+      long privateVersion)
+  {
+    if (_pages == null || !scope.equals(_scope) || !filter.equals(_filter)
+        || publicVersion != _publicVersion || privateVersion != _privateVersion)
+      return (null);
+
+    return (_pages);
+  }
+
+
+  /***
+   * Stores rendered pages.
+   *
+   * @param scope
+   *          - The locations listed.
+   * @param filter
+   *          - The text listed names contain.
+   * @param publicVersion
+   *          - The public index version, or -1 if not included.
+   * @param privateVersion
+   *          - The private index version, or -1 if not included.
+   * @param pages
+   *          - The rendered pages.
+   */
+  synchronized void store(String scope, String filter, long publicVersion,
+      long privateVersion, List<String> pages)
+  {
+    _scope = scope;
+    _filter = filter;
+    _publicVersion = publicVersion;
+    _privateVersion = privateVersion;
+    _pages = pages;
+  }
+
+
+  /***
+   * Lays the names out in lines of limited width and groups the lines into
+   * pages.
+   *
+   * @param names
+   *          - The names to list, in order.
+   * @param lineWidth
+   *          - The maximum number of characters per line.
+   * @param linesPerPage
+   *          - The number of lines per page.
+   * @return
+   */
+  static List<String> render(List<String> names, int lineWidth,
+      int linesPerPage)
+  {
+    List<String> pages = new ArrayList<String>();
+    StringBuilder page = new StringBuilder();
+    int lineStart = 0;
+    int lines = 0;
+    String locationName;
+
+    for (int j = 0; j < names.size(); j++)
+    {
+      locationName = names.get(j);
+
+      // If this would exceed the line length, start a new line
+      if (page.length() > lineStart && page.length() - lineStart + locationName.length() + 1 > lineWidth)
+      {
+        lines++;
+
+        // If the page is full, start a new page
+        if (lines == linesPerPage)
+        {
+          pages.add(page.toString());
+          page.setLength(0);
+          lines = 0;
+        }
+        else
+        {
+          page.append('\n');
+        }
+
+        lineStart = page.length();
+      }
+
+      // Append the location
+      if (page.length() > lineStart)
+        page.append(' ');
+      page.append(locationName);
+    }
+
+    // Add the last page
+    if (page.length() > 0)
+      pages.add(page.toString());
+
+    return (pages);
+  }
+
+}
@@ -0,0 +1,45 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Receives notifications when a public or private location is added or
+ * removed through the plugin.
+ *
+ * @author
+ *
+ */
+public interface LocationChangeListener
+{
+
+
+  /***
+   * Called after a location has been added.
+   *
+   * @param playerName
+   *          - The owning player, or null for a public location.
+   * @param locationName
+   *          - The name of the location.
+   * @param location
+   *          - The location that was added.
+   */
+  public void locationAdded(String playerName, String locationName,
+      LocationReference location);
+
+
+  /***
+   * Called after a location has been removed.
+   *
+   * @param playerName
+   *          - The owning player, or null for a public location.
+   * @param locationName
+   *          - The name of the location.
+   * @param location
+   *          - The location that was removed.
+   */
+  public void locationRemoved(String playerName, String locationName,
+      LocationReference location);
+
+}
@@ -0,0 +1,207 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Reads locations in the CSV format written by LocationCsvWriter, one line
+ * at a time, so files of any size can be read in bounded memory. The header
+ * line and blank lines are skipped. A line that is not a valid location is
+ * reported and can be skipped by reading on.
+ *
+ * @author
+ *
+ */
+final class LocationCsvReader
+{
+
+
+  private static final int FIELD_COUNT = 8;
+
+  private final BufferedReader _in;
+  private final ArrayList<String> _fields = new ArrayList<String>(FIELD_COUNT);
+  private final StringBuilder _field = new StringBuilder(32);
+  private long _lineNumber;
+  private String _playerName;
+  private String _name;
+  private LocationReference _location;
+
+
+  /***
+   * Creates a reader on a character stream.
+   *
+   * @param in
+   *          - The stream to read from.
+   */
+  LocationCsvReader(BufferedReader in)
+  {
+    _in = in;
+  }
+
+
+  /***
+   * Reads the next location.
+   *
+   * @return True if a location was read, false at the end of the stream.
+   * @throws IOException
+   * @throws ParseException
+   *           If the line is not a valid location. Its error offset is the
+   *           line number.
+   */
+  boolean next() throws IOException, ParseException
+  {
+    String line;
+    String owner;
+
+    _playerName = null;
+    _name = null;
+    _location = null;
+
+    // Skip the header and blank lines
+    do
+    {
+      line = _in.readLine();
+      if (line == null)
+        return (false);
+      _lineNumber++;
+    }
+    while (line.trim().isEmpty() || (_lineNumber == 1 && line.equals(LocationCsvWriter.HEADER)));
+
+    split(line);
+    if (_fields.size() != FIELD_COUNT)
+      throw error("Expected " + FIELD_COUNT + " fields but found " + _fields.size() + ".");
+
+    // Public locations have no owner and start with "#", private ones the
+    // other way around, as with /go-add
+    owner = _fields.get(0);
+    _name = _fields.get(1);
+    if (_name.isEmpty() || _name.length() > 20)
+      throw error("Location name must be 1 to 20 characters.");
+    if (_name.startsWith("@"))
+      throw error("Location name cannot start with \"@\".");
+    if (owner.isEmpty() != _name.startsWith("#"))
+      throw error(owner.isEmpty() ? "Private location has no owner." : "Public location has an owner.");
+    if (_fields.get(2).isEmpty())
+      throw error("World name is missing.");
+
+    try
+    {
+      _location = new LocationReference(_fields.get(2), Double.parseDouble(_fields.get(3)), Double.parseDouble(_fields.get(4)), Double.parseDouble(_fields.get(5)), Float.parseFloat(_fields.get(6)), Float.parseFloat(_fields.get(7)));
+    }
+    catch (NumberFormatException e)
+    {
+      throw error("Invalid number.");
+    }
+
+    _playerName = owner.isEmpty() ? null : owner;
+
+    return (true);
+  }
+
+
+  /***
+   * Returns the owning player of the current location, or null if it is
+   * public.
+   *
+   * @return
+   */
+  String getPlayerName()
+  {
+    return (_playerName);
+  }
+
+
+  /***
+   * Returns the name of the current location.
+   *
+   * @return
+   */
+  String getName()
+  {
+    return (_name);
+  }
+
+
+  /***
+   * Returns the current location.
+   *
+   * @return
+   */
+  LocationReference getLocation()
+  {
+    return (_location);
+  }
+
+
+  /***
+   * Returns the number of the line read last.
+   *
+   * @return
+   */
+  long getLineNumber()
+  {
+    return (_lineNumber);
+  }
+
+
+  /***
+   * Splits a line into fields, unquoting quoted fields.
+   */
+  private void split(String line) throws ParseException
+  {
+    boolean quoted = false;
+    char c;
+
+    _fields.clear();
+    _field.setLength(0);
+
+    for (int i = 0; i < line.length(); i++)
+    {
+      c = line.charAt(i);
+
+      if (quoted)
+      {
+        if (c != '"')
+          _field.append(c);
+        else if (i + 1 < line.length() && line.charAt(i + 1) == '"')
+          _field.append(line.charAt(++i));
+        else
+          quoted = false;
+      }
+      else if (c == '"' && _field.length() == 0)
+      {
+        quoted = true;
+      }
+      else if (c == ',')
+      {
+        _fields.add(_field.toString());
+        _field.setLength(0);
+      }
+      else
+      {
+        _field.append(c);
+      }
+    }
+
+    if (quoted)
+      throw error("Unterminated quote.");
+
+    _fields.add(_field.toString());
+  }
+
+
+  /***
+   * Returns the error of an invalid current line.
+   */
+  private ParseException error(String message)
+  {
+    return (new ParseException("Line " + _lineNumber + ": " + message, (int) Math.min(_lineNumber, Integer.MAX_VALUE)));
+  }
+
+}
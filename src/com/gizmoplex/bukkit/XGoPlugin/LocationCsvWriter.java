@@ -0,0 +1,130 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Writes locations as CSV, one location per line after a header line:
+ *
+ * <pre>
+ * owner,name,world,x,y,z,yaw,pitch
+ * ,#spawn,world,0.5,64.0,0.5,90.0,0.0
+ * Steve,home,world,-120.5,70.0,34.5,180.0,0.0
+ * </pre>
+ *
+ * The owner of public locations is empty. Fields containing a comma or a
+ * quote are quoted, with quotes doubled. Numbers are written so they read
+ * back exactly.
+ *
+ * @author
+ *
+ */
+final class LocationCsvWriter
+{
+
+
+  static final String HEADER = "owner,name,world,x,y,z,yaw,pitch";
+
+  private final Writer _out;
+  private final StringBuilder _line = new StringBuilder(96);
+  private long _count;
+
+
+  /***
+   * Creates a writer on a character stream and writes the header line.
+   *
+   * @param out
+   *          - The stream to write to, preferably buffered.
+   * @throws IOException
+   */
+  LocationCsvWriter(Writer out) throws IOException
+  {
+    _out = out;
+    _out.write(HEADER);
+    _out.write('\n');
+  }
+
+
+  /***
+   * Writes a location.
+   *
+   * @param playerName
+   *          - The owning player, or null for a public location.
+   * @param locationName
+   *          - The name of the location.
+   * @param location
+   *          - The location.
+   * @throws IOException
+   */
+  void write(String playerName, String locationName,
+      LocationReference location) throws IOException
+  {
+    _line.setLength(0);
+    appendField(playerName == null ? "" : playerName);
+    _line.append(',');
+    appendField(locationName);
+    _line.append(',');
+    appendField(location.getWorldName());
+    _line.append(',').append(location.getX());
+    _line.append(',').append(location.getY());
+    _line.append(',').append(location.getZ());
+    _line.append(',').append(location.getYaw());
+    _line.append(',').append(location.getPitch());
+    _line.append('\n');
+
+    _out.write(_line.toString());
+    _count++;
+  }
+
+
+  /***
+   * Returns the number of locations written.
+   *
+   * @return
+   */
+  long count()
+  {
+    return (_count);
+  }
+
+
+  /***
+   * Flushes the stream.
+   *
+   * @throws IOException
+   */
+  void flush() throws IOException
+  {
+    _out.flush();
+  }
+
+
+  /***
+   * Appends a text field, quoting it if necessary.
+   */
+  private void appendField(String value)
+  {
+    char c;
+
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0)
+    {
+      _line.append(value);
+      return;
+    }
+
+    _line.append('"');
+    for (int i = 0; i < value.length(); i++)
+    {
+      c = value.charAt(i);
+      if (c == '"')
+        _line.append('"');
+      _line.append(c);
+    }
+    _line.append('"');
+  }
+
+}
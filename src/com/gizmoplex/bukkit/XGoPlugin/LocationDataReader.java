@@ -0,0 +1,246 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Reads the XGo location data format written by LocationDataWriter, one
+ * record at a time. The checksum is verified after the last record.
+ *
+ * @author
+ *
+ */
+final class LocationDataReader
+{
+
+
+  private final CheckedInputStream _checked;
+  private final DataInputStream _in;
+  private String _owner;
+  private String[] _strings;
+  private int _remaining;
+  private String _name;
+  private LocationReference _location;
+
+
+  /***
+   * Creates a reader on a stream and reads the header and string table.
+   *
+   * @param in
+   *          - The stream to read from.
+   * @throws IOException
+   *           If the stream is not in the location data format.
+   */
+  LocationDataReader(InputStream in) throws IOException
+  {
+    short version;
+    int count;
+
+    _checked = new CheckedInputStream(in, new CRC32());
+    _in = new DataInputStream(_checked);
+
+    // Header
+    if (_in.readInt() != LocationDataWriter.MAGIC)
+      throw new IOException("Not a location data file.");
+    version = _in.readShort();
+    if (version != 1 && version != LocationDataWriter.VERSION)
+      throw new IOException("Unsupported location data version.");
+    if (version > 1)
+    {
+      _owner = _in.readUTF();
+      if (_owner.isEmpty())
+        _owner = null;
+    }
+
+    // String table
+    count = _in.readInt();
+    if (count < 0)
+      throw new IOException("Invalid string table.");
+    _strings = new String[count];
+    for (int i = 0; i < count; i++)
+    {
+      _strings[i] = _in.readUTF();
+    }
+
+    _remaining = _in.readInt();
+    if (_remaining < 0)
+      throw new IOException("Invalid record count.");
+  }
+
+
+  /***
+   * Returns the name of the owning player, or null if there is none or the
+   * file was written by version 1.
+   *
+   * @return
+   */
+  String getOwner()
+  {
+    return (_owner);
+  }
+
+
+  /***
+   * Returns the number of records not read yet.
+   *
+   * @return
+   */
+  int remaining()
+  {
+    return (_remaining);
+  }
+
+
+  /***
+   * Reads the next record. After the last record, the checksum is verified.
+   *
+   * @return True if a record was read, false if there are no more records.
+   * @throws IOException
+   */
+  boolean next() throws IOException
+  {
+    long checksum;
+
+    if (_remaining == 0)
+    {
+      // Verify the checksum once
+      if (_strings != null)
+      {
+        checksum = _checked.getChecksum().getValue();
+        if (_in.readLong() != checksum)
+          throw new IOException("Location data checksum mismatch.");
+        _strings = null;
+      }
+
+      _name = null;
+      _location = null;
+
+      return (false);
+    }
+
+    _name = string(_in.readInt());
+    _location = new LocationReference(string(_in.readInt()), _in.readDouble(), _in.readDouble(), _in.readDouble(), _in.readFloat(), _in.readFloat());
+    _remaining--;
+
+    return (true);
+  }
+
+
+  /***
+   * Returns the name of the current record.
+   *
+   * @return
+   */
+  String getName()
+  {
+    return (_name);
+  }
+
+
+  /***
+   * Returns the location of the current record.
+   *
+   * @return
+   */
+  LocationReference getLocation()
+  {
+    return (_location);
+  }
+
+
+  /***
+   * Returns a string from the string table.
+   */
+  private String string(int id) throws IOException
+  {
+    if (id < 0 || id >= _strings.length)
+      throw new IOException("Invalid string reference.");
+
+    return (_strings[id]);
+  }
+
+
+  /***
+   * Reads a single location written by LocationDataWriter.writeLocation().
+   *
+   * @param in
+   *          - The input to read from.
+   * @return
+   * @throws IOException
+   */
+  static LocationReference readLocation(DataInput in) throws IOException
+  {
+    return (new LocationReference(in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble(), in.readFloat(), in.readFloat()));
+  }
+
+
+  /***
+   * Reads the name of the owning player from the header of a file.
+   *
+   * @param file
+   *          - The file to read.
+   * @return The name, or null if there is none or the file was written by
+   *         version 1.
+   * @throws IOException
+   */
+  static String readOwner(File file) throws IOException
+  {
+    InputStream in;
+
+    in = new BufferedInputStream(new FileInputStream(file));
+    try
+    {
+      return (new LocationDataReader(in).getOwner());
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+
+  /***
+   * Reads every record of a file into a map.
+   *
+   * @param file
+   *          - The file to read.
+   * @return
+   * @throws IOException
+   */
+  static Map<String, LocationReference> load(File file) throws IOException
+  {
+    InputStream in;
+    LocationDataReader reader;
+    Map<String, LocationReference> locations;
+
+    in = new BufferedInputStream(new FileInputStream(file));
+    try
+    {
+      reader = new LocationDataReader(in);
+      locations = LocationMaps.create(reader.remaining());
+      while (reader.next())
+      {
+        locations.put(reader.getName(), reader.getLocation());
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+
+    return (locations);
+  }
+
+}
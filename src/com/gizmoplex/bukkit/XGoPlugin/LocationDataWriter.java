@@ -0,0 +1,208 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Writes location maps in the XGo location data format:
+ *
+ * <pre>
+ * int    magic "XGOL"
+ * short  format version
+ * UTF    owning player name, empty if none
+ * int    string count, followed by the strings (modified UTF-8)
+ * int    record count, followed by fixed-width records of
+ *          int name string, int world string,
+ *          double x, double y, double z, float yaw, float pitch
+ * long   CRC32 of everything before it
+ * </pre>
+ *
+ * World names are stored once in the string table no matter how many
+ * locations refer to them. Version 1 files have no owner.
+ *
+ * @author
+ *
+ */
+final class LocationDataWriter
+{
+
+
+  static final int MAGIC = 0x58474F4C;
+  static final short VERSION = 2;
+
+  private final CheckedOutputStream _checked;
+  private final DataOutputStream _out;
+
+
+  /***
+   * Creates a writer on a stream.
+   *
+   * @param out
+   *          - The stream to write to.
+   */
+  LocationDataWriter(OutputStream out)
+  {
+    _checked = new CheckedOutputStream(out, new CRC32());
+    _out = new DataOutputStream(_checked);
+  }
+
+
+  /***
+   * Writes a location map and flushes the stream.
+   *
+   * @param owner
+   *          - The name of the owning player, or null if none.
+   * @param locations
+   *          - The locations to write.
+   * @throws IOException
+   */
+  void write(String owner, Map<String, LocationReference> locations)
+      throws IOException
+  {
+    HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    List<String> strings = new ArrayList<String>();
+    LocationReference location;
+
+    // Build the string table
+    for (Map.Entry<String, LocationReference> entry : locations.entrySet())
+    {
+      addString(entry.getKey(), ids, strings);
+      addString(entry.getValue().getWorldName(), ids, strings);
+    }
+
+    // Header and string table
+    _out.writeInt(MAGIC);
+    _out.writeShort(VERSION);
+    _out.writeUTF(owner != null ? owner : "");
+    _out.writeInt(strings.size());
+    for (int i = 0; i < strings.size(); i++)
+    {
+      _out.writeUTF(strings.get(i));
+    }
+
+    // Records
+    _out.writeInt(locations.size());
+    for (Map.Entry<String, LocationReference> entry : locations.entrySet())
+    {
+      location = entry.getValue();
+      _out.writeInt(ids.get(entry.getKey()));
+      _out.writeInt(ids.get(location.getWorldName()));
+      _out.writeDouble(location.getX());
+      _out.writeDouble(location.getY());
+      _out.writeDouble(location.getZ());
+      _out.writeFloat(location.getYaw());
+      _out.writeFloat(location.getPitch());
+    }
+
+    // Checksum
+    _out.flush();
+    _out.writeLong(_checked.getChecksum().getValue());
+    _out.flush();
+  }
+
+
+  /***
+   * Adds a string to the string table if not already present.
+   */
+  private static void addString(String string, HashMap<String, Integer> ids,
+      List<String> strings)
+  {
+    if (!ids.containsKey(string))
+    {
+      ids.put(string, strings.size());
+      strings.add(string);
+    }
+  }
+
+
+  /***
+   * Writes a single location without a string table, as used by the journal.
+   *
+   * @param out
+   *          - The output to write to.
+   * @param location
+   *          - The location.
+   * @throws IOException
+   */
+  static void writeLocation(DataOutput out, LocationReference location)
+      throws IOException
+  {
+    out.writeUTF(location.getWorldName());
+    out.writeDouble(location.getX());
+    out.writeDouble(location.getY());
+    out.writeDouble(location.getZ());
+    out.writeFloat(location.getYaw());
+    out.writeFloat(location.getPitch());
+  }
+
+
+  /***
+   * Writes a location map to a temporary file and then renames it over the
+   * destination, so a crash never leaves a partially written file behind.
+   *
+   * @param file
+   *          - The destination file.
+   * @param locations
+   *          - The locations to write.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  static boolean save(File file, Map<String, LocationReference> locations)
+  {
+    return (save(file, null, locations));
+  }
+
+
+  /***
+   * Writes the location map of a player like save(File, Map), with the
+   * player's name in the header.
+   *
+   * @param file
+   *          - The destination file.
+   * @param owner
+   *          - The name of the owning player, or null if none.
+   * @param locations
+   *          - The locations to write.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  static boolean save(File file, String owner,
+      Map<String, LocationReference> locations)
+  {
+    File tempFile = new File(file.getPath() + ".tmp");
+    OutputStream out;
+
+    try
+    {
+      out = new BufferedOutputStream(new FileOutputStream(tempFile));
+      try
+      {
+        new LocationDataWriter(out).write(owner, locations);
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+    catch (IOException e)
+    {
+      return (false);
+    }
+
+    return (PluginDataFiles.replace(tempFile, file));
+  }
+
+}
@@ -0,0 +1,143 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * The difference between two versions of a location map. A location whose
+ * coordinates changed is both removed, with its old value, and added, with
+ * its new value, the way putLocation() reports a replaced location.
+ *
+ * @author
+ *
+ */
+final class LocationDiff
+{
+
+
+  private final Map<String, LocationReference> _oldLocations;
+  private final Map<String, LocationReference> _newLocations;
+  private final HashMap<String, LocationReference> _removed = new HashMap<String, LocationReference>();
+  private final HashMap<String, LocationReference> _added = new HashMap<String, LocationReference>();
+  private int _changed;
+
+
+  /***
+   * Computes the difference between two maps.
+   *
+   * @param oldLocations
+   *          - The current locations.
+   * @param newLocations
+   *          - The locations replacing them.
+   */
+  LocationDiff(Map<String, LocationReference> oldLocations,
+      Map<String, LocationReference> newLocations)
+  {
+    LocationReference location;
+
+    _oldLocations = oldLocations;
+    _newLocations = newLocations;
+
+    for (Map.Entry<String, LocationReference> entry : oldLocations.entrySet())
+    {
+      location = newLocations.get(entry.getKey());
+      if (location == null)
+      {
+        _removed.put(entry.getKey(), entry.getValue());
+      }
+      else if (!sameLocation(location, entry.getValue()))
+      {
+        _removed.put(entry.getKey(), entry.getValue());
+        _added.put(entry.getKey(), location);
+        _changed++;
+      }
+    }
+
+    for (Map.Entry<String, LocationReference> entry : newLocations.entrySet())
+    {
+      if (!oldLocations.containsKey(entry.getKey()))
+        _added.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+
+  /***
+   * Returns the map the difference was computed from.
+   *
+   * @return
+   */
+  Map<String, LocationReference> getOldLocations()
+  {
+    return (_oldLocations);
+  }
+
+
+  /***
+   * Returns the map the difference leads to.
+   *
+   * @return
+   */
+  Map<String, LocationReference> getNewLocations()
+  {
+    return (_newLocations);
+  }
+
+
+  /***
+   * Returns the removed and changed locations with their old values.
+   *
+   * @return
+   */
+  Map<String, LocationReference> getRemoved()
+  {
+    return (_removed);
+  }
+
+
+  /***
+   * Returns the added and changed locations with their new values.
+   *
+   * @return
+   */
+  Map<String, LocationReference> getAdded()
+  {
+    return (_added);
+  }
+
+
+  /***
+   * Returns the number of locations whose coordinates changed.
+   *
+   * @return
+   */
+  int getChangedCount()
+  {
+    return (_changed);
+  }
+
+
+  /***
+   * Returns whether the maps hold the same locations.
+   *
+   * @return
+   */
+  boolean isEmpty()
+  {
+    return (_removed.isEmpty() && _added.isEmpty());
+  }
+
+
+  /***
+   * Returns whether two location references point at the same place, facing
+   * the same way.
+   */
+  private static boolean sameLocation(LocationReference a, LocationReference b)
+  {
+    return (a == b || (a.getWorldName().equals(b.getWorldName()) && a.getX() == b.getX() && a.getY() == b.getY() && a.getZ() == b.getZ() && a.getYaw() == b.getYaw() && a.getPitch() == b.getPitch()));
+  }
+
+}
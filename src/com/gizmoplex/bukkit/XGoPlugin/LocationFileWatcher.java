@@ -0,0 +1,134 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.logging.Logger;
+
+
+/***
+ * Watches the location files for changes made by other programs. The watcher
+ * thread only records when a location file last changed; the plugin decides
+ * on the main thread when to reload, telling its own saves apart by time.
+ *
+ * @author
+ *
+ */
+final class LocationFileWatcher implements Runnable
+{
+
+
+  private final WatchService _watchService;
+  private final Logger _logger;
+  private volatile long _changeTime;
+  private Thread _thread;
+
+
+  /***
+   * Creates a watcher of the data folder and its "players" folder.
+   *
+   * @param dataFolder
+   *          - The plugin data folder.
+   * @param logger
+   *          - The plugin logger.
+   * @throws IOException
+   */
+  LocationFileWatcher(File dataFolder, Logger logger) throws IOException
+  {
+    _watchService = FileSystems.getDefault().newWatchService();
+    _logger = logger;
+
+    register(dataFolder.toPath());
+    register(new File(dataFolder, "players").toPath());
+  }
+
+
+  /***
+   * Registers a folder for created and modified files.
+   */
+  private void register(Path folder) throws IOException
+  {
+    folder.register(_watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+  }
+
+
+  /***
+   * Starts watching on a daemon thread.
+   */
+  void start()
+  {
+    _thread = new Thread(this, "XGo file watcher");
+    _thread.setDaemon(true);
+    _thread.start();
+  }
+
+
+  /***
+   * Stops watching.
+   */
+  void stop()
+  {
+    try
+    {
+      _watchService.close();
+    }
+    catch (IOException e)
+    {
+      _logger.warning("Unable to stop watching the location files.");
+    }
+  }
+
+
+  /***
+   * Returns the System.nanoTime() of the last change to a location file, or
+   * 0 if none changed yet.
+   *
+   * @return
+   */
+  long getChangeTime()
+  {
+    return (_changeTime);
+  }
+
+
+  @Override
+  public void run()
+  {
+    WatchKey key;
+    Object context;
+
+    while (true)
+    {
+      try
+      {
+        key = _watchService.take();
+      }
+      catch (InterruptedException e)
+      {
+        return;
+      }
+      catch (ClosedWatchServiceException e)
+      {
+        return;
+      }
+
+      // Only location data files matter, not temporary files or the journal
+      for (WatchEvent<?> event : key.pollEvents())
+      {
+        context = event.context();
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || (context instanceof Path && ((Path) context).getFileName().toString().endsWith(".dat")))
+          _changeTime = System.nanoTime();
+      }
+
+      key.reset();
+    }
+  }
+
+}
@@ -0,0 +1,447 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Append-only journal of location changes. Every add and remove is written as
+ * a small checksummed record, so changes made since the last snapshot survive
+ * a crash. When the journal is rolled, the active file is renamed to a
+ * numbered generation which is deleted once a snapshot containing its changes
+ * has been written.
+ *
+ * @author
+ *
+ */
+final class LocationJournal
+{
+
+
+  private static final byte OP_ADD_SERIALIZED = 1;
+  private static final byte OP_REMOVE = 2;
+  private static final byte OP_ADD = 3;
+  private static final int MAX_RECORD_SIZE = 65536;
+
+  private final File _folder;
+  private final String _fileName;
+  private final File _file;
+  private DataOutputStream _out;
+  private long _size;
+  private long _validSize = -1;
+  private long _generation;
+
+
+  /***
+   * Creates a journal stored in the specified folder.
+   *
+   * @param folder
+   *          - The plugin data folder.
+   * @param fileName
+   *          - The name of the active journal file.
+   */
+  LocationJournal(File folder, String fileName)
+  {
+    _folder = folder;
+    _fileName = fileName;
+    _file = new File(folder, fileName);
+  }
+
+
+  /***
+   * Replays every rolled generation and the active journal, oldest first.
+   * Replay stops at the first incomplete or corrupt record of a file, which is
+   * what a crash in the middle of an append leaves behind.
+   *
+   * @param listener
+   *          - Receives the replayed changes.
+   * @return The number of records replayed.
+   * @throws IOException
+   */
+  int replay(LocationChangeListener listener) throws IOException
+  {
+    List<File> files;
+    int count = 0;
+
+    files = getGenerations();
+    if (_file.exists())
+      files.add(_file);
+
+    for (int i = 0; i < files.size(); i++)
+    {
+      count += replay(files.get(i), listener);
+    }
+
+    return (count);
+  }
+
+
+  /***
+   * Replays a single journal file.
+   *
+   * @param file
+   *          - The journal file.
+   * @param listener
+   *          - Receives the replayed changes.
+   * @return The number of records replayed.
+   * @throws IOException
+   */
+  private int replay(File file, LocationChangeListener listener)
+      throws IOException
+  {
+    DataInputStream in;
+    DataInputStream record;
+    byte[] payload;
+    int length;
+    CRC32 crc = new CRC32();
+    int count = 0;
+    long validSize = 0;
+    byte op;
+    String playerName;
+    String locationName;
+
+    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try
+    {
+      while (true)
+      {
+        // Read the next record, stop at a torn or corrupt tail
+        try
+        {
+          length = in.readInt();
+          if (length <= 0 || length > MAX_RECORD_SIZE)
+            break;
+
+          payload = new byte[length];
+          in.readFully(payload);
+          crc.reset();
+          crc.update(payload);
+          if (in.readLong() != crc.getValue())
+            break;
+        }
+        catch (EOFException e)
+        {
+          break;
+        }
+
+        // Decode and apply the record
+        record = new DataInputStream(new ByteArrayInputStream(payload));
+        op = record.readByte();
+        playerName = record.readUTF();
+        locationName = record.readUTF();
+        if (playerName.length() == 0)
+          playerName = null;
+
+        if (op == OP_ADD)
+          listener.locationAdded(playerName, locationName, LocationDataReader.readLocation(record));
+        else if (op == OP_ADD_SERIALIZED)
+          listener.locationAdded(playerName, locationName, readSerializedLocation(record));
+        else if (op == OP_REMOVE)
+          listener.locationRemoved(playerName, locationName, null);
+
+        count++;
+        validSize += payload.length + 12;
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+
+    // Remember where the valid part of the active journal ends
+    if (file.equals(_file))
+      _validSize = validSize;
+
+    return (count);
+  }
+
+
+  /***
+   * Opens the active journal for appending. If replay found a torn or corrupt
+   * tail, it is cut off first so new records are not appended behind it.
+   *
+   * @throws IOException
+   */
+  void open() throws IOException
+  {
+    RandomAccessFile file;
+
+    if (_validSize >= 0 && _file.length() > _validSize)
+    {
+      file = new RandomAccessFile(_file, "rw");
+      try
+      {
+        file.setLength(_validSize);
+      }
+      finally
+      {
+        file.close();
+      }
+    }
+    _validSize = -1;
+
+    _out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file, true)));
+    _size = _file.length();
+  }
+
+
+  /***
+   * Closes the active journal.
+   *
+   * @throws IOException
+   */
+  void close() throws IOException
+  {
+    if (_out != null)
+    {
+      _out.close();
+      _out = null;
+    }
+  }
+
+
+  /***
+   * Returns the size of the active journal in bytes.
+   *
+   * @return
+   */
+  long size()
+  {
+    return (_size);
+  }
+
+
+  /***
+   * Appends an added location.
+   *
+   * @param playerName
+   *          - The owning player, or null for a public location.
+   * @param locationName
+   *          - The name of the location.
+   * @param location
+   *          - The location that was added.
+   * @throws IOException
+   */
+  void appendAdd(String playerName, String locationName,
+      LocationReference location) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream record = new DataOutputStream(bytes);
+
+    record.writeByte(OP_ADD);
+    record.writeUTF(playerName == null ? "" : playerName);
+    record.writeUTF(locationName);
+    LocationDataWriter.writeLocation(record, location);
+
+    append(bytes.toByteArray());
+  }
+
+
+  /***
+   * Appends a removed location.
+   *
+   * @param playerName
+   *          - The owning player, or null for a public location.
+   * @param locationName
+   *          - The name of the location.
+   * @throws IOException
+   */
+  void appendRemove(String playerName, String locationName)
+      throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream record = new DataOutputStream(bytes);
+
+    record.writeByte(OP_REMOVE);
+    record.writeUTF(playerName == null ? "" : playerName);
+    record.writeUTF(locationName);
+
+    append(bytes.toByteArray());
+  }
+
+
+  /***
+   * Writes a record to the active journal and flushes it to the file.
+   *
+   * @param payload
+   *          - The encoded record.
+   * @throws IOException
+   */
+  private void append(byte[] payload) throws IOException
+  {
+    CRC32 crc = new CRC32();
+
+    crc.update(payload);
+
+    _out.writeInt(payload.length);
+    _out.write(payload);
+    _out.writeLong(crc.getValue());
+    _out.flush();
+
+    _size += payload.length + 12;
+  }
+
+
+  /***
+   * Closes the active journal, renames it to the next generation and opens a
+   * new, empty active journal.
+   *
+   * @return The generation number the changes so far were rolled into.
+   * @throws IOException
+   */
+  long roll() throws IOException
+  {
+    File rolled;
+
+    close();
+
+    // Pick a generation newer than any existing one
+    _generation = Math.max(_generation, lastGeneration()) + 1;
+    rolled = new File(_folder, _fileName + "." + _generation);
+
+    if (_file.exists() && !_file.renameTo(rolled))
+      throw new IOException("Unable to roll journal to " + rolled.getName() + ".");
+
+    open();
+
+    return (_generation);
+  }
+
+
+  /***
+   * Deletes the rolled generations up to and including the specified one. To
+   * be called once a snapshot containing their changes has been written.
+   *
+   * @param generation
+   *          - The newest generation contained in the snapshot.
+   */
+  void deleteGenerations(long generation)
+  {
+    List<File> files = getGenerations();
+
+    for (int i = 0; i < files.size(); i++)
+    {
+      if (generationOf(files.get(i)) <= generation)
+        files.get(i).delete();
+    }
+  }
+
+
+  /***
+   * Returns the rolled generation files, oldest first.
+   *
+   * @return
+   */
+  private List<File> getGenerations()
+  {
+    List<File> files = new ArrayList<File>();
+    List<Long> generations = new ArrayList<Long>();
+    File[] candidates;
+    long generation;
+
+    candidates = _folder.listFiles();
+    if (candidates != null)
+    {
+      for (int i = 0; i < candidates.length; i++)
+      {
+        generation = generationOf(candidates[i]);
+        if (generation > 0)
+          generations.add(generation);
+      }
+    }
+
+    Collections.sort(generations);
+    for (int i = 0; i < generations.size(); i++)
+    {
+      files.add(new File(_folder, _fileName + "." + generations.get(i)));
+    }
+
+    return (files);
+  }
+
+
+  /***
+   * Returns the newest rolled generation number, or 0 if there is none.
+   *
+   * @return
+   */
+  private long lastGeneration()
+  {
+    List<File> files = getGenerations();
+
+    if (files.isEmpty())
+      return (0);
+
+    return (generationOf(files.get(files.size() - 1)));
+  }
+
+
+  /***
+   * Returns the generation number of a rolled journal file, or 0 if the file
+   * is not a rolled journal.
+   *
+   * @param file
+   *          - The file.
+   * @return
+   */
+  private long generationOf(File file)
+  {
+    String name = file.getName();
+
+    if (!name.startsWith(_fileName + "."))
+      return (0);
+
+    try
+    {
+      return (Long.parseLong(name.substring(_fileName.length() + 1)));
+    }
+    catch (NumberFormatException e)
+    {
+      return (0);
+    }
+  }
+
+
+  /***
+   * Reads a location from a record written with Java serialization by
+   * earlier versions.
+   *
+   * @param record
+   *          - The record being read.
+   * @return
+   * @throws IOException
+   */
+  private static LocationReference readSerializedLocation(
+      DataInputStream record) throws IOException
+  {
+    ObjectInputStream in = new ObjectInputStream(record);
+
+    try
+    {
+      return ((LocationReference) in.readObject());
+    }
+    catch (ClassNotFoundException e)
+    {
+      throw new IOException("Invalid location record.", e);
+    }
+  }
+
+}
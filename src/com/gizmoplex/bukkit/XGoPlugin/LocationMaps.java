@@ -0,0 +1,100 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Creates the maps locations are kept in, using the storage engine selected
+ * in the configuration: hash maps of location references, or packed maps
+ * keeping the records in primitive arrays. Either way, the maps are
+ * segmented, so a copy made to change a few locations shares most of the
+ * original.
+ *
+ * @author
+ *
+ */
+final class LocationMaps
+{
+
+
+  private static volatile boolean _packed;
+
+
+  private LocationMaps()
+  {
+  }
+
+
+  /***
+   * Selects the storage engine of maps created from now on.
+   *
+   * @param engine
+   *          - "packed" for packed maps, anything else for hash maps.
+   */
+  static void setEngine(String engine)
+  {
+    _packed = "packed".equalsIgnoreCase(engine);
+  }
+
+
+  /***
+   * Creates an empty map sized for the expected number of locations.
+   *
+   * @param expectedSize
+   *          - The expected number of locations.
+   * @return
+   */
+  static Map<String, LocationReference> create(int expectedSize)
+  {
+    return (new SegmentedLocationMap(_packed, expectedSize));
+  }
+
+
+  /***
+   * Makes a map read-only, so it can be shared with other threads.
+   *
+   * @param locations
+   *          - The map to freeze, which must not be changed afterwards.
+   * @return The read-only map.
+   */
+  static Map<String, LocationReference> freeze(
+      Map<String, LocationReference> locations)
+  {
+    if (locations instanceof SegmentedLocationMap)
+    {
+      ((SegmentedLocationMap) locations).freeze();
+      return (locations);
+    }
+
+    return (Collections.unmodifiableMap(locations));
+  }
+
+
+  /***
+   * Creates a modifiable map holding the same locations as another map.
+   * Copying a map of the current engine shares its segments, so it takes
+   * time in the order of the square root of its size rather than its size.
+   *
+   * @param locations
+   *          - The locations to copy.
+   * @return
+   */
+  static Map<String, LocationReference> copy(
+      Map<String, LocationReference> locations)
+  {
+    Map<String, LocationReference> copy;
+
+    if (locations instanceof SegmentedLocationMap && ((SegmentedLocationMap) locations).isPacked() == _packed)
+      return (new SegmentedLocationMap((SegmentedLocationMap) locations));
+
+    copy = create(locations.size());
+    copy.putAll(locations);
+
+    return (copy);
+  }
+
+}
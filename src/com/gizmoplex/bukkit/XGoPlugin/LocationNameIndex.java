@@ -0,0 +1,193 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/***
+ * Sorted index of location names that answers case-insensitive prefix
+ * queries with a binary search. Every change stamps the index with a new,
+ * globally unique version so cached completion results can be validated
+ * cheaply. Changes replace the name array rather than modify it, so queries
+ * may run on any thread while the main thread changes the index.
+ *
+ * @author
+ *
+ */
+final class LocationNameIndex
+{
+
+
+  private static final AtomicLong VERSION_SEQUENCE = new AtomicLong();
+
+  private static final Comparator<String> NAME_ORDER = new Comparator<String>()
+  {
+    @Override
+    public int compare(String a, String b)
+    {
+      int ret;
+
+      ret = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+      if (ret == 0)
+        ret = a.compareTo(b);
+
+      return (ret);
+    }
+  };
+
+  private volatile String[] _names;
+  private volatile long _version;
+
+
+  /***
+   * Creates an index over the specified names.
+   *
+   * @param names
+   *          - The initial location names.
+   */
+  LocationNameIndex(Collection<String> names)
+  {
+    _names = names.toArray(new String[names.size()]);
+    Arrays.sort(_names, NAME_ORDER);
+    _version = VERSION_SEQUENCE.incrementAndGet();
+  }
+
+
+  /***
+   * Returns the version stamp of the index. The stamp changes whenever a name
+   * is added or removed.
+   *
+   * @return
+   */
+  long getVersion()
+  {
+    return (_version);
+  }
+
+
+  /***
+   * Returns the number of names in the index.
+   *
+   * @return
+   */
+  int size()
+  {
+    return (_names.length);
+  }
+
+
+  /***
+   * Adds a name to the index.
+   *
+   * @param name
+   *          - The location name.
+   */
+  void add(String name)
+  {
+    String[] names;
+    int pos;
+
+    // If already present, nothing to do
+    pos = Arrays.binarySearch(_names, name, NAME_ORDER);
+    if (pos >= 0)
+      return;
+
+    // Insert at the sorted position
+    pos = -(pos + 1);
+    names = new String[_names.length + 1];
+    System.arraycopy(_names, 0, names, 0, pos);
+    names[pos] = name;
+    System.arraycopy(_names, pos, names, pos + 1, _names.length - pos);
+
+    _names = names;
+    _version = VERSION_SEQUENCE.incrementAndGet();
+  }
+
+
+  /***
+   * Removes a name from the index.
+   *
+   * @param name
+   *          - The location name.
+   */
+  void remove(String name)
+  {
+    String[] names;
+    int pos;
+
+    // If not present, nothing to do
+    pos = Arrays.binarySearch(_names, name, NAME_ORDER);
+    if (pos < 0)
+      return;
+
+    // Remove the name
+    names = new String[_names.length - 1];
+    System.arraycopy(_names, 0, names, 0, pos);
+    System.arraycopy(_names, pos + 1, names, pos, _names.length - pos - 1);
+
+    _names = names;
+    _version = VERSION_SEQUENCE.incrementAndGet();
+  }
+
+
+  /***
+   * Adds every name starting with the specified prefix, ignoring case, to the
+   * list in sorted order.
+   *
+   * @param prefix
+   *          - The prefix typed by the player.
+   * @param matches
+   *          - The list to add the matching names to.
+   */
+  void prefixMatches(String prefix, List<String> matches)
+  {
+    String[] names = _names;
+    int low = 0;
+    int high = names.length;
+    int mid;
+
+    // Find the first name not less than the prefix
+    while (low < high)
+    {
+      mid = (low + high) >>> 1;
+      if (String.CASE_INSENSITIVE_ORDER.compare(names[mid], prefix) < 0)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    // Collect names until one no longer starts with the prefix
+    while (low < names.length && names[low].regionMatches(true, 0, prefix, 0, prefix.length()))
+    {
+      matches.add(names[low]);
+      low++;
+    }
+  }
+
+
+  /***
+   * Adds every name containing the specified text, ignoring case, to the list
+   * in sorted order.
+   *
+   * @param filter
+   *          - The text to look for, or an empty string for all names.
+   * @param matches
+   *          - The list to add the matching names to.
+   */
+  void filterMatches(String filter, List<String> matches)
+  {
+    String[] names = _names;
+    String lowerFilter = filter.toLowerCase();
+
+    for (int i = 0; i < names.length; i++)
+    {
+      if (lowerFilter.length() == 0 || names[i].toLowerCase().contains(lowerFilter))
+        matches.add(names[i]);
+    }
+  }
+
+}
@@ -0,0 +1,379 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Per-world grid of locations that answers nearest-location queries by
+ * searching the cells around the query point ring by ring, stopping as soon
+ * as no further cell can hold a nearer location. Rings are only walked while
+ * that is cheaper than visiting the occupied cells directly, so sparse
+ * worlds with far away locations stay cheap to query. The index is
+ * synchronized, so it may be queried from any thread.
+ *
+ * @author
+ *
+ */
+final class LocationSpatialIndex
+{
+
+
+  private static final Comparator<Match> FARTHEST_FIRST = new Comparator<Match>()
+  {
+    @Override
+    public int compare(Match a, Match b)
+    {
+      return (Double.compare(b.distanceSquared, a.distanceSquared));
+    }
+  };
+
+  private final int _cellSize;
+  private final HashMap<String, Grid> _worlds = new HashMap<String, Grid>();
+
+
+  /***
+   * Creates an empty index.
+   *
+   * @param cellSize
+   *          - The size in blocks of the grid cells.
+   */
+  LocationSpatialIndex(int cellSize)
+  {
+    _cellSize = Math.max(1, cellSize);
+  }
+
+
+  /***
+   * Creates an index over the specified locations.
+   *
+   * @param cellSize
+   *          - The size in blocks of the grid cells.
+   * @param locations
+   *          - The initial locations by name.
+   */
+  LocationSpatialIndex(int cellSize, Map<String, LocationReference> locations)
+  {
+    this(cellSize);
+
+    for (Map.Entry<String, LocationReference> entry : locations.entrySet())
+    {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+
+
+  /***
+   * Adds a location.
+   *
+   * @param locationName
+   *          - The name of the location.
+   * @param location
+   *          - The location.
+   */
+  synchronized void add(String locationName, LocationReference location)
+  {
+    Grid grid;
+    ArrayList<Entry> cell;
+    int cellX = cell(location.getX());
+    int cellZ = cell(location.getZ());
+
+    grid = _worlds.get(location.getWorldName());
+    if (grid == null)
+    {
+      grid = new Grid(cellX, cellZ);
+      _worlds.put(location.getWorldName(), grid);
+    }
+
+    cell = grid.cells.get(key(cellX, cellZ));
+    if (cell == null)
+    {
+      cell = new ArrayList<Entry>(2);
+      grid.cells.put(key(cellX, cellZ), cell);
+      grid.include(cellX, cellZ);
+    }
+
+    cell.add(new Entry(locationName, location.getX(), location.getY(), location.getZ()));
+  }
+
+
+  /***
+   * Removes a location.
+   *
+   * @param locationName
+   *          - The name of the location.
+   * @param location
+   *          - The location as it was added.
+   */
+  synchronized void remove(String locationName, LocationReference location)
+  {
+    Grid grid;
+    ArrayList<Entry> cell;
+    long key = key(cell(location.getX()), cell(location.getZ()));
+
+    grid = _worlds.get(location.getWorldName());
+    if (grid == null)
+      return;
+
+    cell = grid.cells.get(key);
+    if (cell == null)
+      return;
+
+    for (int i = 0; i < cell.size(); i++)
+    {
+      if (cell.get(i).name.equals(locationName))
+      {
+        cell.remove(i);
+        break;
+      }
+    }
+
+    if (cell.isEmpty())
+    {
+      grid.cells.remove(key);
+      if (grid.cells.isEmpty())
+        _worlds.remove(location.getWorldName());
+    }
+  }
+
+
+  /***
+   * Returns the locations nearest to a point, nearest first.
+   *
+   * @param worldName
+   *          - The world of the point.
+   * @param x
+   *          - The x coordinate of the point.
+   * @param y
+   *          - The y coordinate of the point.
+   * @param z
+   *          - The z coordinate of the point.
+   * @param count
+   *          - The maximum number of locations to return.
+   * @return
+   */
+  synchronized List<Match> nearest(String worldName, double x, double y,
+      double z, int count)
+  {
+    PriorityQueue<Match> best;
+    List<Match> matches;
+    Grid grid;
+    int centerX = cell(x);
+    int centerZ = cell(z);
+    int lastRing;
+    double reach;
+
+    grid = _worlds.get(worldName);
+    if (grid == null || count <= 0)
+      return (new ArrayList<Match>());
+
+    best = new PriorityQueue<Match>(count + 1, FARTHEST_FIRST);
+    lastRing = grid.distance(centerX, centerZ);
+
+    for (int r = 0; r <= lastRing; r++)
+    {
+      // Visit the occupied cells directly once that is cheaper than the ring
+      if (8L * r > grid.cells.size())
+      {
+        for (Map.Entry<Long, ArrayList<Entry>> cell : grid.cells.entrySet())
+        {
+          if (ring(cell.getKey(), centerX, centerZ) >= r)
+            collect(cell.getValue(), x, y, z, count, best);
+        }
+        break;
+      }
+
+      for (int cellX = centerX - r; cellX <= centerX + r; cellX++)
+      {
+        // Inner rows only have their two edge cells in this ring
+        for (int cellZ = centerZ - r; cellZ <= centerZ + r; cellZ += (cellX == centerX - r || cellX == centerX + r || r == 0) ? 1 : 2 * r)
+        {
+          collect(grid.cells.get(key(cellX, cellZ)), x, y, z, count, best);
+        }
+      }
+
+      // Locations beyond this ring are at least this far away
+      reach = (double) r * _cellSize;
+      if (best.size() == count && best.peek().distanceSquared <= reach * reach)
+        break;
+    }
+
+    matches = new ArrayList<Match>(best);
+    Collections.sort(matches, Collections.reverseOrder(FARTHEST_FIRST));
+
+    return (matches);
+  }
+
+
+  /***
+   * Offers the locations of a cell to the best matches, keeping the nearest.
+   */
+  private static void collect(ArrayList<Entry> cell, double x, double y,
+      double z, int count, PriorityQueue<Match> best)
+  {
+    Entry entry;
+    double dx;
+    double dy;
+    double dz;
+    double distanceSquared;
+
+    if (cell == null)
+      return;
+
+    for (int i = 0; i < cell.size(); i++)
+    {
+      entry = cell.get(i);
+      dx = entry.x - x;
+      dy = entry.y - y;
+      dz = entry.z - z;
+      distanceSquared = dx * dx + dy * dy + dz * dz;
+
+      if (best.size() < count)
+      {
+        best.add(new Match(entry.name, distanceSquared));
+      }
+      else if (distanceSquared < best.peek().distanceSquared)
+      {
+        best.poll();
+        best.add(new Match(entry.name, distanceSquared));
+      }
+    }
+  }
+
+
+  /***
+   * Returns the cell coordinate of a block coordinate.
+   */
+  private int cell(double coordinate)
+  {
+    return ((int) Math.floor(coordinate / _cellSize));
+  }
+
+
+  /***
+   * Returns the key of a cell within its world.
+   */
+  private static long key(int x, int z)
+  {
+    return (((long) x << 32) | (z & 0xFFFFFFFFL));
+  }
+
+
+  /***
+   * Returns the ring around the center a cell key lies in.
+   */
+  private static int ring(long key, int centerX, int centerZ)
+  {
+    int x = (int) (key >> 32);
+    int z = (int) key;
+
+    return (Math.max(Math.abs(x - centerX), Math.abs(z - centerZ)));
+  }
+
+
+  /***
+   * A location found near a point.
+   *
+   * @author
+   *
+   */
+  static final class Match
+  {
+
+
+    final String name;
+    final double distanceSquared;
+
+
+    Match(String name, double distanceSquared)
+    {
+      this.name = name;
+      this.distanceSquared = distanceSquared;
+    }
+
+  }
+
+
+  /***
+   * An indexed location.
+   *
+   * @author
+   *
+   */
+  private static final class Entry
+  {
+
+
+    final String name;
+    final double x;
+    final double y;
+    final double z;
+
+
+    Entry(String name, double x, double y, double z)
+    {
+      this.name = name;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+    }
+
+  }
+
+
+  /***
+   * The occupied cells of a world and their bounds. The bounds only grow,
+   * which at worst makes a query visit a few more empty rings.
+   *
+   * @author
+   *
+   */
+  private static final class Grid
+  {
+
+
+    final HashMap<Long, ArrayList<Entry>> cells = new HashMap<Long, ArrayList<Entry>>();
+    int minX;
+    int maxX;
+    int minZ;
+    int maxZ;
+
+
+    Grid(int x, int z)
+    {
+      minX = maxX = x;
+      minZ = maxZ = z;
+    }
+
+
+    /***
+     * Extends the bounds to a cell.
+     */
+    void include(int x, int z)
+    {
+      minX = Math.min(minX, x);
+      maxX = Math.max(maxX, x);
+      minZ = Math.min(minZ, z);
+      maxZ = Math.max(maxZ, z);
+    }
+
+
+    /***
+     * Returns the ring around a cell holding the farthest bound.
+     */
+    int distance(int x, int z)
+    {
+      return (Math.max(Math.max(Math.abs(x - minX), Math.abs(x - maxX)), Math.max(Math.abs(z - minZ), Math.abs(z - maxZ))));
+    }
+
+  }
+
+}
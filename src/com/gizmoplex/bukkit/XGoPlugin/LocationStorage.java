@@ -0,0 +1,138 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.Map;
+import java.util.Set;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Where the public and private locations are saved. The plugin reads and
+ * writes its locations only through this interface, so the backend can be
+ * chosen in the configuration. Implementations may be called from the main
+ * thread, the persistence thread and login threads at the same time.
+ *
+ * @author
+ *
+ */
+interface LocationStorage
+{
+
+
+  /***
+   * Opens the storage, creating it and migrating the data of earlier
+   * versions if necessary.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  boolean open();
+
+
+  /***
+   * Forgets what the storage remembers about the saved locations, such as an
+   * index, so changes made by other programs are seen by the next loads.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  boolean refresh();
+
+
+  /***
+   * Loads the public locations.
+   *
+   * @return The public locations, an empty map if there are none, or null if
+   *         they could not be read.
+   */
+  Map<String, LocationReference> loadPublicLocations();
+
+
+  /***
+   * Saves all public locations, replacing the saved ones.
+   *
+   * @param locations
+   *          - The public locations.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  boolean savePublicLocations(Map<String, LocationReference> locations);
+
+
+  /***
+   * Loads the locations of a player.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return The player's locations, an empty map if the player has none, or
+   *         null if they could not be read.
+   */
+  Map<String, LocationReference> load(String playerName);
+
+
+  /***
+   * Saves all locations of a player, replacing the saved ones.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @param locations
+   *          - The player's locations.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  boolean save(String playerName, Map<String, LocationReference> locations);
+
+
+  /***
+   * Returns the names of all players with saved locations.
+   *
+   * @return
+   */
+  Set<String> getPlayerNames();
+
+
+  /***
+   * Returns the number of writes of a player's locations so far. The
+   * player's locations loaded from the storage are known to be current as
+   * long as this number has not changed.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return
+   */
+  long getWriteCount(String playerName);
+
+
+  /***
+   * Returns the number of bytes of location data written so far.
+   *
+   * @return
+   */
+  long getBytesWritten();
+
+
+  /***
+   * Returns a listener that saves each location change as it is made, or
+   * null if the storage only saves whole location maps. Without one, the
+   * plugin journals changes and saves snapshots of the changed maps.
+   *
+   * @return
+   */
+  LocationChangeListener getChangeWriter();
+
+
+  /***
+   * Waits until the changes passed to the change writer so far are saved,
+   * and saves what the storage keeps about the saved locations, such as an
+   * index, if it changed. Call it after saving a batch of players.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  boolean flush();
+
+
+  /***
+   * Saves what is still pending and closes the storage.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  boolean close();
+
+}
@@ -0,0 +1,296 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Imports and exports the locations of a stopped server from the command
+ * line, in the CSV format of /go-admin:
+ *
+ * <pre>
+ * java -cp plugins/XGo.jar:craftbukkit.jar:plugins/GizmoplexBukkitLib.jar \
+ *     com.gizmoplex.bukkit.XGoPlugin.LocationTool export plugins/XGo locations.csv
+ * java -cp ... com.gizmoplex.bukkit.XGoPlugin.LocationTool import plugins/XGo locations.csv
+ * </pre>
+ *
+ * The server jar provides Bukkit and the SQLite driver. The storage backend
+ * is the database if plugins/XGo/locations.db exists, otherwise the location
+ * files. Imported locations replace locations of the same owner and name.
+ * Like /go-admin import, the file is read in batches, so only the public
+ * locations and one batch are held in memory.
+ *
+ * @author
+ *
+ */
+public final class LocationTool
+{
+
+
+  private static final int BATCH_SIZE = 10000;
+
+
+  private LocationTool()
+  {
+  }
+
+
+  /***
+   * Runs the tool.
+   *
+   * @param args
+   *          - "import" or "export", the plugin data folder and the CSV file.
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception
+  {
+    File dataFolder;
+    LocationStorage storage;
+    Logger logger = Logger.getLogger("XGo");
+    boolean ret;
+
+    if (args.length != 3 || !(args[0].equalsIgnoreCase("import") || args[0].equalsIgnoreCase("export")))
+    {
+      System.err.println("Usage: LocationTool <import|export> <plugin data folder> <file>");
+      System.exit(2);
+    }
+
+    dataFolder = new File(args[1]);
+    if (!dataFolder.isDirectory())
+    {
+      System.err.println(dataFolder.getPath() + " is not a folder.");
+      System.exit(1);
+    }
+
+    // Changes still in the journal are only applied by the plugin
+    if (hasJournal(dataFolder))
+    {
+      System.err.println("The location journal is not empty. Start and stop the server to save it, then try again.");
+      System.exit(1);
+    }
+
+    if (new File(dataFolder, "locations.db").exists())
+      storage = new SqliteLocationStorage(dataFolder, logger, BATCH_SIZE, 0);
+    else
+      storage = new FileLocationStorage(dataFolder, logger);
+
+    if (!storage.open())
+      System.exit(1);
+
+    try
+    {
+      if (args[0].equalsIgnoreCase("export"))
+        ret = export(storage, new File(args[2]));
+      else
+        ret = importFile(storage, new File(args[2]));
+    }
+    finally
+    {
+      if (!storage.close())
+        ret = false;
+    }
+
+    System.exit(ret ? 0 : 1);
+  }
+
+
+  /***
+   * Returns whether a journal with changes exists in the data folder.
+   */
+  private static boolean hasJournal(File dataFolder)
+  {
+    File[] files = dataFolder.listFiles();
+
+    for (int i = 0; files != null && i < files.length; i++)
+    {
+      if (files[i].getName().startsWith("locations.journal") && files[i].length() > 0)
+        return (true);
+    }
+
+    return (false);
+  }
+
+
+  /***
+   * Writes every location to a CSV file, one player at a time.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  private static boolean export(LocationStorage storage, File file)
+      throws IOException
+  {
+    Writer out;
+    LocationCsvWriter writer;
+    Map<String, LocationReference> locations;
+
+    locations = storage.loadPublicLocations();
+    if (locations == null)
+      return (false);
+
+    out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try
+    {
+      writer = new LocationCsvWriter(out);
+
+      for (Map.Entry<String, LocationReference> entry : locations.entrySet())
+      {
+        writer.write(null, entry.getKey(), entry.getValue());
+      }
+
+      for (String playerName : new TreeSet<String>(storage.getPlayerNames()))
+      {
+        locations = storage.load(playerName);
+        if (locations == null)
+        {
+          System.err.println("Unable to read locations of " + playerName + ", skipped.");
+          continue;
+        }
+
+        for (Map.Entry<String, LocationReference> entry : locations.entrySet())
+        {
+          writer.write(playerName, entry.getKey(), entry.getValue());
+        }
+      }
+
+      writer.flush();
+    }
+    finally
+    {
+      out.close();
+    }
+
+    System.out.println("Exported " + writer.count() + " locations to " + file.getPath() + ".");
+
+    return (true);
+  }
+
+
+  /***
+   * Reads locations from a CSV file and saves them batch by batch, each
+   * player's locations merged with the saved ones. The public locations are
+   * saved once at the end.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  private static boolean importFile(LocationStorage storage, File file)
+      throws IOException
+  {
+    BufferedReader in;
+    LocationCsvReader reader;
+    Map<String, LocationReference> publicLocations;
+    HashMap<String, Map<String, LocationReference>> batch;
+    Map<String, LocationReference> locations;
+    int count = 0;
+    long imported = 0;
+    long skipped = 0;
+    boolean ret = true;
+
+    publicLocations = storage.loadPublicLocations();
+    if (publicLocations == null)
+      return (false);
+    publicLocations = LocationMaps.copy(publicLocations);
+
+    in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try
+    {
+      reader = new LocationCsvReader(in);
+      batch = new HashMap<String, Map<String, LocationReference>>();
+      while (true)
+      {
+        try
+        {
+          if (!reader.next())
+            break;
+        }
+        catch (ParseException e)
+        {
+          System.err.println(e.getMessage());
+          skipped++;
+          continue;
+        }
+
+        imported++;
+        if (reader.getPlayerName() == null)
+        {
+          publicLocations.put(reader.getName(), reader.getLocation());
+          continue;
+        }
+
+        locations = batch.get(reader.getPlayerName());
+        if (locations == null)
+        {
+          locations = new HashMap<String, LocationReference>();
+          batch.put(reader.getPlayerName(), locations);
+        }
+        locations.put(reader.getName(), reader.getLocation());
+
+        if (++count == BATCH_SIZE)
+        {
+          ret &= saveBatch(storage, batch);
+          count = 0;
+          batch.clear();
+        }
+      }
+
+      ret &= saveBatch(storage, batch);
+    }
+    finally
+    {
+      in.close();
+    }
+
+    ret &= storage.savePublicLocations(publicLocations);
+
+    System.out.println("Imported " + imported + " locations from " + file.getPath() + (skipped > 0 ? ", skipped " + skipped + " invalid lines." : "."));
+
+    return (ret);
+  }
+
+
+  /***
+   * Merges a batch of private locations into the saved ones.
+   */
+  private static boolean saveBatch(LocationStorage storage,
+      HashMap<String, Map<String, LocationReference>> batch)
+  {
+    Map<String, LocationReference> locations;
+    boolean ret = true;
+
+    for (Map.Entry<String, Map<String, LocationReference>> entry : batch.entrySet())
+    {
+      locations = storage.load(entry.getKey());
+      if (locations == null)
+      {
+        System.err.println("Unable to read locations of " + entry.getKey() + ", not imported.");
+        ret = false;
+        continue;
+      }
+
+      locations = LocationMaps.copy(locations);
+      locations.putAll(entry.getValue());
+      if (!storage.save(entry.getKey(), locations))
+        ret = false;
+    }
+
+    if (!storage.flush())
+      ret = false;
+
+    return (ret);
+  }
+
+}
@@ -0,0 +1,279 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.bukkit.entity.Player;
+
+
+/***
+ * Online players sorted by name, kept up to date from join and quit events,
+ * so completions and "@player" lookups do not walk all online players. The
+ * "@" form of each name is built once when the player joins. Changes replace
+ * the entry array rather than modify it, so lookups may run on any thread.
+ *
+ * @author
+ *
+ */
+final class OnlinePlayerIndex
+{
+
+
+  private static final Comparator<Entry> NAME_ORDER = new Comparator<Entry>()
+  {
+    @Override
+    public int compare(Entry a, Entry b)
+    {
+      return (String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name));
+    }
+  };
+
+  private volatile Entry[] _entries = new Entry[0];
+
+
+  /***
+   * Creates an index over the specified players.
+   *
+   * @param players
+   *          - The players online now.
+   */
+  OnlinePlayerIndex(Player[] players)
+  {
+    for (int i = 0; i < players.length; i++)
+    {
+      add(players[i]);
+    }
+  }
+
+
+  /***
+   * Returns the number of online players.
+   *
+   * @return
+   */
+  int size()
+  {
+    return (_entries.length);
+  }
+
+
+  /***
+   * Adds a player who joined.
+   *
+   * @param player
+   *          - The player.
+   */
+  void add(Player player)
+  {
+    Entry[] entries = _entries;
+    Entry[] added;
+    int pos;
+
+    // Replace the entry of a player with the same name
+    pos = find(entries, player.getName());
+    if (pos >= 0)
+    {
+      added = entries.clone();
+      added[pos] = new Entry(player);
+      _entries = added;
+      return;
+    }
+
+    // Insert at the sorted position
+    pos = -(pos + 1);
+    added = new Entry[entries.length + 1];
+    System.arraycopy(entries, 0, added, 0, pos);
+    added[pos] = new Entry(player);
+    System.arraycopy(entries, pos, added, pos + 1, entries.length - pos);
+
+    _entries = added;
+  }
+
+
+  /***
+   * Removes a player who quit.
+   *
+   * @param player
+   *          - The player.
+   */
+  void remove(Player player)
+  {
+    Entry[] entries = _entries;
+    Entry[] removed;
+    int pos;
+
+    pos = find(entries, player.getName());
+    if (pos < 0 || entries[pos].player != player)
+      return;
+
+    removed = new Entry[entries.length - 1];
+    System.arraycopy(entries, 0, removed, 0, pos);
+    System.arraycopy(entries, pos + 1, removed, pos, entries.length - pos - 1);
+
+    _entries = removed;
+  }
+
+
+  /***
+   * Returns the online player with exactly this name, ignoring case.
+   *
+   * @param name
+   *          - The player name.
+   * @return The player, or null if not online.
+   */
+  Player getPlayerExact(String name)
+  {
+    Entry[] entries = _entries;
+    int pos = find(entries, name);
+
+    return (pos >= 0 ? entries[pos].player : null);
+  }
+
+
+  /***
+   * Returns the online player best matching a name like Server.getPlayer():
+   * the player with exactly this name, or else the player with the shortest
+   * name starting with it, ignoring case.
+   *
+   * @param name
+   *          - The player name or the start of it.
+   * @return The player, or null if no name matches.
+   */
+  Player getPlayer(String name)
+  {
+    Entry[] entries = _entries;
+    Entry best = null;
+    int pos;
+
+    pos = find(entries, name);
+    if (pos >= 0)
+      return (entries[pos].player);
+
+    // Names starting with the typed name follow its insertion point
+    for (pos = -(pos + 1); pos < entries.length && entries[pos].name.regionMatches(true, 0, name, 0, name.length()); pos++)
+    {
+      if (best == null || entries[pos].name.length() < best.name.length())
+        best = entries[pos];
+    }
+
+    return (best != null ? best.player : null);
+  }
+
+
+  /***
+   * Returns the online players in name order.
+   *
+   * @return
+   */
+  List<Player> getPlayers()
+  {
+    Entry[] entries = _entries;
+    List<Player> players = new ArrayList<Player>(entries.length);
+
+    for (int i = 0; i < entries.length; i++)
+    {
+      players.add(entries[i].player);
+    }
+
+    return (players);
+  }
+
+
+  /***
+   * Adds the names of the online players matching what was typed to the
+   * list, in name order. With the "@" form, the typed text must be empty or
+   * start with "@", and the names are added with their "@".
+   *
+   * @param typed
+   *          - The text typed by the player.
+   * @param atForm
+   *          - True to match and add the "@" form of the names.
+   * @param excludeName
+   *          - The name of a player not to add, such as the typing player.
+   * @param names
+   *          - The list to add the matching names to.
+   */
+  void prefixMatches(String typed, boolean atForm, String excludeName,
+      List<String> names)
+  {
+    Entry[] entries = _entries;
+    String prefix = typed;
+    int low = 0;
+    int high = entries.length;
+    int mid;
+
+    // The "@" form needs the "@" typed first
+    if (atForm && typed.length() > 0)
+    {
+      if (typed.charAt(0) != '@')
+        return;
+      prefix = typed.substring(1);
+    }
+
+    // Find the first name not less than the prefix
+    while (low < high)
+    {
+      mid = (low + high) >>> 1;
+      if (String.CASE_INSENSITIVE_ORDER.compare(entries[mid].name, prefix) < 0)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    // Collect names until one no longer starts with the prefix
+    for (; low < entries.length && entries[low].name.regionMatches(true, 0, prefix, 0, prefix.length()); low++)
+    {
+      if (!entries[low].name.equals(excludeName))
+        names.add(atForm ? entries[low].atName : entries[low].name);
+    }
+  }
+
+
+  /***
+   * Returns the position of a name, or -(insertion point + 1) if absent.
+   */
+  private static int find(Entry[] entries, String name)
+  {
+    return (Arrays.binarySearch(entries, new Entry(name), NAME_ORDER));
+  }
+
+
+  /***
+   * An online player.
+   *
+   * @author
+   *
+   */
+  private static final class Entry
+  {
+
+
+    final Player player;
+    final String name;
+    final String atName;
+
+
+    Entry(Player player)
+    {
+      this.player = player;
+      name = player.getName();
+      atName = "@" + name;
+    }
+
+
+    /***
+     * Creates a search key.
+     */
+    Entry(String name)
+    {
+      player = null;
+      this.name = name;
+      atName = null;
+    }
+
+  }
+
+}
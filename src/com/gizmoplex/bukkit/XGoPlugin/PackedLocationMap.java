@@ -0,0 +1,521 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Location map keeping its records in primitive arrays instead of one
+ * LocationReference and one hash map entry per location. Records are kept
+ * densely, one per location, in parallel arrays: names, world ids,
+ * coordinates and angles. An open addressing table with linear probing maps
+ * names to their records, holding only record numbers, so the empty slots
+ * the table needs to stay fast cost 4 bytes each. World names are replaced
+ * with ids into a table shared by all maps. LocationReference objects are
+ * created on demand by get() and by iteration, so callers must not rely on
+ * getting the same instance twice. A frozen map rejects changes and may be
+ * read by several threads at once.
+ *
+ * @author
+ *
+ */
+final class PackedLocationMap extends AbstractMap<String, LocationReference>
+{
+
+
+  private static final Object WORLD_LOCK = new Object();
+  private static final HashMap<String, Integer> WORLD_IDS = new HashMap<String, Integer>();
+  private static volatile String[] WORLD_NAMES = new String[0];
+
+  private int[] _table;
+  private String[] _names;
+  private int[] _worlds;
+  private double[] _coordinates;
+  private float[] _angles;
+  private int _size;
+  private int _modCount;
+  private boolean _frozen;
+
+
+  /***
+   * Creates an empty map.
+   */
+  PackedLocationMap()
+  {
+    this(0);
+  }
+
+
+  /***
+   * Creates an empty map sized for the expected number of locations.
+   *
+   * @param expectedSize
+   *          - The expected number of locations.
+   */
+  PackedLocationMap(int expectedSize)
+  {
+    _table = new int[tableCapacity(expectedSize)];
+    allocate(Math.max(2, expectedSize));
+  }
+
+
+  /***
+   * Creates a modifiable map holding the same locations as another map.
+   * Copying another packed map only copies its arrays, leaving room for one
+   * more record, as a copy is usually made to change one location.
+   *
+   * @param locations
+   *          - The locations to copy.
+   */
+  PackedLocationMap(Map<String, LocationReference> locations)
+  {
+    PackedLocationMap packed;
+    int capacity;
+
+    if (locations instanceof PackedLocationMap)
+    {
+      packed = (PackedLocationMap) locations;
+      capacity = packed._size + 1;
+      _table = packed._table.clone();
+      _names = Arrays.copyOf(packed._names, capacity);
+      _worlds = Arrays.copyOf(packed._worlds, capacity);
+      _coordinates = Arrays.copyOf(packed._coordinates, capacity * 3);
+      _angles = Arrays.copyOf(packed._angles, capacity * 2);
+      _size = packed._size;
+    }
+    else
+    {
+      _table = new int[tableCapacity(locations.size())];
+      allocate(Math.max(2, locations.size()));
+      putAll(locations);
+    }
+  }
+
+
+  /***
+   * Makes the map read-only.
+   */
+  void freeze()
+  {
+    _frozen = true;
+  }
+
+
+  @Override
+  public int size()
+  {
+    return (_size);
+  }
+
+
+  @Override
+  public boolean containsKey(Object name)
+  {
+    return (find(name) >= 0);
+  }
+
+
+  @Override
+  public LocationReference get(Object name)
+  {
+    int slot = find(name);
+
+    return (slot < 0 ? null : view(_table[slot] - 1));
+  }
+
+
+  @Override
+  public LocationReference put(String name, LocationReference location)
+  {
+    LocationReference previous = null;
+    int slot;
+    int record;
+
+    checkModifiable();
+
+    slot = find(name);
+    if (slot >= 0)
+    {
+      record = _table[slot] - 1;
+      previous = view(record);
+    }
+    else
+    {
+      // Grow before the table gets too full to probe quickly
+      if ((_size + 1) > _table.length * 3 / 4)
+        rehash(_table.length << 1);
+      if (_size == _names.length)
+        grow(_size + (_size >> 1) + 1);
+
+      record = _size++;
+      _names[record] = name;
+      _table[freeSlot(name)] = record + 1;
+    }
+
+    store(record, location);
+    _modCount++;
+
+    return (previous);
+  }
+
+
+  @Override
+  public LocationReference remove(Object name)
+  {
+    LocationReference previous;
+    int slot;
+    int record;
+    int last;
+
+    checkModifiable();
+
+    slot = find(name);
+    if (slot < 0)
+      return (null);
+
+    record = _table[slot] - 1;
+    previous = view(record);
+    delete(slot);
+
+    // Move the last record into the gap, so records stay dense
+    last = _size - 1;
+    if (record != last)
+    {
+      _table[find(_names[last])] = record + 1;
+      _names[record] = _names[last];
+      _worlds[record] = _worlds[last];
+      System.arraycopy(_coordinates, last * 3, _coordinates, record * 3, 3);
+      System.arraycopy(_angles, last * 2, _angles, record * 2, 2);
+    }
+    _names[last] = null;
+    _size--;
+    _modCount++;
+
+    return (previous);
+  }
+
+
+  @Override
+  public void clear()
+  {
+    checkModifiable();
+    Arrays.fill(_table, 0);
+    Arrays.fill(_names, 0, _size, null);
+    _size = 0;
+    _modCount++;
+  }
+
+
+  @Override
+  public Set<String> keySet()
+  {
+    return (new AbstractSet<String>()
+    {
+      @Override
+      public Iterator<String> iterator()
+      {
+        return (new RecordIterator<String>()
+        {
+          @Override
+          String element(int record)
+          {
+            return (_names[record]);
+          }
+        });
+      }
+
+      @Override
+      public boolean contains(Object name)
+      {
+        return (containsKey(name));
+      }
+
+      @Override
+      public int size()
+      {
+        return (_size);
+      }
+    });
+  }
+
+
+  @Override
+  public Set<Map.Entry<String, LocationReference>> entrySet()
+  {
+    return (new AbstractSet<Map.Entry<String, LocationReference>>()
+    {
+      @Override
+      public Iterator<Map.Entry<String, LocationReference>> iterator()
+      {
+        return (new RecordIterator<Map.Entry<String, LocationReference>>()
+        {
+          @Override
+          Map.Entry<String, LocationReference> element(int record)
+          {
+            return (new AbstractMap.SimpleImmutableEntry<String, LocationReference>(_names[record], view(record)));
+          }
+        });
+      }
+
+      @Override
+      public int size()
+      {
+        return (_size);
+      }
+    });
+  }
+
+
+  /***
+   * Throws if the map is frozen.
+   */
+  private void checkModifiable()
+  {
+    if (_frozen)
+      throw new UnsupportedOperationException("Location map is read-only.");
+  }
+
+
+  /***
+   * Returns the table capacity, a power of two, keeping the expected number
+   * of locations under three quarters of it.
+   */
+  private static int tableCapacity(int expectedSize)
+  {
+    int capacity = 16;
+
+    while (capacity * 3 / 4 < expectedSize)
+    {
+      capacity <<= 1;
+    }
+
+    return (capacity);
+  }
+
+
+  /***
+   * Allocates empty record arrays for the capacity.
+   */
+  private void allocate(int capacity)
+  {
+    _names = new String[capacity];
+    _worlds = new int[capacity];
+    _coordinates = new double[capacity * 3];
+    _angles = new float[capacity * 2];
+  }
+
+
+  /***
+   * Moves the records into arrays of the new capacity.
+   */
+  private void grow(int capacity)
+  {
+    _names = Arrays.copyOf(_names, capacity);
+    _worlds = Arrays.copyOf(_worlds, capacity);
+    _coordinates = Arrays.copyOf(_coordinates, capacity * 3);
+    _angles = Arrays.copyOf(_angles, capacity * 2);
+  }
+
+
+  /***
+   * Rebuilds the table with the new capacity, which must be a power of two.
+   */
+  private void rehash(int capacity)
+  {
+    _table = new int[capacity];
+
+    for (int i = 0; i < _size; i++)
+    {
+      _table[freeSlot(_names[i])] = i + 1;
+    }
+  }
+
+
+  /***
+   * Returns the table slot holding a name, or -1 if the name is not in the
+   * map.
+   */
+  private int find(Object name)
+  {
+    int slot;
+
+    if (!(name instanceof String))
+      return (-1);
+
+    slot = home((String) name);
+    while (_table[slot] != 0)
+    {
+      if (_names[_table[slot] - 1].equals(name))
+        return (slot);
+
+      slot = (slot + 1) & (_table.length - 1);
+    }
+
+    return (-1);
+  }
+
+
+  /***
+   * Returns the first empty table slot of the probe sequence of a name.
+   */
+  private int freeSlot(String name)
+  {
+    int slot = home(name);
+
+    while (_table[slot] != 0)
+    {
+      slot = (slot + 1) & (_table.length - 1);
+    }
+
+    return (slot);
+  }
+
+
+  /***
+   * Returns the table slot a name is placed in when there are no
+   * collisions.
+   */
+  private int home(String name)
+  {
+    int hash = name.hashCode();
+
+    return ((hash ^ (hash >>> 16)) & (_table.length - 1));
+  }
+
+
+  /***
+   * Empties a table slot, moving later slots of the same probe sequence back
+   * so lookups do not stop early.
+   */
+  private void delete(int slot)
+  {
+    int mask = _table.length - 1;
+    int next = slot;
+    int home;
+
+    while (true)
+    {
+      next = (next + 1) & mask;
+      if (_table[next] == 0)
+        break;
+
+      // A slot may move back unless its home lies cyclically after the gap
+      home = home(_names[_table[next] - 1]);
+      if (slot <= next ? (home <= slot || home > next) : (home <= slot && home > next))
+      {
+        _table[slot] = _table[next];
+        slot = next;
+      }
+    }
+
+    _table[slot] = 0;
+  }
+
+
+  /***
+   * Stores a location in a record.
+   */
+  private void store(int record, LocationReference location)
+  {
+    _worlds[record] = worldId(location.getWorldName());
+    _coordinates[record * 3] = location.getX();
+    _coordinates[record * 3 + 1] = location.getY();
+    _coordinates[record * 3 + 2] = location.getZ();
+    _angles[record * 2] = location.getYaw();
+    _angles[record * 2 + 1] = location.getPitch();
+  }
+
+
+  /***
+   * Creates a location reference for a record.
+   */
+  private LocationReference view(int record)
+  {
+    return (new LocationReference(WORLD_NAMES[_worlds[record]], _coordinates[record * 3], _coordinates[record * 3 + 1], _coordinates[record * 3 + 2], _angles[record * 2], _angles[record * 2 + 1]));
+  }
+
+
+  /***
+   * Returns the id of a world name, assigning one on first use.
+   */
+  private static int worldId(String worldName)
+  {
+    Integer id;
+    String[] names;
+
+    synchronized (WORLD_LOCK)
+    {
+      id = WORLD_IDS.get(worldName);
+      if (id == null)
+      {
+        id = WORLD_IDS.size();
+        WORLD_IDS.put(worldName, id);
+
+        names = Arrays.copyOf(WORLD_NAMES, id + 1);
+        names[id] = worldName;
+        WORLD_NAMES = names;
+      }
+    }
+
+    return (id);
+  }
+
+
+  /***
+   * Iterates over the records.
+   *
+   * @author
+   *
+   */
+  private abstract class RecordIterator<E> implements Iterator<E>
+  {
+
+
+    private final int _expectedModCount = _modCount;
+    private int _next;
+
+
+    /***
+     * Returns the element for a record.
+     */
+    abstract E element(int record);
+
+
+    @Override
+    public boolean hasNext()
+    {
+      return (_next < _size);
+    }
+
+
+    @Override
+    public E next()
+    {
+      if (_modCount != _expectedModCount)
+        throw new ConcurrentModificationException();
+      if (_next >= _size)
+        throw new NoSuchElementException();
+
+      return (element(_next++));
+    }
+
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
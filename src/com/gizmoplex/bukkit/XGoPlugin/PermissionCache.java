@@ -0,0 +1,131 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.entity.Player;
+
+
+/***
+ * Caches each player's permission decisions for the plugin's nodes as a
+ * bitset, so completions and commands do not ask the permission plugin on
+ * every keystroke. All nodes are resolved together when a player has no
+ * decisions or they are older than the time to live; the owner drops a
+ * player's decisions whenever they may have changed, such as on a world
+ * change.
+ *
+ * @author
+ *
+ */
+final class PermissionCache
+{
+
+
+  private static final XGoPermission[] PERMISSIONS = XGoPermission.values();
+
+  private final long _ttlMillis;
+  private final ConcurrentHashMap<String, Decisions> _decisions = new ConcurrentHashMap<String, Decisions>();
+
+
+  /***
+   * Creates a cache.
+   *
+   * @param ttlSeconds
+   *          - Seconds decisions are used before being resolved again.
+   */
+  PermissionCache(long ttlSeconds)
+  {
+    _ttlMillis = ttlSeconds * 1000;
+  }
+
+
+  /***
+   * Returns whether the player has a permission.
+   *
+   * @param player
+   *          - The player.
+   * @param permission
+   *          - The permission.
+   * @return
+   */
+  boolean has(Player player, XGoPermission permission)
+  {
+    Decisions decisions;
+    long now = System.currentTimeMillis();
+
+    decisions = _decisions.get(player.getName());
+    if (decisions == null || now >= decisions.expires)
+      decisions = load(player, now);
+
+    return ((decisions.granted & (1 << permission.ordinal())) != 0);
+  }
+
+
+  /***
+   * Resolves and caches all decisions of a player.
+   *
+   * @param player
+   *          - The player.
+   */
+  void load(Player player)
+  {
+    load(player, System.currentTimeMillis());
+  }
+
+
+  /***
+   * Drops the decisions of a player.
+   *
+   * @param playerName
+   *          - The name of the player.
+   */
+  void invalidate(String playerName)
+  {
+    _decisions.remove(playerName);
+  }
+
+
+  /***
+   * Resolves all decisions of a player.
+   */
+  private Decisions load(Player player, long now)
+  {
+    Decisions decisions;
+    int granted = 0;
+
+    for (int i = 0; i < PERMISSIONS.length; i++)
+    {
+      if (player.hasPermission(PERMISSIONS[i].getNode()))
+        granted |= 1 << i;
+    }
+
+    decisions = new Decisions(granted, now + _ttlMillis);
+    _decisions.put(player.getName(), decisions);
+
+    return (decisions);
+  }
+
+
+  /***
+   * The decisions of a player.
+   *
+   * @author
+   *
+   */
+  private static final class Decisions
+  {
+
+
+    final int granted;
+    final long expires;
+
+
+    Decisions(int granted, long expires)
+    {
+      this.granted = granted;
+      this.expires = expires;
+    }
+
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+
+import com.gizmoplex.bukkit.PluginDataAdapter;
+
+
+/***
+ * Helpers for reading and writing plugin data files.
+ *
+ * @author
+ *
+ */
+final class PluginDataFiles
+{
+
+
+  private PluginDataFiles()
+  {
+  }
+
+
+  /***
+   * Loads an object from a file written with Java serialization by earlier
+   * versions.
+   *
+   * @param file
+   *          - The file to load.
+   * @return The loaded object, or null if it could not be loaded.
+   */
+  static <T> T load(File file)
+  {
+    PluginDataAdapter<T> adapter;
+
+    adapter = new PluginDataAdapter<T>(file.getPath());
+    if (!adapter.FileExists() || !adapter.LoadObject())
+      return (null);
+
+    return (adapter.GetObject());
+  }
+
+
+  /***
+   * Renames a file over the destination, deleting the destination first if
+   * the platform does not allow renaming over an existing file.
+   *
+   * @param source
+   *          - The file to rename.
+   * @param destination
+   *          - The destination file.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  static boolean replace(File source, File destination)
+  {
+    if (source.renameTo(destination))
+      return (true);
+
+    destination.delete();
+
+    return (source.renameTo(destination));
+  }
+
+}
@@ -0,0 +1,631 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Stores private locations in one shard file per player, plus an index of
+ * which players have a shard. Saving a player's locations only rewrites that
+ * player's shard, and a corrupt shard only affects its own player.
+ *
+ * @author
+ *
+ */
+final class PrivateLocationStore
+{
+
+
+  private static final int INDEX_MAGIC = 0x58474F49;
+  private static final short INDEX_VERSION = 1;
+  private static final String INDEX_FILE_NAME = "index.dat";
+  private static final String SHARD_EXTENSION = ".dat";
+  private static final String LEGACY_INDEX_FILE_NAME = "index.bin";
+
+  private final File _folder;
+  private final File _legacyFile;
+  private final Logger _logger;
+  private HashMap<String, String> _index;
+  private final HashSet<String> _shardNames = new HashSet<String>();
+  private boolean _indexChanged;
+  private final WriteCounts _writeCounts = new WriteCounts();
+  private final AtomicLong _bytesWritten = new AtomicLong();
+
+
+  /***
+   * Creates a store in the "players" folder of the plugin data folder.
+   *
+   * @param dataFolder
+   *          - The plugin data folder.
+   * @param logger
+   *          - The plugin logger.
+   */
+  PrivateLocationStore(File dataFolder, Logger logger)
+  {
+    _folder = new File(dataFolder, "players");
+    _legacyFile = new File(dataFolder, "privateLocations.bin");
+    _logger = logger;
+  }
+
+
+  /***
+   * Opens the store, creating it and migrating the location files of earlier
+   * versions if necessary: the single privateLocations.bin file, or per-player
+   * files written with Java serialization.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  synchronized boolean open()
+  {
+    File indexFile = new File(_folder, INDEX_FILE_NAME);
+    File legacyIndexFile = new File(_folder, LEGACY_INDEX_FILE_NAME);
+    HashMap<String, Map<String, LocationReference>> legacy;
+    ArrayList<File> legacyShards;
+
+    if (!_folder.exists() && !_folder.mkdirs())
+    {
+      _logger.severe("Unable to create " + _folder.getPath() + ".");
+      return (false);
+    }
+
+    // Load the index, rebuilding it from the shard files if it is unreadable
+    if (indexFile.exists())
+    {
+      try
+      {
+        setIndex(loadIndex(indexFile));
+      }
+      catch (IOException e)
+      {
+        _logger.warning("Private location index is unreadable, rebuilding it.");
+        setIndex(rebuildIndex());
+        saveIndex();
+      }
+
+      return (true);
+    }
+
+    setIndex(new HashMap<String, String>());
+
+    // Migrate per-player files written with Java serialization
+    if (legacyIndexFile.exists())
+    {
+      _logger.info("Migrating private location files to the location data format.");
+
+      legacy = new HashMap<String, Map<String, LocationReference>>();
+      legacyShards = new ArrayList<File>();
+      if (!loadLegacyShards(legacyIndexFile, legacy, legacyShards) || !migrate(legacy))
+        return (false);
+
+      // Remove the migrated files now that the new index is written
+      for (File file : legacyShards)
+      {
+        file.delete();
+      }
+      legacyIndexFile.renameTo(new File(legacyIndexFile.getPath() + ".migrated"));
+    }
+    // Migrate the single file used by earlier versions
+    else if (_legacyFile.exists())
+    {
+      _logger.info("Migrating " + _legacyFile.getName() + " to per-player files.");
+
+      legacy = PluginDataFiles.load(_legacyFile);
+      if (legacy == null)
+      {
+        _logger.severe("Unable to load " + _legacyFile.getName() + ".");
+        return (false);
+      }
+
+      if (!migrate(legacy))
+        return (false);
+
+      _legacyFile.renameTo(new File(_legacyFile.getPath() + ".migrated"));
+    }
+
+    return (true);
+  }
+
+
+  /***
+   * Reads the index again, such as after another program changed the
+   * shards. Changes of the index not saved yet are kept.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  synchronized boolean reloadIndex()
+  {
+    File indexFile = new File(_folder, INDEX_FILE_NAME);
+
+    if (!saveIndexIfChanged())
+      return (false);
+
+    if (!indexFile.exists())
+      return (true);
+
+    try
+    {
+      setIndex(loadIndex(indexFile));
+    }
+    catch (IOException e)
+    {
+      _logger.warning("Private location index is unreadable, keeping the loaded one.");
+      return (false);
+    }
+
+    return (true);
+  }
+
+
+  /***
+   * Loads per-player files written with Java serialization. A file that
+   * cannot be read is renamed with the extension .corrupt, so it is kept for
+   * recovery by hand; if it cannot be renamed, the migration stops.
+   *
+   * @param legacyIndexFile
+   *          - The index of the files.
+   * @param legacy
+   *          - The map to add each player's locations to.
+   * @param loaded
+   *          - The list to add each loaded file to.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  private boolean loadLegacyShards(File legacyIndexFile,
+      HashMap<String, Map<String, LocationReference>> legacy,
+      List<File> loaded)
+  {
+    HashMap<String, String> legacyIndex;
+    Map<String, LocationReference> locations;
+    File file;
+    File corruptFile;
+
+    legacyIndex = PluginDataFiles.load(legacyIndexFile);
+    if (legacyIndex == null)
+    {
+      _logger.severe("Unable to load " + legacyIndexFile.getName() + ".");
+      return (false);
+    }
+
+    for (Map.Entry<String, String> entry : legacyIndex.entrySet())
+    {
+      file = new File(_folder, entry.getValue());
+      if (!file.exists())
+      {
+        _logger.severe("Locations of " + entry.getKey() + " are missing, " + entry.getValue() + " does not exist.");
+        continue;
+      }
+
+      locations = PluginDataFiles.load(file);
+      if (locations != null)
+      {
+        legacy.put(entry.getKey(), locations);
+        loaded.add(file);
+        continue;
+      }
+
+      corruptFile = new File(file.getPath() + ".corrupt");
+      if (!file.renameTo(corruptFile))
+      {
+        _logger.severe("Unable to load locations of " + entry.getKey() + " from " + entry.getValue() + " or to rename it, stopping the migration.");
+        return (false);
+      }
+      _logger.severe("Unable to load locations of " + entry.getKey() + " from " + entry.getValue() + ", kept as " + corruptFile.getName() + ".");
+    }
+
+    return (true);
+  }
+
+
+  /***
+   * Writes the shards of migrated players, then the index. The index is
+   * written last, so an interrupted migration is retried on the next start.
+   *
+   * @param legacy
+   *          - The locations of each player.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  private boolean migrate(HashMap<String, Map<String, LocationReference>> legacy)
+  {
+    for (Map.Entry<String, Map<String, LocationReference>> entry : legacy.entrySet())
+    {
+      if (!writeShard(entry.getKey(), entry.getValue()))
+      {
+        _logger.severe("Unable to migrate locations of " + entry.getKey() + ".");
+        return (false);
+      }
+    }
+
+    return (saveIndex());
+  }
+
+
+  /***
+   * Returns the names of all players with stored locations.
+   *
+   * @return
+   */
+  synchronized Set<String> getPlayerNames()
+  {
+    return (new HashSet<String>(_index.keySet()));
+  }
+
+
+  /***
+   * Returns the number of shard writes of a player so far. A location map
+   * read from the store is known to be current as long as this number has
+   * not changed.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return
+   */
+  long getWriteCount(String playerName)
+  {
+    return (_writeCounts.get(playerName));
+  }
+
+
+  /***
+   * Returns the number of bytes of shards written so far.
+   *
+   * @return
+   */
+  long getBytesWritten()
+  {
+    return (_bytesWritten.get());
+  }
+
+
+  /***
+   * Loads the locations of a player.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return The player's locations, an empty map if the player has none, or
+   *         null if the player's shard could not be read.
+   */
+  synchronized Map<String, LocationReference> load(String playerName)
+  {
+    String shardName;
+    File shard;
+    Map<String, LocationReference> locations;
+
+    // Players without a shard have no locations
+    shardName = _index.get(playerName);
+    if (shardName == null)
+      return (LocationMaps.create(0));
+
+    // A shard deleted before the index was saved has no locations either
+    shard = new File(_folder, shardName);
+    if (!shard.exists())
+    {
+      removeShard(playerName, shardName);
+      return (LocationMaps.create(0));
+    }
+
+    try
+    {
+      locations = LocationDataReader.load(shard);
+    }
+    catch (IOException e)
+    {
+      // Set the shard aside so it is not overwritten and can be recovered
+      _logger.severe("Unable to load locations of " + playerName + ", moving " + shardName + " aside.");
+      shard.renameTo(new File(_folder, shardName + ".corrupt"));
+      removeShard(playerName, shardName);
+      saveIndex();
+      locations = null;
+    }
+
+    return (locations);
+  }
+
+
+  /***
+   * Saves the locations of a player. The shard of a player without locations
+   * is deleted. Creating or deleting a shard changes the index only in
+   * memory; call saveIndexIfChanged() after saving a batch of players.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @param locations
+   *          - The player's locations.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  synchronized boolean save(String playerName,
+      Map<String, LocationReference> locations)
+  {
+    _writeCounts.increment(playerName);
+
+    return (writeShard(playerName, locations));
+  }
+
+
+  /***
+   * Saves the index if shards were created or deleted since it was last
+   * saved.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  synchronized boolean saveIndexIfChanged()
+  {
+    return (!_indexChanged || saveIndex());
+  }
+
+
+  /***
+   * Writes or deletes the shard of a player and updates the index in memory.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @param locations
+   *          - The player's locations.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  private boolean writeShard(String playerName,
+      Map<String, LocationReference> locations)
+  {
+    String shardName;
+
+    shardName = _index.get(playerName);
+
+    // Empty maps are not stored
+    if (locations.isEmpty())
+    {
+      if (shardName != null)
+      {
+        new File(_folder, shardName).delete();
+        removeShard(playerName, shardName);
+      }
+
+      return (true);
+    }
+
+    // Write the shard, adding it to the index if new
+    if (shardName == null)
+    {
+      shardName = newShardName(playerName);
+      if (!LocationDataWriter.save(new File(_folder, shardName), playerName, locations))
+        return (false);
+
+      _index.put(playerName, shardName);
+      _shardNames.add(shardName.toLowerCase());
+      _indexChanged = true;
+    }
+    else if (!LocationDataWriter.save(new File(_folder, shardName), playerName, locations))
+    {
+      return (false);
+    }
+
+    _bytesWritten.addAndGet(new File(_folder, shardName).length());
+
+    return (true);
+  }
+
+
+  /***
+   * Replaces the index in memory and the set of shard names in use.
+   */
+  private void setIndex(HashMap<String, String> index)
+  {
+    _index = index;
+
+    _shardNames.clear();
+    for (String shardName : index.values())
+    {
+      _shardNames.add(shardName.toLowerCase());
+    }
+  }
+
+
+  /***
+   * Removes the shard of a player from the index in memory.
+   */
+  private void removeShard(String playerName, String shardName)
+  {
+    _index.remove(playerName);
+    _shardNames.remove(shardName.toLowerCase());
+    _indexChanged = true;
+  }
+
+
+  /***
+   * Loads the index: a header like the location data format, followed by the
+   * number of players and a player name and shard file name for each.
+   *
+   * @param file
+   *          - The index file.
+   * @return
+   * @throws IOException
+   */
+  private static HashMap<String, String> loadIndex(File file) throws IOException
+  {
+    CheckedInputStream checked;
+    DataInputStream in;
+    HashMap<String, String> index;
+    int count;
+    long checksum;
+
+    checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+    in = new DataInputStream(checked);
+    try
+    {
+      if (in.readInt() != INDEX_MAGIC || in.readShort() != INDEX_VERSION)
+        throw new IOException("Not a private location index.");
+
+      count = in.readInt();
+      index = new HashMap<String, String>();
+      for (int i = 0; i < count; i++)
+      {
+        index.put(in.readUTF(), in.readUTF());
+      }
+
+      checksum = checked.getChecksum().getValue();
+      if (in.readLong() != checksum)
+        throw new IOException("Private location index checksum mismatch.");
+    }
+    finally
+    {
+      in.close();
+    }
+
+    return (index);
+  }
+
+
+  /***
+   * Saves the index.
+   *
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  private boolean saveIndex()
+  {
+    File file = new File(_folder, INDEX_FILE_NAME);
+    File tempFile = new File(_folder, INDEX_FILE_NAME + ".tmp");
+    CheckedOutputStream checked;
+    DataOutputStream out;
+
+    try
+    {
+      checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), new CRC32());
+      out = new DataOutputStream(checked);
+      try
+      {
+        out.writeInt(INDEX_MAGIC);
+        out.writeShort(INDEX_VERSION);
+        out.writeInt(_index.size());
+        for (Map.Entry<String, String> entry : _index.entrySet())
+        {
+          out.writeUTF(entry.getKey());
+          out.writeUTF(entry.getValue());
+        }
+        out.flush();
+        out.writeLong(checked.getChecksum().getValue());
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+    catch (IOException e)
+    {
+      return (false);
+    }
+
+    if (!PluginDataFiles.replace(tempFile, file))
+      return (false);
+
+    _indexChanged = false;
+
+    return (true);
+  }
+
+
+  /***
+   * Rebuilds the index from the shard files. Each shard names its player in
+   * its header. Shards written before that are taken to belong to the player
+   * named like the file, which is wrong for names that were changed to make
+   * them safe or unique, so those are logged.
+   *
+   * @return
+   */
+  private HashMap<String, String> rebuildIndex()
+  {
+    HashMap<String, String> index = new HashMap<String, String>();
+    File[] files;
+    String name;
+    String playerName;
+
+    files = _folder.listFiles();
+    if (files == null)
+      return (index);
+
+    for (int i = 0; i < files.length; i++)
+    {
+      name = files[i].getName();
+      if (!name.endsWith(SHARD_EXTENSION) || name.equals(INDEX_FILE_NAME))
+        continue;
+
+      // An unreadable shard is set aside when its player's locations load
+      try
+      {
+        playerName = LocationDataReader.readOwner(files[i]);
+      }
+      catch (IOException e)
+      {
+        playerName = null;
+      }
+
+      if (playerName == null)
+      {
+        playerName = name.substring(0, name.length() - SHARD_EXTENSION.length());
+        if (playerName.indexOf('-') >= 0)
+          _logger.warning(name + " does not name its player, assigning it to " + playerName + ", which may be wrong.");
+      }
+
+      if (index.containsKey(playerName))
+      {
+        _logger.warning(name + " and " + index.get(playerName) + " both hold locations of " + playerName + ", ignoring " + name + ".");
+        continue;
+      }
+
+      index.put(playerName, name);
+    }
+
+    return (index);
+  }
+
+
+  /***
+   * Returns an unused shard file name for a player. Characters that are not
+   * safe in file names are replaced, and names that would collide on a case
+   * insensitive file system with a shard in use get a numeric suffix.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return
+   */
+  private String newShardName(String playerName)
+  {
+    StringBuilder base = new StringBuilder(playerName.length());
+    String shardName;
+    char c;
+
+    for (int i = 0; i < playerName.length(); i++)
+    {
+      c = playerName.charAt(i);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')
+        base.append(c);
+      else
+        base.append('-');
+    }
+
+    shardName = base + SHARD_EXTENSION;
+    for (int i = 2; _shardNames.contains(shardName.toLowerCase()) || shardName.equalsIgnoreCase(INDEX_FILE_NAME); i++)
+    {
+      shardName = base + "-" + i + SHARD_EXTENSION;
+    }
+
+    return (shardName);
+  }
+
+}
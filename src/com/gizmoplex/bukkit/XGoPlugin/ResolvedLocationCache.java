@@ -0,0 +1,179 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Caches the Bukkit location each location reference resolves to, so the
+ * world is not looked up by name on every teleport. References are matched
+ * by value, as packed location maps create a new reference on every lookup.
+ * Locations whose world is not loaded are not cached. The least recently used
+ * entries are dropped once the configured capacity is reached.
+ *
+ * @author
+ *
+ */
+final class ResolvedLocationCache
+{
+
+
+  private final JavaPlugin _plugin;
+  private final LinkedHashMap<Key, Location> _locations;
+
+
+  /***
+   * Creates a cache.
+   *
+   * @param plugin
+   *          - The plugin resolving the locations.
+   * @param capacity
+   *          - The maximum number of cached locations.
+   */
+  ResolvedLocationCache(JavaPlugin plugin, final int capacity)
+  {
+    _plugin = plugin;
+    _locations = new LinkedHashMap<Key, Location>(16, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Location> eldest)
+      {
+        return (size() > capacity);
+      }
+    };
+  }
+
+
+  /***
+   * Returns a copy of the location the reference resolves to.
+   *
+   * @param location
+   *          - The location reference.
+   * @return The resolved location, or null if its world is not loaded.
+   */
+  Location resolve(LocationReference location)
+  {
+    Key key = new Key(location);
+    Location resolved;
+
+    resolved = _locations.get(key);
+    if (resolved == null)
+    {
+      resolved = location.ceateLocation(_plugin);
+      if (resolved == null || resolved.getWorld() == null)
+        return (null);
+
+      _locations.put(key, resolved);
+    }
+
+    // Teleport listeners may change the location they are given
+    return (resolved.clone());
+  }
+
+
+  /***
+   * Drops the cached location of a reference.
+   *
+   * @param location
+   *          - The location reference.
+   */
+  void invalidate(LocationReference location)
+  {
+    _locations.remove(new Key(location));
+  }
+
+
+  /***
+   * Drops the cached locations in a world.
+   *
+   * @param worldName
+   *          - The name of the world.
+   */
+  void invalidateWorld(String worldName)
+  {
+    Iterator<Location> i = _locations.values().iterator();
+
+    while (i.hasNext())
+    {
+      if (i.next().getWorld().getName().equals(worldName))
+        i.remove();
+    }
+  }
+
+
+  /***
+   * The value of a location reference.
+   *
+   * @author
+   *
+   */
+  private static final class Key
+  {
+
+
+    private final String _worldName;
+    private final double _x;
+    private final double _y;
+    private final double _z;
+    private final float _yaw;
+    private final float _pitch;
+
+
+    Key(LocationReference location)
+    {
+      _worldName = location.getWorldName();
+      _x = location.getX();
+      _y = location.getY();
+      _z = location.getZ();
+      _yaw = location.getYaw();
+      _pitch = location.getPitch();
+    }
+
+
+    @Override
+    public boolean equals(Object o)
+    {
+      Key other;
+
+      if (!(o instanceof Key))
+        return (false);
+
+      other = (Key) o;
+
+      return (_worldName.equals(other._worldName) && Double.compare(_x, other._x) == 0
+          && Double.compare(_y, other._y) == 0 && Double.compare(_z, other._z) == 0
+          && Float.compare(_yaw, other._yaw) == 0 && Float.compare(_pitch, other._pitch) == 0);
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+      long bits;
+      int hash;
+
+      hash = _worldName.hashCode();
+      bits = Double.doubleToLongBits(_x);
+      hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+      bits = Double.doubleToLongBits(_y);
+      hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+      bits = Double.doubleToLongBits(_z);
+      hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+      hash = 31 * hash + Float.floatToIntBits(_yaw);
+      hash = 31 * hash + Float.floatToIntBits(_pitch);
+
+      return (hash);
+    }
+
+  }
+
+}
@@ -0,0 +1,409 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Location map split by name hash into segments, each a map of the storage
+ * engine. A copy shares the segments of the map it was made from and copies
+ * a segment only when it changes it first, so changing one location of a
+ * large map copies one segment instead of the whole map. The number of
+ * segments grows with the map, at about the square root of its size, which
+ * keeps both the segment table and a single segment small. A frozen map
+ * rejects changes and may be read by several threads at once.
+ *
+ * @author
+ *
+ */
+final class SegmentedLocationMap extends AbstractMap<String, LocationReference>
+{
+
+
+  private final boolean _packed;
+  private Map<String, LocationReference>[] _segments;
+  private boolean[] _owned;
+  private int _shift;
+  private int _size;
+  private int _modCount;
+  private boolean _frozen;
+
+
+  /***
+   * Creates an empty map sized for the expected number of locations.
+   *
+   * @param packed
+   *          - True for packed segments, false for hash map segments.
+   * @param expectedSize
+   *          - The expected number of locations.
+   */
+  SegmentedLocationMap(boolean packed, int expectedSize)
+  {
+    _packed = packed;
+    allocate(segmentCount(expectedSize), expectedSize);
+  }
+
+
+  /***
+   * Creates a modifiable map holding the same locations as another segmented
+   * map, sharing its segments until either map changes them.
+   *
+   * @param locations
+   *          - The locations to copy.
+   */
+  SegmentedLocationMap(SegmentedLocationMap locations)
+  {
+    _packed = locations._packed;
+    _segments = locations._segments.clone();
+    _owned = new boolean[_segments.length];
+    _shift = locations._shift;
+    _size = locations._size;
+
+    // The segments are shared now, so neither map may change them in place
+    if (!locations._frozen)
+      Arrays.fill(locations._owned, false);
+  }
+
+
+  /***
+   * Returns whether the segments are packed maps.
+   *
+   * @return
+   */
+  boolean isPacked()
+  {
+    return (_packed);
+  }
+
+
+  /***
+   * Makes the map read-only.
+   */
+  void freeze()
+  {
+    _frozen = true;
+
+    for (int i = 0; i < _segments.length; i++)
+    {
+      if (_owned[i] && _packed)
+        ((PackedLocationMap) _segments[i]).freeze();
+    }
+  }
+
+
+  @Override
+  public int size()
+  {
+    return (_size);
+  }
+
+
+  @Override
+  public boolean containsKey(Object name)
+  {
+    return (name instanceof String && _segments[segment((String) name)].containsKey(name));
+  }
+
+
+  @Override
+  public LocationReference get(Object name)
+  {
+    return (name instanceof String ? _segments[segment((String) name)].get(name) : null);
+  }
+
+
+  @Override
+  public LocationReference put(String name, LocationReference location)
+  {
+    LocationReference previous;
+
+    checkModifiable();
+
+    previous = modifiable(segment(name)).put(name, location);
+    if (previous == null)
+    {
+      _size++;
+
+      // Split the segments once the map has outgrown them
+      if (segmentCount(_size) > _segments.length)
+        resegment(segmentCount(_size));
+    }
+    _modCount++;
+
+    return (previous);
+  }
+
+
+  @Override
+  public LocationReference remove(Object name)
+  {
+    LocationReference previous;
+    int segment;
+
+    checkModifiable();
+
+    if (!(name instanceof String))
+      return (null);
+
+    // Only copy a shared segment if it holds the name
+    segment = segment((String) name);
+    if (!_segments[segment].containsKey(name))
+      return (null);
+
+    previous = modifiable(segment).remove(name);
+    _size--;
+    _modCount++;
+
+    return (previous);
+  }
+
+
+  @Override
+  public void clear()
+  {
+    checkModifiable();
+    allocate(1, 0);
+    _size = 0;
+    _modCount++;
+  }
+
+
+  @Override
+  public Set<String> keySet()
+  {
+    return (new AbstractSet<String>()
+    {
+      @Override
+      public Iterator<String> iterator()
+      {
+        return (new SegmentIterator<String>()
+        {
+          @Override
+          Iterator<String> iterator(Map<String, LocationReference> segment)
+          {
+            return (segment.keySet().iterator());
+          }
+        });
+      }
+
+      @Override
+      public boolean contains(Object name)
+      {
+        return (containsKey(name));
+      }
+
+      @Override
+      public int size()
+      {
+        return (_size);
+      }
+    });
+  }
+
+
+  @Override
+  public Set<Map.Entry<String, LocationReference>> entrySet()
+  {
+    return (new AbstractSet<Map.Entry<String, LocationReference>>()
+    {
+      @Override
+      public Iterator<Map.Entry<String, LocationReference>> iterator()
+      {
+        return (new SegmentIterator<Map.Entry<String, LocationReference>>()
+        {
+          @Override
+          Iterator<Map.Entry<String, LocationReference>> iterator(
+              Map<String, LocationReference> segment)
+          {
+            return (segment.entrySet().iterator());
+          }
+        });
+      }
+
+      @Override
+      public int size()
+      {
+        return (_size);
+      }
+    });
+  }
+
+
+  /***
+   * Throws if the map is frozen.
+   */
+  private void checkModifiable()
+  {
+    if (_frozen)
+      throw new UnsupportedOperationException("Location map is read-only.");
+  }
+
+
+  /***
+   * Returns the number of segments for a number of locations: the largest
+   * power of two whose square does not exceed it.
+   */
+  private static int segmentCount(int size)
+  {
+    int count = 1;
+
+    while ((long) count * count * 4 <= size)
+    {
+      count <<= 1;
+    }
+
+    return (count);
+  }
+
+
+  /***
+   * Replaces the segments with empty ones of this map's own. Each segment is
+   * sized for its share of the expected locations plus three standard
+   * deviations, so few segments have to grow while filling.
+   */
+  @SuppressWarnings("unchecked")
+  private void allocate(int count, int expectedSize)
+  {
+    int segmentSize = expectedSize / count;
+
+    _segments = (Map<String, LocationReference>[]) new Map<?, ?>[count];
+    _owned = new boolean[count];
+    _shift = 32 - Integer.numberOfTrailingZeros(count);
+
+    segmentSize += 3 * (int) Math.sqrt(segmentSize);
+    for (int i = 0; i < count; i++)
+    {
+      _segments[i] = createSegment(segmentSize);
+      _owned[i] = true;
+    }
+  }
+
+
+  /***
+   * Moves the locations into a new number of segments.
+   */
+  private void resegment(int count)
+  {
+    Map<String, LocationReference>[] segments = _segments;
+
+    allocate(count, _size);
+
+    for (int i = 0; i < segments.length; i++)
+    {
+      for (Map.Entry<String, LocationReference> entry : segments[i].entrySet())
+      {
+        _segments[segment(entry.getKey())].put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+
+  /***
+   * Returns a segment this map may change, copying it first if it is
+   * shared.
+   */
+  private Map<String, LocationReference> modifiable(int segment)
+  {
+    if (!_owned[segment])
+    {
+      _segments[segment] = _packed ? new PackedLocationMap(_segments[segment]) : new HashMap<String, LocationReference>(_segments[segment]);
+      _owned[segment] = true;
+    }
+
+    return (_segments[segment]);
+  }
+
+
+  /***
+   * Creates an empty segment of the storage engine.
+   */
+  private Map<String, LocationReference> createSegment(int expectedSize)
+  {
+    if (_packed)
+      return (new PackedLocationMap(expectedSize));
+
+    return (new HashMap<String, LocationReference>(Math.max(16, expectedSize * 4 / 3 + 1)));
+  }
+
+
+  /***
+   * Returns the segment of a name. The segment is taken from the high bits
+   * of a multiplicative hash, so the names of one segment still differ in
+   * the low bits the segment's own table uses.
+   */
+  private int segment(String name)
+  {
+    int hash;
+
+    if (_shift == 32)
+      return (0);
+
+    hash = name.hashCode();
+    return (((hash ^ (hash >>> 16)) * 0x9E3779B9) >>> _shift);
+  }
+
+
+  /***
+   * Iterates over the segments in turn.
+   *
+   * @author
+   *
+   */
+  private abstract class SegmentIterator<E> implements Iterator<E>
+  {
+
+
+    private final int _expectedModCount = _modCount;
+    private int _segment;
+    private Iterator<E> _current = iterator(_segments[0]);
+
+
+    /***
+     * Returns an iterator over a segment.
+     */
+    abstract Iterator<E> iterator(Map<String, LocationReference> segment);
+
+
+    @Override
+    public boolean hasNext()
+    {
+      while (!_current.hasNext() && _segment + 1 < _segments.length)
+      {
+        _current = iterator(_segments[++_segment]);
+      }
+
+      return (_current.hasNext());
+    }
+
+
+    @Override
+    public E next()
+    {
+      if (_modCount != _expectedModCount)
+        throw new ConcurrentModificationException();
+      if (!hasNext())
+        throw new NoSuchElementException();
+
+      return (_current.next());
+    }
+
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
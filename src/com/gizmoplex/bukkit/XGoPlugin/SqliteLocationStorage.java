@@ -0,0 +1,904 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.gizmoplex.bukkit.LocationReference;
+
+
+/***
+ * Saves locations in a local SQLite database, locations.db in the plugin data
+ * folder, using the SQLite driver bundled with the server. Every location is
+ * a row of one table:
+ *
+ * <pre>
+ * locations (owner, name, world, x, y, z, yaw, pitch)
+ * </pre>
+ *
+ * The owner is the player name, or empty for public locations. The primary
+ * key (owner, name) indexes each player's locations, so a player's locations
+ * are read with one indexed query and each change writes only its own row.
+ * Changes are queued and written by a background thread, which commits them
+ * in batches: a batch is committed when it is full or when its oldest change
+ * has waited the commit delay. A batch that fails is tried a few more times,
+ * then given up on; from then on, flush() and close() report the failure.
+ * The database can be queried with any SQLite tool while the server is
+ * stopped, and read while it runs.
+ *
+ * @author
+ *
+ */
+final class SqliteLocationStorage implements LocationStorage
+{
+
+
+  private static final String DRIVER = "org.sqlite.JDBC";
+  private static final String FILE_NAME = "locations.db";
+  private static final int SCHEMA_VERSION = 1;
+  private static final String PUBLIC_OWNER = "";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte OP_PUT = 1;
+  private static final byte OP_REMOVE = 2;
+  private static final byte OP_REPLACE = 3;
+  private static final byte OP_FLUSH = 4;
+  private static final byte OP_STOP = 5;
+
+  private final File _dataFolder;
+  private final File _file;
+  private final Logger _logger;
+  private final int _batchSize;
+  private final long _commitDelayNanos;
+  private final LinkedBlockingQueue<Change> _queue = new LinkedBlockingQueue<Change>();
+  private final HashMap<String, Integer> _pendingOwners = new HashMap<String, Integer>();
+  private final WriteCounts _writeCounts = new WriteCounts();
+  private final AtomicLong _bytesWritten = new AtomicLong();
+  private volatile boolean _changesLost;
+  private final ChangeWriter _changeWriter = new ChangeWriter();
+  private Connection _readConnection;
+  private PreparedStatement _selectOwner;
+  private PreparedStatement _selectOwners;
+  private Thread _writerThread;
+
+
+  /***
+   * Creates a storage in the plugin data folder.
+   *
+   * @param dataFolder
+   *          - The plugin data folder.
+   * @param logger
+   *          - The plugin logger.
+   * @param batchSize
+   *          - The largest number of changes committed together.
+   * @param commitDelay
+   *          - Milliseconds a change may wait for others to be committed
+   *          with.
+   */
+  SqliteLocationStorage(File dataFolder, Logger logger, int batchSize,
+      long commitDelay)
+  {
+    _dataFolder = dataFolder;
+    _file = new File(dataFolder, FILE_NAME);
+    _logger = logger;
+    _batchSize = Math.max(1, batchSize);
+    _commitDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, commitDelay));
+  }
+
+
+  /***
+   * Opens the database, creating it if necessary. A new database is filled
+   * with the locations saved in files by the file storage, which are left in
+   * place.
+   */
+  @Override
+  public synchronized boolean open()
+  {
+    boolean created = !_file.exists();
+    Connection writeConnection;
+
+    try
+    {
+      Class.forName(DRIVER);
+    }
+    catch (ClassNotFoundException e)
+    {
+      _logger.severe("The SQLite driver is not available, use the files storage backend.");
+      return (false);
+    }
+
+    try
+    {
+      writeConnection = connect();
+      try
+      {
+        createSchema(writeConnection);
+        if (created && FileLocationStorage.exists(_dataFolder) && !importFiles(writeConnection))
+        {
+          writeConnection.close();
+          _file.delete();
+          return (false);
+        }
+      }
+      catch (SQLException e)
+      {
+        writeConnection.close();
+        throw e;
+      }
+
+      _readConnection = connect();
+      _selectOwner = _readConnection.prepareStatement("SELECT name, world, x, y, z, yaw, pitch FROM locations WHERE owner = ?");
+      _selectOwners = _readConnection.prepareStatement("SELECT DISTINCT owner FROM locations WHERE owner <> ?");
+    }
+    catch (SQLException e)
+    {
+      _logger.log(Level.SEVERE, "Unable to open " + _file.getName() + ".", e);
+      return (false);
+    }
+
+    // Changes are written by their own thread
+    _writerThread = new Thread(new BatchWriter(writeConnection), "XGo database writer");
+    _writerThread.setDaemon(true);
+    _writerThread.start();
+
+    return (true);
+  }
+
+
+  /***
+   * Every load queries the database, so there is nothing to forget.
+   */
+  @Override
+  public boolean refresh()
+  {
+    return (true);
+  }
+
+
+  /***
+   * Opens a connection to the database. Write-ahead logging lets the reads
+   * go on while the writer commits.
+   */
+  private Connection connect() throws SQLException
+  {
+    Connection connection = DriverManager.getConnection("jdbc:sqlite:" + _file.getPath());
+    Statement statement = connection.createStatement();
+
+    try
+    {
+      statement.execute("PRAGMA journal_mode=WAL");
+      statement.execute("PRAGMA synchronous=NORMAL");
+      statement.execute("PRAGMA busy_timeout=5000");
+    }
+    finally
+    {
+      statement.close();
+    }
+
+    return (connection);
+  }
+
+
+  /***
+   * Creates the locations table if it does not exist.
+   */
+  private void createSchema(Connection connection) throws SQLException
+  {
+    Statement statement = connection.createStatement();
+    ResultSet result;
+    int version;
+
+    try
+    {
+      result = statement.executeQuery("PRAGMA user_version");
+      version = result.next() ? result.getInt(1) : 0;
+      result.close();
+
+      if (version > SCHEMA_VERSION)
+        throw new SQLException(_file.getName() + " was written by a newer version of XGo.");
+
+      statement.execute("CREATE TABLE IF NOT EXISTS locations (owner TEXT NOT NULL, name TEXT NOT NULL, world TEXT NOT NULL, x REAL NOT NULL, y REAL NOT NULL, z REAL NOT NULL, yaw REAL NOT NULL, pitch REAL NOT NULL, PRIMARY KEY (owner, name))");
+      statement.execute("PRAGMA user_version=" + SCHEMA_VERSION);
+    }
+    finally
+    {
+      statement.close();
+    }
+  }
+
+
+  /***
+   * Copies the locations saved by the file storage into the new database in
+   * one transaction.
+   */
+  private boolean importFiles(Connection connection) throws SQLException
+  {
+    FileLocationStorage files = new FileLocationStorage(_dataFolder, _logger);
+    Map<String, LocationReference> locations;
+    PreparedStatement insert;
+    int count = 0;
+
+    _logger.info("Importing the location files into " + _file.getName() + ".");
+
+    if (!files.open())
+      return (false);
+
+    locations = files.loadPublicLocations();
+    if (locations == null)
+      return (false);
+
+    connection.setAutoCommit(false);
+    insert = connection.prepareStatement("INSERT OR REPLACE INTO locations (owner, name, world, x, y, z, yaw, pitch) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+    try
+    {
+      count += insertAll(insert, PUBLIC_OWNER, locations);
+
+      for (String playerName : files.getPlayerNames())
+      {
+        locations = files.load(playerName);
+        if (locations == null)
+          _logger.severe("Unable to import locations of " + playerName + ".");
+        else
+          count += insertAll(insert, playerName, locations);
+      }
+
+      insert.executeBatch();
+      connection.commit();
+    }
+    catch (SQLException e)
+    {
+      connection.rollback();
+      throw e;
+    }
+    finally
+    {
+      insert.close();
+      connection.setAutoCommit(true);
+    }
+
+    _logger.info("Imported " + count + " locations.");
+
+    return (true);
+  }
+
+
+  /***
+   * Adds an insert of each location of an owner to a batch.
+   *
+   * @return The number of locations.
+   */
+  private int insertAll(PreparedStatement insert, String owner,
+      Map<String, LocationReference> locations) throws SQLException
+  {
+    for (Map.Entry<String, LocationReference> entry : locations.entrySet())
+    {
+      bindLocation(insert, owner, entry.getKey(), entry.getValue());
+      insert.addBatch();
+    }
+
+    return (locations.size());
+  }
+
+
+  /***
+   * Binds the columns of a location row, and counts its bytes as written.
+   */
+  private void bindLocation(PreparedStatement insert, String owner,
+      String name, LocationReference location) throws SQLException
+  {
+    insert.setString(1, owner);
+    insert.setString(2, name);
+    insert.setString(3, location.getWorldName());
+    insert.setDouble(4, location.getX());
+    insert.setDouble(5, location.getY());
+    insert.setDouble(6, location.getZ());
+    insert.setFloat(7, location.getYaw());
+    insert.setFloat(8, location.getPitch());
+
+    _bytesWritten.addAndGet(owner.getBytes(UTF8).length + name.getBytes(UTF8).length + location.getWorldName().getBytes(UTF8).length + 40);
+  }
+
+
+  @Override
+  public Map<String, LocationReference> loadPublicLocations()
+  {
+    return (loadOwner(PUBLIC_OWNER));
+  }
+
+
+  @Override
+  public boolean savePublicLocations(Map<String, LocationReference> locations)
+  {
+    enqueue(new Change(OP_REPLACE, PUBLIC_OWNER, null, null, locations));
+
+    return (true);
+  }
+
+
+  @Override
+  public Map<String, LocationReference> load(String playerName)
+  {
+    return (loadOwner(playerName));
+  }
+
+
+  @Override
+  public boolean save(String playerName,
+      Map<String, LocationReference> locations)
+  {
+    enqueue(new Change(OP_REPLACE, playerName, null, null, locations));
+
+    return (true);
+  }
+
+
+  /***
+   * Loads the locations of an owner. Changes of the owner still waiting to
+   * be committed are flushed first, so what was saved is always read back.
+   *
+   * @param owner
+   *          - The player name, or PUBLIC_OWNER.
+   * @return The locations, or null if they could not be read.
+   */
+  private Map<String, LocationReference> loadOwner(String owner)
+  {
+    Map<String, LocationReference> locations;
+    ResultSet result;
+
+    if (isPending(owner))
+      flush();
+
+    synchronized (this)
+    {
+      try
+      {
+        locations = LocationMaps.create(0);
+        _selectOwner.setString(1, owner);
+        result = _selectOwner.executeQuery();
+        try
+        {
+          while (result.next())
+          {
+            locations.put(result.getString(1), new LocationReference(result.getString(2), result.getDouble(3), result.getDouble(4), result.getDouble(5), result.getFloat(6), result.getFloat(7)));
+          }
+        }
+        finally
+        {
+          result.close();
+        }
+      }
+      catch (SQLException e)
+      {
+        _logger.log(Level.SEVERE, "Unable to load locations of " + (owner.isEmpty() ? "the server" : owner) + ".", e);
+        locations = null;
+      }
+    }
+
+    return (locations);
+  }
+
+
+  @Override
+  public Set<String> getPlayerNames()
+  {
+    HashSet<String> names = new HashSet<String>();
+    ResultSet result;
+
+    flush();
+
+    synchronized (this)
+    {
+      try
+      {
+        _selectOwners.setString(1, PUBLIC_OWNER);
+        result = _selectOwners.executeQuery();
+        try
+        {
+          while (result.next())
+          {
+            names.add(result.getString(1));
+          }
+        }
+        finally
+        {
+          result.close();
+        }
+      }
+      catch (SQLException e)
+      {
+        _logger.log(Level.SEVERE, "Unable to list players with locations.", e);
+      }
+    }
+
+    return (names);
+  }
+
+
+  @Override
+  public long getWriteCount(String playerName)
+  {
+    return (_writeCounts.get(playerName));
+  }
+
+
+  @Override
+  public long getBytesWritten()
+  {
+    return (_bytesWritten.get());
+  }
+
+
+  @Override
+  public LocationChangeListener getChangeWriter()
+  {
+    return (_changeWriter);
+  }
+
+
+  /***
+   * Waits until the queued changes are committed or given up on. Fails if
+   * any change was ever given up on, as the database then lacks it.
+   */
+  @Override
+  public boolean flush()
+  {
+    Change barrier = new Change(OP_FLUSH, null, null, null, null);
+
+    if (_writerThread == null || !_writerThread.isAlive())
+      return (false);
+
+    _queue.add(barrier);
+
+    return (barrier.await());
+  }
+
+
+  /***
+   * Stops the writer once it has committed every queued change, then closes
+   * the database.
+   */
+  @Override
+  public boolean close()
+  {
+    Change stop = new Change(OP_STOP, null, null, null, null);
+    boolean ret = true;
+
+    if (_writerThread != null && _writerThread.isAlive())
+    {
+      _queue.add(stop);
+      ret = stop.await();
+    }
+
+    synchronized (this)
+    {
+      try
+      {
+        if (_readConnection != null)
+          _readConnection.close();
+      }
+      catch (SQLException e)
+      {
+        _logger.log(Level.WARNING, "Unable to close " + _file.getName() + ".", e);
+      }
+      _readConnection = null;
+    }
+
+    return (ret);
+  }
+
+
+  /***
+   * Queues a change for the writer.
+   */
+  private void enqueue(Change change)
+  {
+    synchronized (_pendingOwners)
+    {
+      Integer count = _pendingOwners.get(change.owner);
+      _pendingOwners.put(change.owner, count == null ? 1 : count + 1);
+    }
+
+    _writeCounts.increment(change.owner);
+    _queue.add(change);
+  }
+
+
+  /***
+   * Returns whether changes of an owner are waiting to be committed.
+   */
+  private boolean isPending(String owner)
+  {
+    synchronized (_pendingOwners)
+    {
+      return (_pendingOwners.containsKey(owner));
+    }
+  }
+
+
+  /***
+   * Marks changes as no longer waiting, once committed or given up on.
+   */
+  private void settle(List<Change> changes)
+  {
+    Integer count;
+
+    synchronized (_pendingOwners)
+    {
+      for (int i = 0; i < changes.size(); i++)
+      {
+        count = _pendingOwners.get(changes.get(i).owner);
+        if (count == null || count <= 1)
+          _pendingOwners.remove(changes.get(i).owner);
+        else
+          _pendingOwners.put(changes.get(i).owner, count - 1);
+      }
+    }
+  }
+
+
+  /***
+   * A queued change, or a request to the writer when it has no owner.
+   *
+   * @author
+   *
+   */
+  private static final class Change
+  {
+
+
+    final byte op;
+    final String owner;
+    final String name;
+    final LocationReference location;
+    final Map<String, LocationReference> locations;
+    private final CountDownLatch _done;
+    private volatile boolean _succeeded;
+
+
+    Change(byte op, String owner, String name, LocationReference location,
+        Map<String, LocationReference> locations)
+    {
+      this.op = op;
+      this.owner = owner;
+      this.name = name;
+      this.location = location;
+      this.locations = locations;
+      _done = op == OP_FLUSH || op == OP_STOP ? new CountDownLatch(1) : null;
+    }
+
+
+    /***
+     * Completes a flush or stop request.
+     */
+    void complete(boolean succeeded)
+    {
+      _succeeded = succeeded;
+      _done.countDown();
+    }
+
+
+    /***
+     * Waits for a flush or stop request to complete.
+     */
+    boolean await()
+    {
+      boolean interrupted = false;
+
+      while (true)
+      {
+        try
+        {
+          _done.await();
+          break;
+        }
+        catch (InterruptedException e)
+        {
+          interrupted = true;
+        }
+      }
+
+      if (interrupted)
+        Thread.currentThread().interrupt();
+
+      return (_succeeded);
+    }
+
+  }
+
+
+  /***
+   * Queues each location change made through the plugin.
+   *
+   * @author
+   *
+   */
+  private final class ChangeWriter implements LocationChangeListener
+  {
+
+
+    @Override
+    public void locationAdded(String playerName, String locationName,
+        LocationReference location)
+    {
+      enqueue(new Change(OP_PUT, playerName == null ? PUBLIC_OWNER : playerName, locationName, location, null));
+    }
+
+
+    @Override
+    public void locationRemoved(String playerName, String locationName,
+        LocationReference location)
+    {
+      enqueue(new Change(OP_REMOVE, playerName == null ? PUBLIC_OWNER : playerName, locationName, null, null));
+    }
+
+  }
+
+
+  /***
+   * Commits the queued changes in batches on its own connection. A batch
+   * that fails is tried again on its own after a pause, up to MAX_ATTEMPTS
+   * times in all, then dropped, so a lasting failure such as a full disk
+   * neither blocks the writer nor lets a batch grow without bounds.
+   *
+   * @author
+   *
+   */
+  private final class BatchWriter implements Runnable
+  {
+
+
+    private static final long RETRY_NANOS = 1000000000L;
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final Connection _connection;
+    private final ArrayList<Change> _batch = new ArrayList<Change>();
+    private PreparedStatement _insert;
+    private PreparedStatement _delete;
+    private PreparedStatement _deleteOwner;
+    private int _attempts;
+
+
+    BatchWriter(Connection connection)
+    {
+      _connection = connection;
+    }
+
+
+    @Override
+    public void run()
+    {
+      Change change;
+      Change request;
+      long deadline;
+      long wait;
+
+      try
+      {
+        _connection.setAutoCommit(false);
+        _insert = _connection.prepareStatement("INSERT OR REPLACE INTO locations (owner, name, world, x, y, z, yaw, pitch) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        _delete = _connection.prepareStatement("DELETE FROM locations WHERE owner = ? AND name = ?");
+        _deleteOwner = _connection.prepareStatement("DELETE FROM locations WHERE owner = ?");
+      }
+      catch (SQLException e)
+      {
+        _logger.log(Level.SEVERE, "Unable to prepare " + _file.getName() + " for writing.", e);
+        fail();
+        return;
+      }
+
+      while (true)
+      {
+        request = null;
+
+        // Wait for a change
+        change = take(-1);
+        deadline = System.nanoTime() + _commitDelayNanos;
+
+        // Gather more changes until the batch is full or the delay is over
+        while (change != null)
+        {
+          if (change.op == OP_FLUSH || change.op == OP_STOP)
+          {
+            request = change;
+            break;
+          }
+
+          _batch.add(change);
+          if (_batch.size() >= _batchSize)
+            break;
+
+          wait = deadline - System.nanoTime();
+          change = wait > 0 ? take(wait) : _queue.poll();
+        }
+
+        if (!_batch.isEmpty())
+          commit();
+
+        // Try a failed batch again on its own until committed or dropped
+        while (!_batch.isEmpty())
+        {
+          pause(RETRY_NANOS);
+          commit();
+        }
+
+        if (request != null)
+        {
+          request.complete(!_changesLost);
+          if (request.op == OP_STOP)
+            break;
+        }
+      }
+
+      try
+      {
+        _connection.close();
+      }
+      catch (SQLException e)
+      {
+        _logger.log(Level.WARNING, "Unable to close " + _file.getName() + ".", e);
+      }
+    }
+
+
+    /***
+     * Takes the next change, waiting at most the given time, or without limit
+     * if it is negative.
+     */
+    private Change take(long nanos)
+    {
+      try
+      {
+        if (nanos < 0)
+          return (_queue.take());
+
+        return (_queue.poll(nanos, TimeUnit.NANOSECONDS));
+      }
+      catch (InterruptedException e)
+      {
+        return (null);
+      }
+    }
+
+
+    /***
+     * Waits for the given time, unless interrupted.
+     */
+    private void pause(long nanos)
+    {
+      try
+      {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+      }
+      catch (InterruptedException e)
+      {
+        // Try again early
+      }
+    }
+
+
+    /***
+     * Writes the batch in one transaction. If that fails MAX_ATTEMPTS times,
+     * the batch is dropped and the loss logged.
+     */
+    private void commit()
+    {
+      Change change;
+
+      try
+      {
+        for (int i = 0; i < _batch.size(); i++)
+        {
+          change = _batch.get(i);
+
+          // Statements of different kinds run in order
+          if (change.op == OP_PUT)
+          {
+            bindLocation(_insert, change.owner, change.name, change.location);
+            _insert.addBatch();
+            continue;
+          }
+
+          _insert.executeBatch();
+          if (change.op == OP_REMOVE)
+          {
+            _delete.setString(1, change.owner);
+            _delete.setString(2, change.name);
+            _delete.executeUpdate();
+          }
+          else
+          {
+            _deleteOwner.setString(1, change.owner);
+            _deleteOwner.executeUpdate();
+            insertAll(_insert, change.owner, change.locations);
+          }
+        }
+        _insert.executeBatch();
+        _connection.commit();
+
+        settle(_batch);
+        _batch.clear();
+        _attempts = 0;
+      }
+      catch (SQLException e)
+      {
+        try
+        {
+          _insert.clearBatch();
+          _connection.rollback();
+        }
+        catch (SQLException e2)
+        {
+          _logger.log(Level.FINE, "Unable to roll back location changes.", e2);
+        }
+
+        _attempts++;
+        if (_attempts < MAX_ATTEMPTS)
+        {
+          _logger.log(Level.FINE, "Unable to save " + _batch.size() + " location changes, trying again.", e);
+          return;
+        }
+
+        // Give up, logging at SEVERE only for the first loss
+        if (!_changesLost)
+          _logger.log(Level.SEVERE, "Unable to save " + _batch.size() + " location changes after " + MAX_ATTEMPTS + " attempts, they are lost. Later failures are logged as warnings.", e);
+        else
+          _logger.warning("Unable to save " + _batch.size() + " more location changes, they are lost: " + e.getMessage());
+        _changesLost = true;
+
+        settle(_batch);
+        _batch.clear();
+        _attempts = 0;
+      }
+    }
+
+
+    /***
+     * Gives up on writing, failing every request from now on.
+     */
+    private void fail()
+    {
+      ArrayList<Change> changes = new ArrayList<Change>();
+      Change change;
+
+      while (true)
+      {
+        change = take(-1);
+        if (change == null)
+          continue;
+
+        if (change.op == OP_FLUSH || change.op == OP_STOP)
+        {
+          change.complete(false);
+          if (change.op == OP_STOP)
+            return;
+        }
+        else
+        {
+          changes.add(change);
+          settle(changes);
+          changes.clear();
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,326 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+
+
+/***
+ * Remembers where players were before they were teleported, for /go-back.
+ * Each player gets a ring of a fixed number of positions, kept in primitive
+ * arrays allocated once for a fixed number of players, so no Location
+ * objects are retained and memory use does not depend on the number of
+ * players. When every ring is in use, the ring of the player whose history
+ * was used least recently is reused. World names are stored once and
+ * referred to by number. Only to be used on the main thread.
+ *
+ * @author
+ *
+ */
+final class TeleportHistory
+{
+
+
+  private static final int MAGIC = 0x58474F48;
+  private static final short VERSION = 1;
+
+  private final int _size;
+  private final int _maxPlayers;
+  private final double[] _x;
+  private final double[] _y;
+  private final double[] _z;
+  private final float[] _yaw;
+  private final float[] _pitch;
+  private final int[] _world;
+  private final int[] _head;
+  private final int[] _count;
+  private final LinkedHashMap<String, Integer> _rings = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+  private final ArrayList<String> _worldNames = new ArrayList<String>();
+  private final HashMap<String, Integer> _worldIds = new HashMap<String, Integer>();
+
+
+  /***
+   * Creates a history.
+   *
+   * @param size
+   *          - The number of positions remembered per player.
+   * @param maxPlayers
+   *          - The number of players remembered.
+   */
+  TeleportHistory(int size, int maxPlayers)
+  {
+    _size = Math.max(1, size);
+    _maxPlayers = Math.max(1, maxPlayers);
+
+    _x = new double[_size * _maxPlayers];
+    _y = new double[_size * _maxPlayers];
+    _z = new double[_size * _maxPlayers];
+    _yaw = new float[_size * _maxPlayers];
+    _pitch = new float[_size * _maxPlayers];
+    _world = new int[_size * _maxPlayers];
+    _head = new int[_maxPlayers];
+    _count = new int[_maxPlayers];
+  }
+
+
+  /***
+   * Returns the number of positions remembered per player.
+   *
+   * @return
+   */
+  int getSize()
+  {
+    return (_size);
+  }
+
+
+  /***
+   * Remembers a position of a player as the most recent one.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @param location
+   *          - The position.
+   */
+  void record(String playerName, Location location)
+  {
+    record(playerName, location.getWorld().getName(), location.getX(), location.getY(), location.getZ(), location.getYaw(), location.getPitch());
+  }
+
+
+  /***
+   * Remembers a position of a player as the most recent one.
+   */
+  private void record(String playerName, String worldName, double x,
+      double y, double z, float yaw, float pitch)
+  {
+    int ring = ring(playerName);
+    int i;
+
+    _head[ring] = (_head[ring] + 1) % _size;
+    if (_count[ring] < _size)
+      _count[ring]++;
+
+    i = ring * _size + _head[ring];
+    _x[i] = x;
+    _y[i] = y;
+    _z[i] = z;
+    _yaw[i] = yaw;
+    _pitch[i] = pitch;
+    _world[i] = worldId(worldName);
+  }
+
+
+  /***
+   * Returns the number of positions remembered for a player.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return
+   */
+  int count(String playerName)
+  {
+    Integer ring = _rings.get(playerName);
+
+    return (ring == null ? 0 : _count[ring]);
+  }
+
+
+  /***
+   * Returns a remembered position of a player as a new Location.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @param back
+   *          - 1 for the most recent position, 2 for the one before, and so
+   *          on.
+   * @param server
+   *          - The server to find the world on.
+   * @return The position, or null if not remembered or its world is not
+   *         loaded.
+   */
+  Location get(String playerName, int back, Server server)
+  {
+    Integer ring = _rings.get(playerName);
+    World world;
+    int i;
+
+    if (ring == null || back < 1 || back > _count[ring])
+      return (null);
+
+    i = index(ring, back);
+    world = server.getWorld(_worldNames.get(_world[i]));
+    if (world == null)
+      return (null);
+
+    return (new Location(world, _x[i], _y[i], _z[i], _yaw[i], _pitch[i]));
+  }
+
+
+  /***
+   * Saves the most recent position of each player, least recently used
+   * first.
+   *
+   * @param file
+   *          - The file to save to.
+   * @return If successful, true is returned. Otherwise, false is returned.
+   */
+  boolean saveLast(File file)
+  {
+    File tempFile = new File(file.getPath() + ".tmp");
+    CheckedOutputStream checked;
+    DataOutputStream out;
+    int i;
+
+    try
+    {
+      checked = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), new CRC32());
+      out = new DataOutputStream(checked);
+      try
+      {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(_rings.size());
+        for (Map.Entry<String, Integer> entry : _rings.entrySet())
+        {
+          i = index(entry.getValue(), 1);
+          out.writeUTF(entry.getKey());
+          out.writeUTF(_worldNames.get(_world[i]));
+          out.writeDouble(_x[i]);
+          out.writeDouble(_y[i]);
+          out.writeDouble(_z[i]);
+          out.writeFloat(_yaw[i]);
+          out.writeFloat(_pitch[i]);
+        }
+        out.flush();
+        out.writeLong(checked.getChecksum().getValue());
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+    catch (IOException e)
+    {
+      return (false);
+    }
+
+    return (PluginDataFiles.replace(tempFile, file));
+  }
+
+
+  /***
+   * Loads the positions saved by saveLast(). Beyond the number of players
+   * remembered, the least recently used players are left out.
+   *
+   * @param file
+   *          - The file to load.
+   * @throws IOException
+   */
+  void loadLast(File file) throws IOException
+  {
+    CheckedInputStream checked;
+    DataInputStream in;
+    int count;
+    long checksum;
+
+    checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+    in = new DataInputStream(checked);
+    try
+    {
+      if (in.readInt() != MAGIC || in.readShort() != VERSION)
+        throw new IOException("Not a teleport history file.");
+
+      count = in.readInt();
+      for (int i = 0; i < count; i++)
+      {
+        record(in.readUTF(), in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble(), in.readFloat(), in.readFloat());
+      }
+
+      checksum = checked.getChecksum().getValue();
+      if (in.readLong() != checksum)
+        throw new IOException("Teleport history checksum mismatch.");
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+
+  /***
+   * Returns the ring of a player, taking a free one or the one of the least
+   * recently used player if the player has none.
+   */
+  private int ring(String playerName)
+  {
+    Integer ring = _rings.get(playerName);
+    Iterator<Integer> eldest;
+
+    if (ring != null)
+      return (ring);
+
+    if (_rings.size() < _maxPlayers)
+    {
+      ring = _rings.size();
+    }
+    else
+    {
+      eldest = _rings.values().iterator();
+      ring = eldest.next();
+      eldest.remove();
+    }
+
+    _head[ring] = 0;
+    _count[ring] = 0;
+    _rings.put(playerName, ring);
+
+    return (ring);
+  }
+
+
+  /***
+   * Returns the array index of a position in a ring.
+   */
+  private int index(int ring, int back)
+  {
+    return (ring * _size + (_head[ring] - (back - 1) + _size) % _size);
+  }
+
+
+  /***
+   * Returns the number of a world name, adding it if new.
+   */
+  private int worldId(String worldName)
+  {
+    Integer id = _worldIds.get(worldName);
+
+    if (id == null)
+    {
+      id = _worldNames.size();
+      _worldNames.add(worldName);
+      _worldIds.put(worldName, id);
+    }
+
+    return (id);
+  }
+
+}
@@ -0,0 +1,474 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.bukkit.Location;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+
+/***
+ * Central queue all teleports go through. At most a configured number of
+ * teleports, taking at most a configured amount of time, are performed per
+ * tick; the rest wait in submission order. A player's teleports are always
+ * performed in the order they were submitted, and waiting players are told
+ * their position in the queue. When a chunk preloader is given, destinations
+ * are preloaded before the teleport, which does not hold up other players.
+ * Many players sent to the same destination form a batch: the destination is
+ * preloaded once and the outcome is reported in a single message. The queue
+ * has to be run once per tick. The time teleports wait in the queue and for
+ * their destination, and the time of the teleport itself, are recorded, as
+ * is where each teleported player was before.
+ *
+ * @author
+ *
+ */
+final class TeleportQueue implements Runnable
+{
+
+
+  private final ChunkPreloader _preloader;
+  private final XGoMetrics _metrics;
+  private final TeleportHistory _history;
+  private final int _maxPerTick;
+  private final long _maxNanosPerTick;
+  private final int _positionInterval;
+  private final LinkedList<Request> _waiting = new LinkedList<Request>();
+  private final LinkedList<Request> _ready = new LinkedList<Request>();
+  private final HashSet<String> _busyPlayers = new HashSet<String>();
+  private int _teleportsThisTick;
+  private long _nanosThisTick;
+  private long _tick;
+
+
+  /***
+   * Creates a queue.
+   *
+   * @param preloader
+   *          - The chunk preloader, or null to teleport without preloading.
+   * @param metrics
+   *          - The metrics to record the teleport times in.
+   * @param history
+   *          - The history to record previous positions in, or null.
+   * @param maxPerTick
+   *          - The maximum number of teleports per tick.
+   * @param maxMillisPerTick
+   *          - The maximum time in milliseconds spent teleporting per tick.
+   * @param positionInterval
+   *          - Ticks between queue position updates to waiting players.
+   */
+  TeleportQueue(ChunkPreloader preloader, XGoMetrics metrics,
+      TeleportHistory history, int maxPerTick, long maxMillisPerTick,
+      int positionInterval)
+  {
+    _preloader = preloader;
+    _metrics = metrics;
+    _history = history;
+    _maxPerTick = Math.max(1, maxPerTick);
+    _maxNanosPerTick = maxMillisPerTick * 1000000L;
+    _positionInterval = Math.max(1, positionInterval);
+  }
+
+
+  /***
+   * Returns the number of teleports waiting for their turn.
+   *
+   * @return
+   */
+  int size()
+  {
+    return (_waiting.size());
+  }
+
+
+  /***
+   * Submits a teleport to a location.
+   *
+   * @param sender
+   *          - The command sender to report progress to.
+   * @param player
+   *          - The player to teleport.
+   * @param location
+   *          - The destination.
+   */
+  void submit(CommandSender sender, Player player, Location location)
+  {
+    Request request = new Request();
+
+    request.sender = sender;
+    request.player = player;
+    request.location = location;
+
+    submit(request);
+  }
+
+
+  /***
+   * Submits a teleport to another player.
+   *
+   * @param sender
+   *          - The command sender to report progress to.
+   * @param player
+   *          - The player to teleport.
+   * @param target
+   *          - The player to teleport to.
+   */
+  void submit(CommandSender sender, Player player, Player target)
+  {
+    Request request = new Request();
+
+    request.sender = sender;
+    request.player = player;
+    request.target = target;
+
+    submit(request);
+  }
+
+
+  /***
+   * Submits the teleports of many players to the same location as a batch.
+   * The destination is preloaded once, and the sender gets a single message
+   * once all players are teleported.
+   *
+   * @param sender
+   *          - The command sender to report the outcome to.
+   * @param players
+   *          - The players to teleport.
+   * @param location
+   *          - The destination.
+   * @param destinationName
+   *          - The name of the destination used in the report.
+   */
+  void submit(CommandSender sender, Collection<Player> players,
+      Location location, String destinationName)
+  {
+    final Batch batch = new Batch(sender, players.size(), destinationName);
+    final long start = System.nanoTime();
+
+    submitBatch(batch, players, location, null);
+
+    // Preload the destination once for the whole batch
+    if (_preloader != null && !_preloader.isLoaded(location))
+    {
+      _preloader.preload(location, new ChunkPreloader.Callback()
+      {
+        @Override
+        public void ready(boolean loaded)
+        {
+          _metrics.record("teleport.chunk-wait", start);
+          batch.ready = true;
+        }
+      });
+    }
+    else
+    {
+      batch.ready = true;
+    }
+  }
+
+
+  /***
+   * Submits the teleports of many players to another player as a batch. The
+   * sender gets a single message once all players are teleported.
+   *
+   * @param sender
+   *          - The command sender to report the outcome to.
+   * @param players
+   *          - The players to teleport.
+   * @param target
+   *          - The player to teleport to.
+   */
+  void submit(CommandSender sender, Collection<Player> players, Player target)
+  {
+    Batch batch = new Batch(sender, players.size(), "@" + target.getName());
+
+    batch.ready = true;
+    submitBatch(batch, players, null, target);
+  }
+
+
+  /***
+   * Queues one request per player of a batch.
+   */
+  private void submitBatch(Batch batch, Collection<Player> players,
+      Location location, Player target)
+  {
+    Request request;
+
+    for (Player player : players)
+    {
+      request = new Request();
+      request.sender = batch.sender;
+      request.player = player;
+      request.location = location;
+      request.target = target;
+      request.batch = batch;
+      request.submitted = System.nanoTime();
+      _waiting.add(request);
+    }
+  }
+
+
+  /***
+   * Performs a request right away if nothing is waiting and the tick budget
+   * allows it. Otherwise, queues it.
+   */
+  private void submit(Request request)
+  {
+    if (_waiting.isEmpty() && !_busyPlayers.contains(request.player.getName()) && hasBudget())
+    {
+      dispatch(request);
+      return;
+    }
+
+    request.submitted = System.nanoTime();
+    _waiting.add(request);
+    request.position = _waiting.size();
+    request.sender.sendMessage("Teleport queued, position " + request.position + ".");
+  }
+
+
+  /***
+   * Performs the teleports of this tick.
+   */
+  @Override
+  public void run()
+  {
+    Iterator<Request> i;
+    Request request;
+    HashSet<String> heldPlayers = null;
+
+    _teleportsThisTick = 0;
+    _nanosThisTick = 0;
+    _tick++;
+
+    // Preloaded teleports first
+    while (!_ready.isEmpty() && hasBudget())
+    {
+      request = _ready.removeFirst();
+      _busyPlayers.remove(request.player.getName());
+      teleport(request);
+    }
+
+    // Then waiting teleports of players without one in progress. Players
+    // whose batch is still preloading hold their later teleports as well.
+    i = _waiting.iterator();
+    while (i.hasNext() && hasBudget())
+    {
+      request = i.next();
+      if (request.batch != null && !request.batch.ready)
+      {
+        if (heldPlayers == null)
+          heldPlayers = new HashSet<String>();
+        heldPlayers.add(request.player.getName());
+      }
+      else if (!_busyPlayers.contains(request.player.getName())
+          && (heldPlayers == null || !heldPlayers.contains(request.player.getName())))
+      {
+        i.remove();
+        dispatch(request);
+      }
+    }
+
+    // Tell waiting players where they are
+    if (_tick % _positionInterval == 0)
+      reportPositions();
+  }
+
+
+  /***
+   * Returns whether another teleport fits in this tick.
+   */
+  private boolean hasBudget()
+  {
+    return (_teleportsThisTick < _maxPerTick && (_maxNanosPerTick <= 0 || _nanosThisTick < _maxNanosPerTick));
+  }
+
+
+  /***
+   * Starts a request: preloads its destination if necessary, or teleports.
+   */
+  private void dispatch(final Request request)
+  {
+    final long start = System.nanoTime();
+
+    if (request.submitted != 0)
+      _metrics.record("teleport.queue-wait", request.submitted);
+
+    // Player may have left while waiting
+    if (!request.player.isOnline())
+    {
+      finish(request, false);
+      return;
+    }
+
+    // Preload the destination if needed, holding up this player's other
+    // teleports until done. Batches are preloaded as a whole.
+    if (request.location != null && request.batch == null && _preloader != null && !_preloader.isLoaded(request.location))
+    {
+      _busyPlayers.add(request.player.getName());
+      request.sender.sendMessage("Preparing destination...");
+
+      _preloader.preload(request.location, new ChunkPreloader.Callback()
+      {
+        @Override
+        public void ready(boolean loaded)
+        {
+          _metrics.record("teleport.chunk-wait", start);
+          request.timedOut = !loaded;
+          _ready.add(request);
+        }
+      });
+
+      return;
+    }
+
+    teleport(request);
+  }
+
+
+  /***
+   * Teleports the player of a request.
+   */
+  private void teleport(Request request)
+  {
+    long start = System.nanoTime();
+    long elapsed;
+    boolean teleported;
+    Location from;
+
+    if (!request.player.isOnline())
+    {
+      finish(request, false);
+      return;
+    }
+    from = request.player.getLocation();
+
+    if (request.target != null)
+    {
+      if (!request.target.isOnline())
+      {
+        if (request.batch == null)
+          request.sender.sendMessage("Destination player not found.");
+        finish(request, false);
+        return;
+      }
+
+      teleported = request.player.teleport(request.target);
+    }
+    else
+    {
+      if (request.timedOut)
+        request.sender.sendMessage("Destination is slow to load, teleporting anyway.");
+
+      teleported = request.player.teleport(request.location);
+    }
+
+    // Remember where the player was, for going back
+    if (teleported && _history != null)
+      _history.record(request.player.getName(), from);
+
+    elapsed = System.nanoTime() - start;
+    _teleportsThisTick++;
+    _nanosThisTick += elapsed;
+    _metrics.recordNanos("teleport.move", elapsed);
+
+    finish(request, teleported);
+  }
+
+
+  /***
+   * Records the outcome of a request. Once all requests of a batch are done,
+   * reports the outcome to the sender.
+   */
+  private void finish(Request request, boolean teleported)
+  {
+    Batch batch = request.batch;
+
+    _metrics.add(teleported ? "teleport.teleported" : "teleport.failed", 1);
+
+    if (batch == null)
+      return;
+
+    if (teleported)
+      batch.teleported++;
+    batch.remaining--;
+
+    if (batch.remaining == 0)
+    {
+      batch.sender.sendMessage("Sent " + batch.teleported + " of " + batch.total + " players to " + batch.destinationName + ".");
+    }
+  }
+
+
+  /***
+   * Tells waiting players their position in the queue when it has changed.
+   */
+  private void reportPositions()
+  {
+    int position = 0;
+
+    for (Request request : _waiting)
+    {
+      position++;
+      if (request.batch == null && request.position != position)
+      {
+        request.position = position;
+        request.player.sendMessage("Waiting to teleport, position " + position + ".");
+      }
+    }
+  }
+
+
+  /***
+   * A teleport request.
+   *
+   * @author
+   *
+   */
+  private static class Request
+  {
+    CommandSender sender;
+    Player player;
+    Location location;
+    Player target;
+    Batch batch;
+    boolean timedOut;
+    int position;
+    long submitted;
+  }
+
+
+  /***
+   * Teleports of many players to the same destination.
+   *
+   * @author
+   *
+   */
+  private static class Batch
+  {
+
+
+    final CommandSender sender;
+    final int total;
+    final String destinationName;
+    boolean ready;
+    int remaining;
+    int teleported;
+
+
+    Batch(CommandSender sender, int total, String destinationName)
+    {
+      this.sender = sender;
+      this.total = total;
+      this.destinationName = destinationName;
+      remaining = total;
+    }
+
+  }
+
+}
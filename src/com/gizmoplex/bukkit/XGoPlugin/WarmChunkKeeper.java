@@ -0,0 +1,296 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+
+/***
+ * Keeps the chunks of the most teleported-to public locations loaded, so
+ * they do not have to be loaded again on every visit. Teleports are counted
+ * per location with a score that halves every update, so locations drop out
+ * when their use drops. Explicitly flagged locations are always kept. The
+ * number of kept chunks never exceeds the configured budget. Chunks are
+ * loaded through the chunk preloader, so picking new locations does not
+ * stall the tick.
+ *
+ * @author
+ *
+ */
+final class WarmChunkKeeper
+{
+
+
+  /***
+   * Resolves a public location name to its current location.
+   */
+  interface Resolver
+  {
+
+
+    /***
+     * Returns the location of a public location, or null if it does not exist
+     * or its world is not loaded.
+     *
+     * @param locationName
+     *          - The name of the public location.
+     * @return
+     */
+    Location resolve(String locationName);
+
+  }
+
+
+  private final Resolver _resolver;
+  private final ChunkPreloader _preloader;
+  private final int _count;
+  private final int _radius;
+  private final int _maxChunks;
+  private final double _minScore;
+  private final HashSet<String> _flagged;
+  private final HashMap<String, Double> _scores = new HashMap<String, Double>();
+  private HashMap<String, HashSet<Long>> _chunks = new HashMap<String, HashSet<Long>>();
+  private int _chunkCount;
+
+
+  /***
+   * Creates a keeper.
+   *
+   * @param resolver
+   *          - Resolves public location names.
+   * @param preloader
+   *          - Loads the kept chunks that are not loaded.
+   * @param count
+   *          - The number of most used locations to keep warm.
+   * @param radius
+   *          - The radius in chunks kept around each location.
+   * @param maxChunks
+   *          - The maximum number of chunks kept loaded.
+   * @param minScore
+   *          - The score a location needs to be kept warm.
+   * @param flagged
+   *          - Locations always kept warm, budget permitting.
+   */
+  WarmChunkKeeper(Resolver resolver, ChunkPreloader preloader, int count,
+      int radius, int maxChunks, double minScore, Collection<String> flagged)
+  {
+    _resolver = resolver;
+    _preloader = preloader;
+    _count = count;
+    _radius = Math.max(0, radius);
+    _maxChunks = maxChunks;
+    _minScore = minScore;
+    _flagged = new HashSet<String>(flagged);
+  }
+
+
+  /***
+   * Counts a teleport to a public location.
+   *
+   * @param locationName
+   *          - The name of the public location.
+   */
+  void recordTeleport(String locationName)
+  {
+    Double score = _scores.get(locationName);
+
+    _scores.put(locationName, score == null ? 1.0 : score + 1.0);
+  }
+
+
+  /***
+   * Forgets a public location, such as one that was deleted.
+   *
+   * @param locationName
+   *          - The name of the public location.
+   */
+  void forget(String locationName)
+  {
+    _scores.remove(locationName);
+  }
+
+
+  /***
+   * Returns the number of chunks currently kept loaded.
+   *
+   * @return
+   */
+  int getChunkCount()
+  {
+    return (_chunkCount);
+  }
+
+
+  /***
+   * Returns whether a chunk is being kept loaded.
+   *
+   * @param world
+   *          - The world of the chunk.
+   * @param x
+   *          - The chunk x coordinate.
+   * @param z
+   *          - The chunk z coordinate.
+   * @return
+   */
+  boolean isKept(World world, int x, int z)
+  {
+    HashSet<Long> chunks = _chunks.get(world.getName());
+
+    return (chunks != null && chunks.contains(key(x, z)));
+  }
+
+
+  /***
+   * Picks the locations to keep warm, starts loading their chunks and decays
+   * the scores. Chunks of locations no longer picked are released.
+   */
+  void update()
+  {
+    HashMap<String, HashSet<Long>> chunks = new HashMap<String, HashSet<Long>>();
+    List<String> mostUsed;
+    Iterator<Map.Entry<String, Double>> i;
+    Map.Entry<String, Double> entry;
+    int chunkCount = 0;
+    int picked = 0;
+
+    // Flagged locations first
+    for (String locationName : _flagged)
+    {
+      chunkCount = keep(locationName, chunks, chunkCount);
+    }
+
+    // Then the most used ones
+    mostUsed = getMostUsed();
+    for (int j = 0; j < mostUsed.size() && picked < _count; j++)
+    {
+      if (!_flagged.contains(mostUsed.get(j)))
+      {
+        chunkCount = keep(mostUsed.get(j), chunks, chunkCount);
+        picked++;
+      }
+    }
+
+    _chunks = chunks;
+    _chunkCount = chunkCount;
+
+    // Decay the scores, forgetting unused locations
+    i = _scores.entrySet().iterator();
+    while (i.hasNext())
+    {
+      entry = i.next();
+      entry.setValue(entry.getValue() / 2);
+      if (entry.getValue() < 0.5)
+        i.remove();
+    }
+  }
+
+
+  /***
+   * Returns the names of the locations scoring at least the minimum score,
+   * highest score first.
+   */
+  private List<String> getMostUsed()
+  {
+    List<String> names = new ArrayList<String>();
+
+    for (Map.Entry<String, Double> entry : _scores.entrySet())
+    {
+      if (entry.getValue() >= _minScore)
+        names.add(entry.getKey());
+    }
+
+    Collections.sort(names, new Comparator<String>()
+    {
+      @Override
+      public int compare(String a, String b)
+      {
+        return (Double.compare(_scores.get(b), _scores.get(a)));
+      }
+    });
+
+    return (names);
+  }
+
+
+  /***
+   * Adds the chunks around a location to the kept chunks, if they all fit in
+   * the budget, and starts loading those that are not loaded.
+   *
+   * @return The new number of kept chunks.
+   */
+  private int keep(String locationName, HashMap<String, HashSet<Long>> chunks,
+      int chunkCount)
+  {
+    Location location;
+    World world;
+    HashSet<Long> worldChunks;
+    int chunkX;
+    int chunkZ;
+    int added = 0;
+    boolean loaded = true;
+
+    location = _resolver.resolve(locationName);
+    if (location == null)
+      return (chunkCount);
+
+    world = location.getWorld();
+    chunkX = location.getBlockX() >> 4;
+    chunkZ = location.getBlockZ() >> 4;
+
+    worldChunks = chunks.get(world.getName());
+    if (worldChunks == null)
+    {
+      worldChunks = new HashSet<Long>();
+      chunks.put(world.getName(), worldChunks);
+    }
+
+    // Collect the chunks not already kept for another location
+    for (int x = chunkX - _radius; x <= chunkX + _radius; x++)
+    {
+      for (int z = chunkZ - _radius; z <= chunkZ + _radius; z++)
+      {
+        if (!worldChunks.contains(key(x, z)))
+          added++;
+      }
+    }
+
+    if (chunkCount + added > _maxChunks)
+      return (chunkCount);
+
+    // Keep them, then preload them if any is not loaded
+    for (int x = chunkX - _radius; x <= chunkX + _radius; x++)
+    {
+      for (int z = chunkZ - _radius; z <= chunkZ + _radius; z++)
+      {
+        worldChunks.add(key(x, z));
+        if (loaded && !world.isChunkLoaded(x, z))
+          loaded = false;
+      }
+    }
+
+    if (!loaded)
+      _preloader.preload(world, chunkX, chunkZ, _radius, null);
+
+    return (chunkCount + added);
+  }
+
+
+  /***
+   * Returns the key of a chunk within its world.
+   */
+  private static long key(int x, int z)
+  {
+    return (((long) x << 32) | (z & 0xFFFFFFFFL));
+  }
+
+}
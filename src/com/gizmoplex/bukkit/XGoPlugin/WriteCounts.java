@@ -0,0 +1,62 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/***
+ * Counts writes per owner of locations, so a map loaded for one player is
+ * not taken for stale because another player's locations were written. The
+ * counts are kept in a fixed number of stripes chosen by name hash, so they
+ * take the same memory however many players there are. Players sharing a
+ * stripe share a count, which can only make a loaded map look stale, never
+ * current when it is not. Safe to use from any thread.
+ *
+ * @author
+ *
+ */
+final class WriteCounts
+{
+
+
+  private static final int STRIPES = 1024;
+
+  private final AtomicLongArray _counts = new AtomicLongArray(STRIPES);
+
+
+  /***
+   * Counts a write of an owner's locations.
+   *
+   * @param owner
+   *          - The name of the owner.
+   */
+  void increment(String owner)
+  {
+    _counts.incrementAndGet(stripe(owner));
+  }
+
+
+  /***
+   * Returns the number of writes of an owner's locations so far.
+   *
+   * @param owner
+   *          - The name of the owner.
+   * @return
+   */
+  long get(String owner)
+  {
+    return (_counts.get(stripe(owner)));
+  }
+
+
+  /***
+   * Returns the stripe of an owner.
+   */
+  private static int stripe(String owner)
+  {
+    int hash = owner.hashCode();
+
+    return ((hash ^ (hash >>> 16)) & (STRIPES - 1));
+  }
+
+}
@@ -0,0 +1,480 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+
+
+/***
+ * Counters and latency histograms of the plugin's commands, completions,
+ * teleports and persistence. Recording only updates atomic counters, so it
+ * is cheap enough for every call and may happen on any thread. Latencies are
+ * kept in buckets doubling in size from one microsecond, so percentiles are
+ * estimates no more than twice the actual value. The metrics are exposed
+ * through JMX as attributes named after the metric, such as
+ * "command.go.ok.p99Micros", and reset() starts all metrics over.
+ *
+ * @author
+ *
+ */
+final class XGoMetrics implements DynamicMBean
+{
+
+
+  private static final String[] TIMER_ATTRIBUTES = { "count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "maxMicros" };
+
+  private final ConcurrentHashMap<String, Timer> _timers = new ConcurrentHashMap<String, Timer>();
+  private final ConcurrentHashMap<String, AtomicLong> _counters = new ConcurrentHashMap<String, AtomicLong>();
+
+
+  /***
+   * Records the time since a start time taken with System.nanoTime().
+   *
+   * @param name
+   *          - The name of the timer.
+   * @param startNanos
+   *          - The start time.
+   */
+  void record(String name, long startNanos)
+  {
+    recordNanos(name, System.nanoTime() - startNanos);
+  }
+
+
+  /***
+   * Records a duration.
+   *
+   * @param name
+   *          - The name of the timer.
+   * @param nanos
+   *          - The duration in nanoseconds.
+   */
+  void recordNanos(String name, long nanos)
+  {
+    Timer timer = _timers.get(name);
+
+    if (timer == null)
+    {
+      _timers.putIfAbsent(name, new Timer());
+      timer = _timers.get(name);
+    }
+
+    timer.record(nanos);
+  }
+
+
+  /***
+   * Adds to a counter.
+   *
+   * @param name
+   *          - The name of the counter.
+   * @param delta
+   *          - The amount to add.
+   */
+  void add(String name, long delta)
+  {
+    AtomicLong counter = _counters.get(name);
+
+    if (counter == null)
+    {
+      _counters.putIfAbsent(name, new AtomicLong());
+      counter = _counters.get(name);
+    }
+
+    counter.addAndGet(delta);
+  }
+
+
+  /***
+   * Starts all metrics over.
+   */
+  void reset()
+  {
+    _timers.clear();
+    _counters.clear();
+  }
+
+
+  /***
+   * Returns a command executor recording the time and outcome of each call
+   * of another executor as "command.[name].ok", ".usage" when the usage is
+   * shown, or ".error" when it throws.
+   *
+   * @param name
+   *          - The command name.
+   * @param executor
+   *          - The executor to time.
+   * @return
+   */
+  CommandExecutor timeCommand(final String name, final CommandExecutor executor)
+  {
+    return (new CommandExecutor()
+    {
+      @Override
+      public boolean onCommand(CommandSender sender, Command cmd,
+          String label, String[] args)
+      {
+        long start = System.nanoTime();
+        String outcome = "error";
+        boolean ret;
+
+        try
+        {
+          ret = executor.onCommand(sender, cmd, label, args);
+          outcome = ret ? "ok" : "usage";
+        }
+        finally
+        {
+          record("command." + name + "." + outcome, start);
+        }
+
+        return (ret);
+      }
+    });
+  }
+
+
+  /***
+   * Returns a tab completer recording the time of each call of another
+   * completer as "complete.[name]".
+   *
+   * @param name
+   *          - The command name.
+   * @param completer
+   *          - The completer to time.
+   * @return
+   */
+  TabCompleter timeCompleter(final String name, final TabCompleter completer)
+  {
+    return (new TabCompleter()
+    {
+      @Override
+      public List<String> onTabComplete(CommandSender sender, Command cmd,
+          String label, String[] args)
+      {
+        long start = System.nanoTime();
+
+        try
+        {
+          return (completer.onTabComplete(sender, cmd, label, args));
+        }
+        finally
+        {
+          record("complete." + name, start);
+        }
+      }
+    });
+  }
+
+
+  /***
+   * Returns a line per metric with a non-zero count, in name order, such as
+   * "command.go.ok: 12 calls, mean 85 us, p50 64 us, p99 512 us, max 731 us".
+   *
+   * @return
+   */
+  List<String> describe()
+  {
+    List<String> lines = new ArrayList<String>();
+    Timer timer;
+
+    for (String name : sortedNames(_timers))
+    {
+      timer = _timers.get(name);
+      if (timer.count() == 0)
+        continue;
+
+      lines.add(name + ": " + timer.count() + " calls, mean " + timer.meanMicros() + " us, p50 " + timer.percentileMicros(0.5) + " us, p99 " + timer.percentileMicros(0.99) + " us, max " + timer.maxMicros() + " us");
+    }
+
+    for (String name : sortedNames(_counters))
+    {
+      lines.add(name + ": " + _counters.get(name).get());
+    }
+
+    return (lines);
+  }
+
+
+  /***
+   * Writes all metrics to a file as comma separated values: one line per
+   * timer with its count, mean, percentiles, maximum and the count of each
+   * histogram bucket, followed by one line per counter.
+   *
+   * @param file
+   *          - The file to write.
+   * @throws IOException
+   */
+  void dump(File file) throws IOException
+  {
+    Writer out = new BufferedWriter(new FileWriter(file));
+    Timer timer;
+
+    try
+    {
+      out.write("type,name,count,mean_us,p50_us,p90_us,p99_us,max_us,buckets (upper bound us:count)\n");
+
+      for (String name : sortedNames(_timers))
+      {
+        timer = _timers.get(name);
+        out.write("timer," + name + "," + timer.count() + "," + timer.meanMicros() + "," + timer.percentileMicros(0.5) + "," + timer.percentileMicros(0.9) + "," + timer.percentileMicros(0.99) + "," + timer.maxMicros());
+        for (int i = 0; i < Timer.BUCKETS; i++)
+        {
+          if (timer.buckets.get(i) > 0)
+            out.write("," + Timer.upperBoundMicros(i) + ":" + timer.buckets.get(i));
+        }
+        out.write("\n");
+      }
+
+      for (String name : sortedNames(_counters))
+      {
+        out.write("counter," + name + "," + _counters.get(name).get() + "\n");
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+
+  @Override
+  public Object getAttribute(String attribute)
+      throws AttributeNotFoundException
+  {
+    AtomicLong counter;
+    Timer timer;
+    int dot;
+    String property;
+
+    counter = _counters.get(attribute);
+    if (counter != null)
+      return (counter.get());
+
+    dot = attribute.lastIndexOf('.');
+    timer = dot < 0 ? null : _timers.get(attribute.substring(0, dot));
+    if (timer == null)
+      throw new AttributeNotFoundException(attribute);
+
+    property = attribute.substring(dot + 1);
+    if (property.equals("count"))
+      return (timer.count());
+    if (property.equals("meanMicros"))
+      return (timer.meanMicros());
+    if (property.equals("p50Micros"))
+      return (timer.percentileMicros(0.5));
+    if (property.equals("p90Micros"))
+      return (timer.percentileMicros(0.9));
+    if (property.equals("p99Micros"))
+      return (timer.percentileMicros(0.99));
+    if (property.equals("maxMicros"))
+      return (timer.maxMicros());
+
+    throw new AttributeNotFoundException(attribute);
+  }
+
+
+  @Override
+  public AttributeList getAttributes(String[] attributes)
+  {
+    AttributeList list = new AttributeList();
+
+    for (int i = 0; i < attributes.length; i++)
+    {
+      try
+      {
+        list.add(new Attribute(attributes[i], getAttribute(attributes[i])));
+      }
+      catch (AttributeNotFoundException e)
+      {
+        // Metrics may be reset between listing and reading them
+      }
+    }
+
+    return (list);
+  }
+
+
+  @Override
+  public void setAttribute(Attribute attribute)
+      throws AttributeNotFoundException
+  {
+    throw new AttributeNotFoundException("Metrics are read-only.");
+  }
+
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes)
+  {
+    return (new AttributeList());
+  }
+
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature)
+      throws ReflectionException
+  {
+    if (actionName.equals("reset"))
+    {
+      reset();
+      return (null);
+    }
+
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+
+  @Override
+  public MBeanInfo getMBeanInfo()
+  {
+    List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    MBeanOperationInfo reset;
+
+    for (String name : sortedNames(_timers))
+    {
+      for (int i = 0; i < TIMER_ATTRIBUTES.length; i++)
+      {
+        attributes.add(new MBeanAttributeInfo(name + "." + TIMER_ATTRIBUTES[i], "java.lang.Long", name + " " + TIMER_ATTRIBUTES[i], true, false, false));
+      }
+    }
+
+    for (String name : sortedNames(_counters))
+    {
+      attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", name, true, false, false));
+    }
+
+    reset = new MBeanOperationInfo("reset", "Starts all metrics over.", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+
+    return (new MBeanInfo(getClass().getName(), "XGo command, teleport and persistence metrics.", attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[] { reset }, null));
+  }
+
+
+  /***
+   * Returns the names of a metric map in order.
+   */
+  private static List<String> sortedNames(Map<String, ?> metrics)
+  {
+    List<String> names = new ArrayList<String>(metrics.keySet());
+
+    Collections.sort(names);
+
+    return (names);
+  }
+
+
+  /***
+   * A latency histogram. Bucket i counts durations of less than 2^i
+   * microseconds not counted by a lower bucket; the last bucket counts
+   * everything longer.
+   *
+   * @author
+   *
+   */
+  private static final class Timer
+  {
+
+
+    static final int BUCKETS = 32;
+
+    final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+
+
+    /***
+     * Records a duration.
+     */
+    void record(long nanos)
+    {
+      long micros = Math.max(0, nanos / 1000);
+      long max;
+
+      buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+
+      max = maxNanos.get();
+      while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+      {
+        max = maxNanos.get();
+      }
+    }
+
+
+    long count()
+    {
+      return (count.get());
+    }
+
+
+    long meanMicros()
+    {
+      long n = count.get();
+
+      return (n == 0 ? 0 : totalNanos.get() / n / 1000);
+    }
+
+
+    long maxMicros()
+    {
+      return (maxNanos.get() / 1000);
+    }
+
+
+    /***
+     * Returns the upper bound of the bucket holding a percentile, capped at
+     * the maximum recorded duration.
+     */
+    long percentileMicros(double percentile)
+    {
+      long rank = (long) Math.ceil(count.get() * percentile);
+      long seen = 0;
+
+      for (int i = 0; i < BUCKETS; i++)
+      {
+        seen += buckets.get(i);
+        if (seen >= rank && seen > 0)
+          return (Math.min(upperBoundMicros(i), maxMicros()));
+      }
+
+      return (maxMicros());
+    }
+
+
+    /***
+     * Returns the upper bound in microseconds of a bucket.
+     */
+    static long upperBoundMicros(int bucket)
+    {
+      return (bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket);
+    }
+
+  }
+
+}
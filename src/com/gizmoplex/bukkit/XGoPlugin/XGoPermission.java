@@ -0,0 +1,44 @@
+package com.gizmoplex.bukkit.XGoPlugin;
+
+
+/***
+ * Permission nodes checked by the plugin's commands and completers.
+ *
+ * @author
+ *
+ */
+enum XGoPermission
+{
+
+
+  GO_PLAYER("XGoPlugin.go-player"),
+  GO_PUBLIC("XGoPlugin.go-public"),
+  GO_ADD_PUBLIC("XGoPlugin.go-add-public"),
+  GO_DEL_PUBLIC("XGoPlugin.go-del-public"),
+  GO_LIST_PUBLIC("XGoPlugin.go-list-public"),
+  GO_SEND_MULTIPLE("XGoPlugin.go-send-multiple"),
+  GO_SEND_ALL("XGoPlugin.go-send-all"),
+  GO_SEND_WORLD("XGoPlugin.go-send-world"),
+  GO_SEND_RADIUS("XGoPlugin.go-send-radius");
+
+
+  private final String _node;
+
+
+  private XGoPermission(String node)
+  {
+    _node = node;
+  }
+
+
+  /***
+   * Returns the permission node.
+   *
+   * @return
+   */
+  String getNode()
+  {
+    return (_node);
+  }
+
+}
@@ -1,34 +1,151 @@
 package com.gizmoplex.bukkit.XGoPlugin;
 
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import com.gizmoplex.bukkit.LocationReference;
-import com.gizmoplex.bukkit.PluginDataAdapter;
 
 
 public final class XGoPlugin extends JavaPlugin
 {
 
 
-  private HashMap<String, LocationReference> _publicLocations;
-  private HashMap<String, HashMap<String, LocationReference>> _privateLocations;
+  private volatile Map<String, LocationReference> _publicLocations;
+  private ConcurrentHashMap<String, Map<String, LocationReference>> _privateLocations;
+
+  private LocationStorage _storage;
+  private LocationChangeListener _changeWriter;
+  private OnlinePlayerIndex _onlinePlayers;
+  private PermissionCache _permissions;
+  private LinkedHashMap<String, Boolean> _offlinePlayers = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+  private int _offlinePlayerCapacity;
+  private ConcurrentHashMap<String, PrefetchedLocations> _prefetchedLocations = new ConcurrentHashMap<String, PrefetchedLocations>();
+
+  private LocationJournal _journal;
+  private long _journalCompactThreshold;
+  private ExecutorService _persistenceExecutor;
+  private volatile boolean _snapshotPending;
+
+  private volatile boolean _publicDirty;
+  private Set<String> _dirtyPlayers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private ArrayList<LocationChangeListener> _locationChangeListeners = new ArrayList<LocationChangeListener>();
+
+  private LocationNameIndex _publicNameIndex;
+  private ConcurrentHashMap<String, LocationNameIndex> _privateNameIndexes = new ConcurrentHashMap<String, LocationNameIndex>();
+  private ConcurrentHashMap<String, CompletionCache> _completionCaches = new ConcurrentHashMap<String, CompletionCache>();
+  private HashMap<String, ListPageCache> _listPageCaches = new HashMap<String, ListPageCache>();
+
+  private FuzzyNameIndex _publicFuzzyIndex;
+  private ConcurrentHashMap<String, FuzzyNameIndex> _privateFuzzyIndexes = new ConcurrentHashMap<String, FuzzyNameIndex>();
+  private int _suggestCount;
+  private int _suggestMaxDistance;
+  private int _autoCorrectDistance;
+
+  private int _spatialCellSize;
+  private LocationSpatialIndex _publicSpatialIndex;
+  private ConcurrentHashMap<String, LocationSpatialIndex> _privateSpatialIndexes = new ConcurrentHashMap<String, LocationSpatialIndex>();
+
+  private ResolvedLocationCache _resolvedLocations;
+  private ChunkPreloader _chunkPreloader;
+  private TeleportQueue _teleportQueue;
+  private TeleportHistory _history;
+  private WarmChunkKeeper _warmChunks;
+  private XGoMetrics _metrics = new XGoMetrics();
+  private ObjectName _metricsName;
+  private volatile boolean _transferRunning;
+
+  private LocationChangeListener _persistenceListener;
+  private volatile int _snapshotCount;
+  private volatile long _lastSnapshotEnd;
+  private volatile boolean _reloadRunning;
+  private LocationFileWatcher _fileWatcher;
+  private long _handledChangeTime;
+  private long _watchDelayNanos;
+
+
+  /***
+   * Creates the plugin. Called by the server's plugin loader.
+   */
+  public XGoPlugin()
+  {
+    super();
+  }
+
 
-  private PluginDataAdapter<HashMap<String, LocationReference>> _publicLocationsAdapter;
-  private PluginDataAdapter<HashMap<String, HashMap<String, LocationReference>>> _privateLocationsAdapter;
+  /***
+   * Creates the plugin outside a plugin class loader, such as in the
+   * benchmarks, which enable it on stand-ins for the server.
+   * 
+   * @param server
+   *          - The server.
+   * @param description
+   *          - The plugin description, as read from plugin.yml.
+   * @param dataFolder
+   *          - The plugin data folder.
+   */
+  @SuppressWarnings("deprecation")
+  XGoPlugin(Server server, PluginDescriptionFile description, File dataFolder)
+  {
+    super(null, server, description, dataFolder, new File(dataFolder.getParentFile(), "XGo.jar"));
+  }
 
 
   /***
@@ -38,12 +155,30 @@ public final class XGoPlugin extends JavaPlugin
   public void onDisable()
   {
     super.onDisable();
+    long start = System.nanoTime();
+
+    // Stop watching before the final save writes the files
+    if (_fileWatcher != null)
+    {
+      _fileWatcher.stop();
+    }
 
     // Save plugin data
     if (!savePluginData())
     {
       getLogger().severe("Unable to save plugin data.");
     }
+    _metrics.record("persistence.save", start);
+
+    // Save the most recent position of each player for /go-back
+    if (_history != null && getConfig().getBoolean("history.persist-last"))
+    {
+      if (!_history.saveLast(new File(getDataFolder(), "history.dat")))
+        getLogger().warning("Unable to save teleport history.");
+    }
+
+    // Stop exposing the metrics, so a reloaded plugin can register its own
+    unregisterMetrics();
 
     getLogger().info("XGo plugin disabled.");
 
@@ -59,40 +194,151 @@ public final class XGoPlugin extends JavaPlugin
     super.onEnable();
 
     PluginCommand cmd;
+    long autosaveTicks;
+    long start;
+
+    // Load the configuration, writing the defaults on first run
+    saveDefaultConfig();
+    _journalCompactThreshold = getConfig().getLong("journal.compact-threshold");
+    _offlinePlayerCapacity = getConfig().getInt("cache.offline-players");
+    LocationMaps.setEngine(getConfig().getString("storage.engine"));
+
+    // Index the players already online, such as after a reload
+    _onlinePlayers = new OnlinePlayerIndex(getServer().getOnlinePlayers());
+    _permissions = new PermissionCache(getConfig().getLong("cache.permission-ttl"));
 
     // Init plugin data adapters
     initPluginDataAdapters();
 
     // Load plugin data from files
+    start = System.nanoTime();
     if (!loadPluginData())
     {
       getLogger().severe("Unable to load plugin data.");
       setEnabled(false);
       return;
     }
+    _metrics.record("persistence.load", start);
+
+    // Build the name indexes and keep them in sync with the locations
+    _publicNameIndex = new LocationNameIndex(_publicLocations.keySet());
+    _publicFuzzyIndex = new FuzzyNameIndex(_publicLocations.keySet());
+    _suggestCount = getConfig().getInt("suggest.count");
+    _suggestMaxDistance = getConfig().getInt("suggest.max-distance");
+    _autoCorrectDistance = getConfig().getInt("suggest.auto-teleport-distance");
+    addLocationChangeListener(new NameIndexUpdater());
+
+    // Build the spatial indexes and keep them in sync with the locations
+    _spatialCellSize = getConfig().getInt("near.cell-size");
+    _publicSpatialIndex = new LocationSpatialIndex(_spatialCellSize, _publicLocations);
+    addLocationChangeListener(new SpatialIndexUpdater());
+
+    // Journal every location change, unless the storage saves each change
+    _persistenceListener = _changeWriter != null ? _changeWriter : new JournalWriter();
+    addLocationChangeListener(_persistenceListener);
+
+    // Cache resolved locations until they change or their world unloads
+    _resolvedLocations = new ResolvedLocationCache(this, getConfig().getInt("cache.resolved-locations"));
+    addLocationChangeListener(new ResolvedLocationInvalidator());
+    getServer().getPluginManager().registerEvents(new WorldListener(), this);
+
+    // Load destination chunks ahead of teleports
+    if (getConfig().getBoolean("teleport.preload"))
+    {
+      _chunkPreloader = new ChunkPreloader(getConfig().getInt("teleport.preload-radius"), getConfig().getInt("teleport.preload-timeout"), getConfig().getInt("teleport.preload-chunks-per-tick"));
+      getServer().getScheduler().runTaskTimer(this, _chunkPreloader, 1, 1);
+      if (!ChunkPreloader.isAsyncSupported())
+        getLogger().info("Server cannot load chunks asynchronously, preloading on the main thread.");
+    }
+
+    // Remember where players teleported from, for /go-back
+    if (getConfig().getInt("history.size") > 0)
+    {
+      initHistory();
+    }
+
+    // Spread teleports over ticks
+    _teleportQueue = new TeleportQueue(_chunkPreloader, _metrics, _history, getConfig().getInt("teleport.max-per-tick"), getConfig().getLong("teleport.max-millis-per-tick"), getConfig().getInt("teleport.position-interval"));
+    getServer().getScheduler().runTaskTimer(this, _teleportQueue, 1, 1);
+
+    // Keep the chunks of the busiest public locations loaded
+    if (getConfig().getBoolean("keep-warm.enabled"))
+    {
+      initWarmChunks();
+    }
+
+    // Periodically save the locations changed since the last snapshot
+    autosaveTicks = getConfig().getLong("autosave.interval") * 20;
+    if (autosaveTicks > 0)
+    {
+      getServer().getScheduler().runTaskTimer(this, new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          startSnapshot();
+          evictColdPlayers();
+        }
+      }, autosaveTicks, autosaveTicks);
+    }
+
+    // Reload the location files when other programs change them
+    if (getConfig().getBoolean("reload.watch"))
+    {
+      initFileWatcher();
+    }
+
+    // Register event listeners
+    getServer().getPluginManager().registerEvents(new PlayerListener(), this);
 
     // go command
     cmd = getCommand("go");
-    cmd.setExecutor(new GoCommandExecutor());
-    cmd.setTabCompleter(new GoTabCompleter());
+    cmd.setExecutor(_metrics.timeCommand("go", new GoCommandExecutor()));
+    cmd.setTabCompleter(_metrics.timeCompleter("go", new GoTabCompleter()));
 
     // go-send command
     cmd = getCommand("go-send");
-    cmd.setExecutor(new GoSendCommandExecutor());
-    cmd.setTabCompleter(new GoSendTabCompleter());
+    cmd.setExecutor(_metrics.timeCommand("go-send", new GoSendCommandExecutor()));
+    cmd.setTabCompleter(_metrics.timeCompleter("go-send", new GoSendTabCompleter()));
 
     // go-add command
     cmd = getCommand("go-add");
-    cmd.setExecutor(new GoAddCommandExecutor());
+    cmd.setExecutor(_metrics.timeCommand("go-add", new GoAddCommandExecutor()));
 
     // go-list command
     cmd = getCommand("go-list");
-    cmd.setExecutor(new GoListCommandExecutor());
+    cmd.setExecutor(_metrics.timeCommand("go-list", new GoListCommandExecutor()));
 
     // go-del command
     cmd = getCommand("go-del");
-    cmd.setExecutor(new GoDelCommandExecutor());
-    cmd.setTabCompleter(new GoDelTabCompleter());
+    cmd.setExecutor(_metrics.timeCommand("go-del", new GoDelCommandExecutor()));
+    cmd.setTabCompleter(_metrics.timeCompleter("go-del", new GoDelTabCompleter()));
+
+    // go-near command
+    cmd = getCommand("go-near");
+    cmd.setExecutor(_metrics.timeCommand("go-near", new GoNearCommandExecutor()));
+
+    // go-stats command
+    cmd = getCommand("go-stats");
+    cmd.setExecutor(new GoStatsCommandExecutor());
+
+    // go-admin command
+    cmd = getCommand("go-admin");
+    cmd.setExecutor(new GoAdminCommandExecutor());
+
+    // go-reload command
+    cmd = getCommand("go-reload");
+    cmd.setExecutor(new GoReloadCommandExecutor());
+
+    // go-back command
+    cmd = getCommand("go-back");
+    cmd.setExecutor(_metrics.timeCommand("go-back", new GoBackCommandExecutor()));
+
+    // Expose the metrics through JMX
+    if (getConfig().getBoolean("metrics.jmx"))
+    {
+      registerMetrics();
+    }
 
     // Log message the plugin has been loaded
     getLogger().info("XGo plugin enabled.");
@@ -100,6 +346,139 @@ public final class XGoPlugin extends JavaPlugin
   }
 
 
+  /***
+   * Starts keeping the chunks of the most used and the flagged public
+   * locations loaded.
+   */
+  private void initWarmChunks()
+  {
+    ChunkPreloader preloader = _chunkPreloader;
+    long ticks;
+
+    // Load the warm chunks over ticks even if teleports are not preloaded
+    if (preloader == null)
+    {
+      preloader = new ChunkPreloader(0, getConfig().getInt("teleport.preload-timeout"), getConfig().getInt("teleport.preload-chunks-per-tick"));
+      getServer().getScheduler().runTaskTimer(this, preloader, 1, 1);
+    }
+
+    _warmChunks = new WarmChunkKeeper(new WarmChunkKeeper.Resolver()
+    {
+      @Override
+      public Location resolve(String locationName)
+      {
+        LocationReference location = getPublicLocations().get(locationName);
+
+        return (location == null ? null : _resolvedLocations.resolve(location));
+      }
+    }, preloader, getConfig().getInt("keep-warm.count"), getConfig().getInt("keep-warm.radius"), getConfig().getInt("keep-warm.max-chunks"), getConfig().getDouble("keep-warm.min-teleports"), getConfig().getStringList("keep-warm.locations"));
+
+    addLocationChangeListener(new LocationChangeListener()
+    {
+      @Override
+      public void locationAdded(String playerName, String locationName,
+          LocationReference location)
+      {
+      }
+
+      @Override
+      public void locationRemoved(String playerName, String locationName,
+          LocationReference location)
+      {
+        if (playerName == null)
+          _warmChunks.forget(locationName);
+      }
+    });
+
+    ticks = Math.max(1, getConfig().getLong("keep-warm.interval")) * 20;
+    getServer().getScheduler().runTaskTimer(this, new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        _warmChunks.update();
+      }
+    }, 1, ticks);
+
+    getServer().getPluginManager().registerEvents(new ChunkListener(), this);
+  }
+
+
+  /***
+   * Starts watching the location files and checks once a second whether to
+   * reload them. Only the files backend keeps its locations in files other
+   * programs edit.
+   */
+  private void initFileWatcher()
+  {
+    if (_changeWriter != null)
+    {
+      getLogger().info("Location files are only watched with the files storage backend.");
+      return;
+    }
+
+    try
+    {
+      _fileWatcher = new LocationFileWatcher(getDataFolder(), getLogger());
+    }
+    catch (IOException e)
+    {
+      getLogger().log(Level.WARNING, "Unable to watch the location files.", e);
+      return;
+    }
+    _fileWatcher.start();
+
+    _watchDelayNanos = TimeUnit.SECONDS.toNanos(Math.max(1, getConfig().getLong("reload.watch-delay")));
+    getServer().getScheduler().runTaskTimer(this, new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        checkWatchedFiles();
+      }
+    }, 20, 20);
+  }
+
+
+  /***
+   * Registers the metrics as a JMX MBean.
+   */
+  private void registerMetrics()
+  {
+    try
+    {
+      _metricsName = new ObjectName("com.gizmoplex.xgo:type=Metrics");
+      ManagementFactory.getPlatformMBeanServer().registerMBean(_metrics, _metricsName);
+    }
+    catch (JMException e)
+    {
+      getLogger().log(Level.WARNING, "Unable to register metrics MBean.", e);
+      _metricsName = null;
+    }
+  }
+
+
+  /***
+   * Unregisters the metrics MBean if registered.
+   */
+  private void unregisterMetrics()
+  {
+    if (_metricsName == null)
+      return;
+
+    try
+    {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(_metricsName);
+    }
+    catch (JMException e)
+    {
+      getLogger().log(Level.WARNING, "Unable to unregister metrics MBean.", e);
+    }
+
+    _metricsName = null;
+  }
+
+
   /***
    * Initializes plugin data adapters.
    */
@@ -122,56 +501,82 @@ public final class XGoPlugin extends JavaPlugin
       }
     }
 
-    // Create adapters for plugin data
-    _publicLocationsAdapter = new PluginDataAdapter<HashMap<String, LocationReference>>(getDataFolder() + File.separator + "publicLocations.bin");
-    _privateLocationsAdapter = new PluginDataAdapter<HashMap<String, HashMap<String, LocationReference>>>(getDataFolder() + File.separator + "privateLocations.bin");
+    // Pick the storage backend
+    if (getConfig().getString("storage.backend").equalsIgnoreCase("sqlite"))
+      _storage = new SqliteLocationStorage(getDataFolder(), getLogger(), getConfig().getInt("storage.batch-size"), getConfig().getLong("storage.commit-delay"));
+    else
+      _storage = new FileLocationStorage(getDataFolder(), getLogger());
+    _changeWriter = _storage.getChangeWriter();
+
+    // Create the journal of changes made since the last snapshot
+    _journal = new LocationJournal(getDataFolder(), "locations.journal");
+
+    // Snapshots are written by a single background thread
+    _persistenceExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread thread = new Thread(r, "XGo persistence");
+
+        thread.setDaemon(true);
+
+        return (thread);
+      }
+    });
 
   }
 
 
   /***
-   * Loads the plugin data from binary files. If the files do not exist, new
-   * data objects are created.
+   * Loads the plugin data from the storage. If there is none, new data
+   * objects are created.
    * 
    * @return
    */
   private boolean loadPluginData()
   {
+    Map<String, LocationReference> publicLocations;
+
     // Load public locations
-    if (_publicLocationsAdapter.FileExists())
+    if (!_storage.open())
     {
-      if (_publicLocationsAdapter.LoadObject())
-      {
-        _publicLocations = _publicLocationsAdapter.GetObject();
-      }
-      else
-      {
-        return (false);
-      }
+      return (false);
     }
-    else
+    publicLocations = _storage.loadPublicLocations();
+    if (publicLocations == null)
     {
-      _publicLocations = new HashMap<String, LocationReference>();
-      _publicLocationsAdapter.SetObject(_publicLocations);
+      return (false);
     }
+    _publicLocations = LocationMaps.freeze(publicLocations);
+
+    // Private locations are loaded from the storage on demand
+    _privateLocations = new ConcurrentHashMap<String, Map<String, LocationReference>>();
 
-    // Load private locations
-    if (_privateLocationsAdapter.FileExists())
+    // Replay the changes made after the snapshot, then keep appending
+    try
     {
-      if (_privateLocationsAdapter.LoadObject())
-      {
-        _privateLocations = _privateLocationsAdapter.GetObject();
-      }
-      else
+      JournalReplayer replayer = new JournalReplayer();
+      int count = _journal.replay(replayer);
+      replayer.publish();
+      if (count > 0)
+        getLogger().info("Replayed " + count + " journaled location changes.");
+
+      _journal.open();
+
+      // A storage that saves each change has the replayed ones now, such as
+      // after switching backends, so the journal is not needed anymore
+      if (_changeWriter != null && count > 0)
       {
-        return (false);
+        if (!_storage.flush())
+          return (false);
+        _journal.deleteGenerations(_journal.roll());
       }
-
     }
-    else
+    catch (IOException e)
     {
-      _privateLocations = new HashMap<String, HashMap<String, LocationReference>>();
-      _privateLocationsAdapter.SetObject(_privateLocations);
+      getLogger().log(Level.SEVERE, "Unable to read location journal.", e);
+      return (false);
     }
 
     // Return successfully
@@ -180,20 +585,54 @@ public final class XGoPlugin extends JavaPlugin
 
 
   /***
-   * Saves plugin data to binary files.
+   * Saves plugin data. Waits for a running snapshot to finish, then writes
+   * only the locations that are still dirty, closes the journal and closes
+   * the storage once it has saved every change.
    * 
    * @return If successful, true is returned. Otherwise, false is returned.
    */
   private boolean savePluginData()
   {
     boolean ret = true;
+    SnapshotTask snapshot;
+
+    // Wait for a running snapshot
+    _persistenceExecutor.shutdown();
+    try
+    {
+      if (!_persistenceExecutor.awaitTermination(30, TimeUnit.SECONDS))
+        ret = false;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      ret = false;
+    }
+
+    // Flush what is still dirty on this thread
+    if (ret)
+    {
+      snapshot = createSnapshot();
+      if (snapshot != null)
+      {
+        snapshot.run();
+        ret = snapshot.succeeded();
+      }
+    }
 
-    // Save public locations
-    if (!_publicLocationsAdapter.Save())
+    // Close the journal
+    try
+    {
+      _journal.close();
+    }
+    catch (IOException e)
+    {
+      getLogger().log(Level.SEVERE, "Unable to close location journal.", e);
       ret = false;
+    }
 
-    // Save private locations
-    if (!_privateLocationsAdapter.Save())
+    // Close the storage
+    if (!_storage.close())
       ret = false;
 
     // Return status
@@ -203,152 +642,1858 @@ public final class XGoPlugin extends JavaPlugin
 
 
   /***
-   * Returns the public locations hash map.
+   * Starts writing the dirty locations on the persistence thread, unless a
+   * snapshot is already being written.
+   */
+  private void startSnapshot()
+  {
+    SnapshotTask snapshot;
+
+    // Only one snapshot at a time
+    if (_snapshotPending)
+      return;
+
+    snapshot = createSnapshot();
+    if (snapshot != null)
+    {
+      _snapshotPending = true;
+      _persistenceExecutor.execute(snapshot);
+    }
+  }
+
+
+  /***
+   * Captures the locations changed since the last snapshot and rolls the
+   * journal. Published maps never change, so the writer can read the captured
+   * maps while the main thread keeps publishing new ones.
    * 
-   * @return
+   * @return The snapshot to write, or null if nothing is dirty.
    */
-  public HashMap<String, LocationReference> getPublicLocations()
+  private SnapshotTask createSnapshot()
   {
-    return (_publicLocations);
+    boolean publicDirty;
+    HashMap<String, Map<String, LocationReference>> dirtyPlayerLocations;
+    String playerName;
+    long generation;
+    Iterator<String> i;
+
+    // Collect and clear the dirty flags
+    publicDirty = _publicDirty;
+    _publicDirty = false;
+    dirtyPlayerLocations = new HashMap<String, Map<String, LocationReference>>();
+    i = _dirtyPlayers.iterator();
+    while (i.hasNext())
+    {
+      playerName = i.next();
+      i.remove();
+      dirtyPlayerLocations.put(playerName, getPlayerLocations(playerName));
+    }
+
+    if (!publicDirty && dirtyPlayerLocations.isEmpty())
+      return (null);
+
+    // Start a new journal for the changes made from now on
+    try
+    {
+      generation = _journal.roll();
+    }
+    catch (IOException e)
+    {
+      getLogger().log(Level.SEVERE, "Unable to roll location journal.", e);
+      _publicDirty |= publicDirty;
+      _dirtyPlayers.addAll(dirtyPlayerLocations.keySet());
+      return (null);
+    }
+
+    _snapshotCount++;
+
+    return (new SnapshotTask(generation, publicDirty ? _publicLocations : null, dirtyPlayerLocations));
   }
 
 
   /***
-   * Returns the private locations hash map for the specified player. If one
-   * doesn't exist, a new one is created.
+   * Returns a modifiable copy of the public (playerName is null) or private
+   * locations, to be changed and published with publishLocations(). The
+   * copy shares the segments it does not change with the current map, so
+   * one change does not copy a large map.
    * 
    * @param playerName
-   *          - The name of the player.
+   *          - The owning player, or null for the public locations.
    * @return
    */
-  public HashMap<String, LocationReference> getPlayerLocations(String playerName)
+  private Map<String, LocationReference> copyLocations(String playerName)
   {
-    HashMap<String, LocationReference> locations;
+    return (LocationMaps.copy(playerName == null ? _publicLocations : getPlayerLocations(playerName)));
+  }
 
-    // If player has no locations list yet, create it
-    if (!_privateLocations.containsKey(playerName))
-    {
-      locations = new HashMap<String, LocationReference>();
 
-      _privateLocations.put(playerName, locations);
+  /***
+   * Replaces the public (playerName is null) or private locations with a
+   * changed copy and marks them dirty, unless the storage saves each change
+   * itself. The copy is frozen first, so maps handed out to readers on any
+   * thread, including the snapshot writer, never change.
+   * 
+   * @param playerName
+   *          - The owning player, or null for the public locations.
+   * @param locations
+   *          - The changed copy.
+   */
+  private void publishLocations(String playerName,
+      Map<String, LocationReference> locations)
+  {
+    locations = LocationMaps.freeze(locations);
+
+    if (playerName == null)
+    {
+      _publicLocations = locations;
+      if (_changeWriter == null)
+        _publicDirty = true;
     }
     else
     {
-      locations = _privateLocations.get(playerName);
+      _privateLocations.put(playerName, locations);
+      if (_changeWriter == null)
+        _dirtyPlayers.add(playerName);
     }
-
-    return (locations);
   }
 
 
   /***
-   * Returns the private locations hash map.
+   * Returns the public locations map. The map never changes; every change
+   * replaces it with a new map, so it may be read from any thread. Use
+   * putLocation() and removeLocation() to change locations.
    * 
    * @return
    */
-  public HashMap<String, HashMap<String, LocationReference>> getPrivateLocations()
+  public Map<String, LocationReference> getPublicLocations()
   {
-    return (_privateLocations);
+    return (_publicLocations);
   }
 
 
   /***
-   * Handles the go command
-   * 
-   * @author 
+   * Returns the private locations map for the specified player, loading
+   * it if it is not resident. Players without locations get an empty map,
+   * which is never saved. Like the public locations, the map never changes.
+   * Only the main thread keeps loaded maps resident; other threads get the
+   * resident map or a map loaded just for them.
    * 
+   * @param playerName
+   *          - The name of the player.
+   * @return
    */
-  private class GoCommandExecutor implements CommandExecutor
+  public Map<String, LocationReference> getPlayerLocations(String playerName)
   {
+    Map<String, LocationReference> locations;
+    PrefetchedLocations prefetched;
 
+    // If resident, mark it as recently used
+    locations = _privateLocations.get(playerName);
+    if (locations != null)
+    {
+      if (getServer().isPrimaryThread())
+        _offlinePlayers.get(playerName);
+      return (locations);
+    }
 
-    /***
-     * Handles the "go" command.
-     */
-    @Override
-    public boolean onCommand(CommandSender sender, Command cmd, String label,
-        String[] args)
+    // Other threads read the stored locations without changing the model
+    if (!getServer().isPrimaryThread())
     {
-      Player player;
-      Player destPlayer;
-      String locationName;
-      Location location;
-      HashMap<String, LocationReference> locations;
+      locations = _storage.load(playerName);
+      return (LocationMaps.freeze(locations != null ? locations : LocationMaps.create(0)));
+    }
 
-      if (sender instanceof Player)
-      {
-        player = (Player) sender;
+    // Use the locations prefetched at login if they were not saved since
+    prefetched = _prefetchedLocations.remove(playerName);
+    if (prefetched != null && prefetched.writeCount == _storage.getWriteCount(playerName))
+      locations = prefetched.locations;
 
-        // Must be exactly 1 argument
-        if (args.length != 1)
-        {
-          player.sendMessage("Invalid number of arguments.");
-          return (false);
-        }
+    // Otherwise, load them now
+    if (locations == null)
+      locations = _storage.load(playerName);
+    if (locations == null)
+      locations = LocationMaps.create(0);
 
-        // Get the location name
-        locationName = args[0];
+    locations = LocationMaps.freeze(locations);
+    _privateLocations.put(playerName, locations);
 
-        // If location is another player (starts with "@")
-        if (locationName.startsWith("@"))
-        {
-          // Player must have permission teleport to other players
-          if (!player.hasPermission("XGoPlugin.go-player"))
-          {
-            player.sendMessage("You do not have permission to teleport to other players.");
-            return (true);
-          }
+    // Locations of offline players are only kept while recently used
+    if (_onlinePlayers.getPlayerExact(playerName) == null)
+      _offlinePlayers.put(playerName, Boolean.TRUE);
 
-          // Get the destination player
-          destPlayer = getServer().getPlayer(locationName.substring(1));
+    return (locations);
+  }
 
-          // If player not found
-          if (destPlayer == null)
-          {
-            player.sendMessage("Destination player not found.");
-            return (true);
-          }
 
-          // Teleport the player to the destination player
-          player.teleport(destPlayer);
+  /***
+   * Returns a read-only view of the private locations of the players
+   * currently resident, which are the online players and recently used
+   * offline players. The view may be read from any thread.
+   * 
+   * @return
+   */
+  public Map<String, Map<String, LocationReference>> getPrivateLocations()
+  {
+    return (Collections.unmodifiableMap(_privateLocations));
+  }
 
-        }
-        else
-        {
 
-          // If public location (starts with "#")
-          if (locationName.startsWith("#"))
+  /***
+   * Drops the least recently used offline players' locations until no more
+   * than the configured number remain. Dirty locations are saved first, so
+   * eviction stops and a snapshot is started when one is reached.
+   */
+  private void evictColdPlayers()
+  {
+    Iterator<String> i;
+    String playerName;
+
+    i = _offlinePlayers.keySet().iterator();
+    while (_offlinePlayers.size() > _offlinePlayerCapacity && i.hasNext())
+    {
+      playerName = i.next();
+
+      // Must be written back before it can be dropped
+      if (_snapshotPending || _dirtyPlayers.contains(playerName))
+      {
+        startSnapshot();
+        return;
+      }
+
+      i.remove();
+      _privateLocations.remove(playerName);
+      _privateNameIndexes.remove(playerName);
+      _privateFuzzyIndexes.remove(playerName);
+      _privateSpatialIndexes.remove(playerName);
+    }
+  }
+
+
+  /***
+   * Starts reloading the public and resident private locations from the
+   * storage, such as after another program changed it. The locations are
+   * loaded and compared on a background thread; only the swap of the changed
+   * maps happens on the main thread.
+   * 
+   * @param sender
+   *          - Who to report the result to, or null to only log it.
+   * @param attempt
+   *          - The number of earlier attempts interrupted by a save.
+   * @return False if a reload is already running or locations are being
+   *         saved, otherwise true.
+   */
+  private boolean startReload(CommandSender sender, int attempt)
+  {
+    HashMap<String, Map<String, LocationReference>> live;
+
+    if (_reloadRunning || _snapshotPending)
+      return (false);
+
+    // Published maps never change, so the reload can compare against them
+    live = new HashMap<String, Map<String, LocationReference>>(_privateLocations);
+    live.put(null, _publicLocations);
+
+    _reloadRunning = true;
+    getServer().getScheduler().runTaskAsynchronously(this, new ReloadTask(sender, attempt, _snapshotCount, live));
+
+    return (true);
+  }
+
+
+  /***
+   * Replaces the public (playerName is null) or private locations with
+   * reloaded ones, without marking them dirty as the storage holds them
+   * already. Listeners are notified of each difference, except the one
+   * saving changes, so indexes and caches only drop what changed.
+   * 
+   * @param playerName
+   *          - The owning player, or null for the public locations.
+   * @param diff
+   *          - The difference between the current and reloaded locations.
+   */
+  private void replaceLocations(String playerName, LocationDiff diff)
+  {
+    LocationChangeListener listener;
+
+    if (playerName == null)
+      _publicLocations = LocationMaps.freeze(diff.getNewLocations());
+    else
+      _privateLocations.put(playerName, LocationMaps.freeze(diff.getNewLocations()));
+
+    for (int i = 0; i < _locationChangeListeners.size(); i++)
+    {
+      listener = _locationChangeListeners.get(i);
+      if (listener == _persistenceListener)
+        continue;
+
+      for (Map.Entry<String, LocationReference> entry : diff.getRemoved().entrySet())
+      {
+        listener.locationRemoved(playerName, entry.getKey(), entry.getValue());
+      }
+      for (Map.Entry<String, LocationReference> entry : diff.getAdded().entrySet())
+      {
+        listener.locationAdded(playerName, entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+
+  /***
+   * Reloads the locations when the watched files changed and then stayed
+   * unchanged for the configured delay. Changes made by the plugin's own
+   * saves, which happen while a snapshot is written or just after, are
+   * ignored.
+   */
+  private void checkWatchedFiles()
+  {
+    long changed = _fileWatcher.getChangeTime();
+
+    if (changed == 0 || changed == _handledChangeTime || System.nanoTime() - changed < _watchDelayNanos || _snapshotPending)
+      return;
+
+    if (_lastSnapshotEnd != 0 && changed - _lastSnapshotEnd < _watchDelayNanos)
+    {
+      _handledChangeTime = changed;
+      return;
+    }
+
+    getLogger().info("Location files changed, reloading them.");
+    if (startReload(null, 0))
+      _handledChangeTime = changed;
+  }
+
+
+  /***
+   * Registers a listener to be notified when locations are added or removed.
+   *
+   * @param listener
+   *          - The listener to register.
+   */
+  public void addLocationChangeListener(LocationChangeListener listener)
+  {
+    _locationChangeListeners.add(listener);
+  }
+
+
+  /***
+   * Adds a location and notifies the location change listeners. Locations
+   * whose name starts with "#" are public, all others belong to the player.
+   *
+   * @param playerName
+   *          - The name of the player adding the location.
+   * @param locationName
+   *          - The name of the location.
+   * @param location
+   *          - The location to add.
+   */
+  public void putLocation(String playerName, String locationName,
+      LocationReference location)
+  {
+    String owner;
+    Map<String, LocationReference> locations;
+    LocationReference replaced;
+
+    // Add the location
+    owner = locationName.startsWith("#") ? null : playerName;
+    locations = copyLocations(owner);
+    replaced = locations.put(locationName, location);
+    publishLocations(owner, locations);
+
+    // Notify listeners, reporting a replaced location as removed first
+    for (int i = 0; i < _locationChangeListeners.size(); i++)
+    {
+      if (replaced != null)
+        _locationChangeListeners.get(i).locationRemoved(owner, locationName, replaced);
+      _locationChangeListeners.get(i).locationAdded(owner, locationName, location);
+    }
+  }
+
+
+  /***
+   * Adds many locations of the same owner at once and notifies the location
+   * change listeners. The owner's map is copied and published only once.
+   *
+   * @param playerName
+   *          - The owning player, or null for public locations.
+   * @param added
+   *          - The locations to add, by name.
+   */
+  private void putLocations(String playerName,
+      Map<String, LocationReference> added)
+  {
+    Map<String, LocationReference> locations;
+    HashMap<String, LocationReference> replaced;
+    LocationReference location;
+
+    // Add the locations
+    locations = copyLocations(playerName);
+    replaced = new HashMap<String, LocationReference>();
+    for (Map.Entry<String, LocationReference> entry : added.entrySet())
+    {
+      location = locations.put(entry.getKey(), entry.getValue());
+      if (location != null)
+        replaced.put(entry.getKey(), location);
+    }
+    publishLocations(playerName, locations);
+
+    // Notify listeners, reporting replaced locations as removed first
+    for (int i = 0; i < _locationChangeListeners.size(); i++)
+    {
+      for (Map.Entry<String, LocationReference> entry : added.entrySet())
+      {
+        location = replaced.get(entry.getKey());
+        if (location != null)
+          _locationChangeListeners.get(i).locationRemoved(playerName, entry.getKey(), location);
+        _locationChangeListeners.get(i).locationAdded(playerName, entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+
+  /***
+   * Removes a location and notifies the location change listeners. Locations
+   * whose name starts with "#" are public, all others belong to the player.
+   *
+   * @param playerName
+   *          - The name of the player removing the location.
+   * @param locationName
+   *          - The name of the location.
+   * @return The removed location, or null if it did not exist.
+   */
+  public LocationReference removeLocation(String playerName,
+      String locationName)
+  {
+    String owner;
+    Map<String, LocationReference> locations;
+    LocationReference location;
+
+    // If nothing to remove, nothing to notify
+    owner = locationName.startsWith("#") ? null : playerName;
+    if (!(owner == null ? _publicLocations : getPlayerLocations(owner)).containsKey(locationName))
+      return (null);
+
+    // Remove the location
+    locations = copyLocations(owner);
+    location = locations.remove(locationName);
+    publishLocations(owner, locations);
+
+    // Notify listeners
+    for (int i = 0; i < _locationChangeListeners.size(); i++)
+    {
+      _locationChangeListeners.get(i).locationRemoved(owner, locationName, location);
+    }
+
+    return (location);
+  }
+
+
+  /***
+   * Returns the name index of the player's private locations, building it on
+   * first use.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return
+   */
+  private LocationNameIndex getPlayerNameIndex(String playerName)
+  {
+    LocationNameIndex index;
+
+    index = _privateNameIndexes.get(playerName);
+    if (index == null)
+    {
+      index = new LocationNameIndex(getPlayerLocations(playerName).keySet());
+
+      // Only the main thread keeps indexes in sync with changes
+      if (getServer().isPrimaryThread())
+        _privateNameIndexes.put(playerName, index);
+    }
+
+    return (index);
+  }
+
+
+  /***
+   * Returns the fuzzy name index of the player's private locations, building
+   * it on first use.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return
+   */
+  private FuzzyNameIndex getPlayerFuzzyIndex(String playerName)
+  {
+    FuzzyNameIndex index;
+
+    index = _privateFuzzyIndexes.get(playerName);
+    if (index == null)
+    {
+      index = new FuzzyNameIndex(getPlayerLocations(playerName).keySet());
+
+      // Only the main thread keeps indexes in sync with changes
+      if (getServer().isPrimaryThread())
+        _privateFuzzyIndexes.put(playerName, index);
+    }
+
+    return (index);
+  }
+
+
+  /***
+   * Returns the name of the location the player meant. If the typed name does
+   * not exist, the player is told the closest names they may use. If auto
+   * teleport is enabled and allowed, and a single name is close enough, that
+   * name is returned instead.
+   *
+   * @param player
+   *          - The player who typed the name.
+   * @param locationName
+   *          - The name typed by the player.
+   * @param publicPermission
+   *          - The permission needed to suggest public locations.
+   * @param autoCorrect
+   *          - True if a close enough name may be used in place of the typed
+   *          one.
+   * @return The name of an existing location, or null if there is none.
+   */
+  private String findLocationName(Player player, String locationName,
+      XGoPermission publicPermission, boolean autoCorrect)
+  {
+    Map<String, LocationReference> locations;
+    List<FuzzyNameIndex.Suggestion> suggestions;
+    int maxDistance;
+    StringBuilder message;
+
+    // If the location exists, nothing to do
+    locations = locationName.startsWith("#") ? getPublicLocations() : getPlayerLocations(player.getName());
+    if (locations.containsKey(locationName))
+      return (locationName);
+
+    // Short names only allow a single typo
+    maxDistance = Math.min(_suggestMaxDistance, Math.max(1, locationName.length() / 3));
+    suggestions = getPlayerFuzzyIndex(player.getName()).closest(locationName, maxDistance, _suggestCount);
+    if (_permissions.has(player, publicPermission))
+      suggestions = FuzzyNameIndex.merge(suggestions, _publicFuzzyIndex.closest(locationName, maxDistance, _suggestCount), _suggestCount);
+
+    // Use the only close enough name
+    if (autoCorrect && !suggestions.isEmpty()
+        && suggestions.get(0).distance <= _autoCorrectDistance
+        && (suggestions.size() == 1 || suggestions.get(1).distance > suggestions.get(0).distance))
+    {
+      player.sendMessage("Location \"" + locationName + "\" does not exist, using \"" + suggestions.get(0).name + "\".");
+      return (suggestions.get(0).name);
+    }
+
+    message = new StringBuilder("Location does not exist.");
+    for (int i = 0; i < suggestions.size(); i++)
+    {
+      message.append(i == 0 ? " Did you mean " : ", ");
+      message.append(suggestions.get(i).name);
+    }
+    if (!suggestions.isEmpty())
+      message.append("?");
+
+    player.sendMessage(message.toString());
+
+    return (null);
+  }
+
+
+  /***
+   * Returns the spatial index of the player's private locations, building it
+   * on first use.
+   *
+   * @param playerName
+   *          - The name of the player.
+   * @return
+   */
+  private LocationSpatialIndex getPlayerSpatialIndex(String playerName)
+  {
+    LocationSpatialIndex index;
+
+    index = _privateSpatialIndexes.get(playerName);
+    if (index == null)
+    {
+      index = new LocationSpatialIndex(_spatialCellSize, getPlayerLocations(playerName));
+
+      // Only the main thread keeps indexes in sync with changes
+      if (getServer().isPrimaryThread())
+        _privateSpatialIndexes.put(playerName, index);
+    }
+
+    return (index);
+  }
+
+
+  /***
+   * Returns the names of the locations nearest to a location, nearest first.
+   * The player's private locations are searched, as well as the public
+   * locations if requested.
+   * 
+   * @param playerName
+   *          - The name of the player whose private locations are searched.
+   * @param location
+   *          - The location to search around.
+   * @param count
+   *          - The maximum number of names to return.
+   * @param includePublic
+   *          - True to include the public locations.
+   * @return
+   */
+  public List<String> getNearestLocations(String playerName, Location location,
+      int count, boolean includePublic)
+  {
+    List<LocationSpatialIndex.Match> matches;
+    List<String> names;
+
+    matches = findNearestLocations(playerName, location, count, includePublic);
+    names = new ArrayList<String>(matches.size());
+    for (int i = 0; i < matches.size(); i++)
+    {
+      names.add(matches.get(i).name);
+    }
+
+    return (names);
+  }
+
+
+  /***
+   * Returns the locations nearest to a location with their distances,
+   * nearest first.
+   */
+  private List<LocationSpatialIndex.Match> findNearestLocations(
+      String playerName, Location location, int count, boolean includePublic)
+  {
+    List<LocationSpatialIndex.Match> matches;
+    List<LocationSpatialIndex.Match> publicMatches;
+    List<LocationSpatialIndex.Match> merged;
+    String worldName = location.getWorld().getName();
+    int i = 0;
+    int j = 0;
+
+    matches = getPlayerSpatialIndex(playerName).nearest(worldName, location.getX(), location.getY(), location.getZ(), count);
+    if (!includePublic)
+      return (matches);
+
+    publicMatches = _publicSpatialIndex.nearest(worldName, location.getX(), location.getY(), location.getZ(), count);
+
+    // Merge both lists, nearest first
+    merged = new ArrayList<LocationSpatialIndex.Match>(count);
+    while (merged.size() < count && (i < matches.size() || j < publicMatches.size()))
+    {
+      if (j >= publicMatches.size() || (i < matches.size() && matches.get(i).distanceSquared <= publicMatches.get(j).distanceSquared))
+        merged.add(matches.get(i++));
+      else
+        merged.add(publicMatches.get(j++));
+    }
+
+    return (merged);
+  }
+
+
+  /***
+   * Creates the teleport history, restoring the positions saved on the last
+   * shutdown.
+   */
+  private void initHistory()
+  {
+    File file = new File(getDataFolder(), "history.dat");
+
+    _history = new TeleportHistory(getConfig().getInt("history.size"), getConfig().getInt("history.max-players"));
+
+    if (getConfig().getBoolean("history.persist-last") && file.exists())
+    {
+      try
+      {
+        _history.loadLast(file);
+      }
+      catch (IOException e)
+      {
+        getLogger().log(Level.WARNING, "Unable to load teleport history.", e);
+      }
+    }
+  }
+
+
+  /***
+   * Teleports a player to a location. The teleport goes through the teleport
+   * queue, which preloads the destination chunks if enabled.
+   * 
+   * @param sender
+   *          - The command sender to report progress to.
+   * @param player
+   *          - The player to teleport.
+   * @param location
+   *          - The destination.
+   */
+  private void teleport(CommandSender sender, Player player, Location location)
+  {
+    _teleportQueue.submit(sender, player, location);
+  }
+
+
+  /***
+   * Teleports a player to another player through the teleport queue.
+   * 
+   * @param sender
+   *          - The command sender to report progress to.
+   * @param player
+   *          - The player to teleport.
+   * @param destPlayer
+   *          - The player to teleport to.
+   */
+  private void teleport(CommandSender sender, Player player, Player destPlayer)
+  {
+    _teleportQueue.submit(sender, player, destPlayer);
+  }
+
+
+  /***
+   * Adds the public and private location names starting with the prefix to
+   * the list. Results are memoized per player and reused while the player
+   * keeps typing, until a location is added or deleted.
+   *
+   * @param player
+   *          - The player requesting completion.
+   * @param scope
+   *          - The command being completed.
+   * @param publicPermission
+   *          - The permission needed to include public locations.
+   * @param prefix
+   *          - The prefix typed by the player.
+   * @param names
+   *          - The list to add the matching names to.
+   */
+  private void completeLocationNames(Player player, String scope,
+      XGoPermission publicPermission, String prefix, List<String> names)
+  {
+    String playerName = player.getName();
+    LocationNameIndex privateIndex;
+    CompletionCache cache;
+    List<String> candidates;
+    long publicVersion;
+
+    // Get the version stamps of the indexes involved
+    publicVersion = _permissions.has(player, publicPermission) ? _publicNameIndex.getVersion() : -1;
+    privateIndex = getPlayerNameIndex(playerName);
+
+    // Get the player's cache
+    cache = _completionCaches.get(playerName);
+    if (cache == null)
+    {
+      cache = new CompletionCache();
+      _completionCaches.put(playerName, cache);
+    }
+
+    // If the cache can't answer, query the indexes
+    candidates = cache.lookup(scope, prefix, publicVersion, privateIndex.getVersion());
+    if (candidates == null)
+    {
+      candidates = new ArrayList<String>();
+      if (publicVersion != -1)
+        _publicNameIndex.prefixMatches(prefix, candidates);
+      privateIndex.prefixMatches(prefix, candidates);
+
+      cache.store(scope, prefix, publicVersion, privateIndex.getVersion(), candidates);
+    }
+
+    names.addAll(candidates);
+  }
+
+
+  /***
+   * Adds the names of the other online players starting with the prefix to
+   * the list.
+   *
+   * @param player
+   *          - The player requesting completion.
+   * @param atForm
+   *          - True to complete "@" prefixed names.
+   * @param prefix
+   *          - The prefix typed by the player.
+   * @param names
+   *          - The list to add the matching names to.
+   */
+  private void completePlayerNames(Player player, boolean atForm,
+      String prefix, List<String> names)
+  {
+    _onlinePlayers.prefixMatches(prefix, atForm, player.getName(), names);
+  }
+
+
+  /***
+   * Keeps the location name indexes in sync with added and removed locations.
+   *
+   * @author
+   *
+   */
+  private class NameIndexUpdater implements LocationChangeListener
+  {
+
+
+    @Override
+    public void locationAdded(String playerName, String locationName,
+        LocationReference location)
+    {
+      FuzzyNameIndex fuzzyIndex;
+
+      if (playerName == null)
+      {
+        _publicNameIndex.add(locationName);
+        _publicFuzzyIndex.add(locationName);
+      }
+      else
+      {
+        getPlayerNameIndex(playerName).add(locationName);
+
+        // Fuzzy indexes not built yet are built on first use
+        fuzzyIndex = _privateFuzzyIndexes.get(playerName);
+        if (fuzzyIndex != null)
+          fuzzyIndex.add(locationName);
+      }
+    }
+
+
+    @Override
+    public void locationRemoved(String playerName, String locationName,
+        LocationReference location)
+    {
+      FuzzyNameIndex fuzzyIndex;
+
+      if (playerName == null)
+      {
+        _publicNameIndex.remove(locationName);
+        _publicFuzzyIndex.remove(locationName);
+      }
+      else
+      {
+        getPlayerNameIndex(playerName).remove(locationName);
+
+        fuzzyIndex = _privateFuzzyIndexes.get(playerName);
+        if (fuzzyIndex != null)
+          fuzzyIndex.remove(locationName);
+      }
+    }
+
+  }
+
+
+  /***
+   * Keeps the spatial indexes in sync with the locations. Private indexes
+   * not built yet are built from the locations on first use.
+   * 
+   * @author 
+   * 
+   */
+  private class SpatialIndexUpdater implements LocationChangeListener
+  {
+
+
+    @Override
+    public void locationAdded(String playerName, String locationName,
+        LocationReference location)
+    {
+      LocationSpatialIndex index;
+
+      index = playerName == null ? _publicSpatialIndex : _privateSpatialIndexes.get(playerName);
+      if (index != null)
+        index.add(locationName, location);
+    }
+
+
+    @Override
+    public void locationRemoved(String playerName, String locationName,
+        LocationReference location)
+    {
+      LocationSpatialIndex index;
+
+      index = playerName == null ? _publicSpatialIndex : _privateSpatialIndexes.get(playerName);
+      if (index != null)
+        index.remove(locationName, location);
+    }
+
+  }
+
+
+  /***
+   * Applies replayed journal records to copies of the loaded locations, which
+   * are published once the replay is done.
+   * 
+   * @author 
+   * 
+   */
+  private class JournalReplayer implements LocationChangeListener
+  {
+
+
+    private final HashMap<String, Map<String, LocationReference>> _copies = new HashMap<String, Map<String, LocationReference>>();
+
+
+    @Override
+    public void locationAdded(String playerName, String locationName,
+        LocationReference location)
+    {
+      getCopy(playerName).put(locationName, location);
+      if (_changeWriter != null)
+        _changeWriter.locationAdded(playerName, locationName, location);
+    }
+
+
+    @Override
+    public void locationRemoved(String playerName, String locationName,
+        LocationReference location)
+    {
+      getCopy(playerName).remove(locationName);
+      if (_changeWriter != null)
+        _changeWriter.locationRemoved(playerName, locationName, location);
+    }
+
+
+    /***
+     * Publishes the changed locations.
+     */
+    void publish()
+    {
+      for (Map.Entry<String, Map<String, LocationReference>> entry : _copies.entrySet())
+      {
+        publishLocations(entry.getKey(), entry.getValue());
+      }
+      _copies.clear();
+    }
+
+
+    /***
+     * Returns the copy of an owner's locations, making it on first use.
+     */
+    private Map<String, LocationReference> getCopy(String playerName)
+    {
+      Map<String, LocationReference> locations;
+
+      locations = _copies.get(playerName);
+      if (locations == null)
+      {
+        locations = copyLocations(playerName);
+        _copies.put(playerName, locations);
+      }
+
+      return (locations);
+    }
+
+  }
+
+
+  /***
+   * Appends location changes to the journal and starts a snapshot when it
+   * grows past the configured threshold.
+   * 
+   * @author 
+   * 
+   */
+  private class JournalWriter implements LocationChangeListener
+  {
+
+
+    @Override
+    public void locationAdded(String playerName, String locationName,
+        LocationReference location)
+    {
+      try
+      {
+        _journal.appendAdd(playerName, locationName, location);
+      }
+      catch (IOException e)
+      {
+        getLogger().log(Level.SEVERE, "Unable to journal added location.", e);
+      }
+
+      if (_journal.size() > _journalCompactThreshold)
+        startSnapshot();
+    }
+
+
+    @Override
+    public void locationRemoved(String playerName, String locationName,
+        LocationReference location)
+    {
+      try
+      {
+        _journal.appendRemove(playerName, locationName);
+      }
+      catch (IOException e)
+      {
+        getLogger().log(Level.SEVERE, "Unable to journal removed location.", e);
+      }
+
+      if (_journal.size() > _journalCompactThreshold)
+        startSnapshot();
+    }
+
+  }
+
+
+  /***
+   * Writes the dirty location maps on the persistence thread.
+   * 
+   * @author 
+   * 
+   */
+  private class SnapshotTask implements Runnable
+  {
+
+
+    private final long _generation;
+    private final Map<String, LocationReference> _publicSnapshot;
+    private final HashMap<String, Map<String, LocationReference>> _playerSnapshots;
+    private volatile boolean _succeeded;
+
+
+    /***
+     * Creates a snapshot task. The public map is passed as null when it is not
+     * dirty, and only the dirty players' maps are passed.
+     */
+    SnapshotTask(long generation,
+        Map<String, LocationReference> publicSnapshot,
+        HashMap<String, Map<String, LocationReference>> playerSnapshots)
+    {
+      _generation = generation;
+      _publicSnapshot = publicSnapshot;
+      _playerSnapshots = playerSnapshots;
+    }
+
+
+    /***
+     * Returns whether the snapshot was written.
+     * 
+     * @return
+     */
+    boolean succeeded()
+    {
+      return (_succeeded);
+    }
+
+
+    @Override
+    public void run()
+    {
+      boolean saved = true;
+      long start = System.nanoTime();
+      long bytes = _storage.getBytesWritten();
+
+      try
+      {
+        // Save the public locations if dirty
+        if (_publicSnapshot != null && !_storage.savePublicLocations(_publicSnapshot))
+        {
+          _publicDirty = true;
+          saved = false;
+        }
+
+        // Save the locations of each dirty player
+        for (Map.Entry<String, Map<String, LocationReference>> entry : _playerSnapshots.entrySet())
+        {
+          if (!_storage.save(entry.getKey(), entry.getValue()))
+          {
+            _dirtyPlayers.add(entry.getKey());
+            saved = false;
+          }
+        }
+
+        // Save the index of new or deleted player files once per snapshot
+        if (!_storage.flush())
+          saved = false;
+
+        // Drop the journals now contained in the snapshots, or keep them and
+        // retry with the next snapshot
+        if (saved)
+        {
+          _journal.deleteGenerations(_generation);
+          _succeeded = true;
+        }
+        else
+        {
+          getLogger().severe("Unable to save location snapshot.");
+        }
+      }
+      finally
+      {
+        _metrics.record("persistence.snapshot", start);
+        _metrics.add("persistence.bytes-written", _storage.getBytesWritten() - bytes);
+        _lastSnapshotEnd = System.nanoTime();
+        _snapshotPending = false;
+      }
+    }
+
+  }
+
+
+  /***
+   * Drops the resolved locations of removed location references.
+   * 
+   * @author 
+   * 
+   */
+  private class ResolvedLocationInvalidator implements LocationChangeListener
+  {
+
+
+    @Override
+    public void locationAdded(String playerName, String locationName,
+        LocationReference location)
+    {
+    }
+
+
+    @Override
+    public void locationRemoved(String playerName, String locationName,
+        LocationReference location)
+    {
+      _resolvedLocations.invalidate(location);
+    }
+
+  }
+
+
+  /***
+   * Handles world events.
+   * 
+   * @author 
+   * 
+   */
+  private class WorldListener implements Listener
+  {
+
+
+    /***
+     * Drops resolved locations of a world that was loaded again.
+     */
+    @EventHandler
+    public void onWorldLoad(WorldLoadEvent event)
+    {
+      _resolvedLocations.invalidateWorld(event.getWorld().getName());
+    }
+
+
+    /***
+     * Drops resolved locations of a world being unloaded.
+     */
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event)
+    {
+      _resolvedLocations.invalidateWorld(event.getWorld().getName());
+    }
+
+  }
+
+
+  /***
+   * Handles chunk events.
+   * 
+   * @author 
+   * 
+   */
+  private class ChunkListener implements Listener
+  {
+
+
+    /***
+     * Keeps the chunks of warm public locations from being unloaded.
+     */
+    @EventHandler(ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event)
+    {
+      Chunk chunk = event.getChunk();
+
+      if (_warmChunks.isKept(chunk.getWorld(), chunk.getX(), chunk.getZ()))
+        event.setCancelled(true);
+    }
+
+  }
+
+
+  /***
+   * Private locations loaded ahead of a player's join.
+   * 
+   * @author 
+   * 
+   */
+  private static class PrefetchedLocations
+  {
+    Map<String, LocationReference> locations;
+    long writeCount;
+    long time;
+  }
+
+
+  /***
+   * Handles player events.
+   *
+   * @author
+   *
+   */
+  private class PlayerListener implements Listener
+  {
+
+
+    /***
+     * Loads the locations of a player logging in on the login thread, so
+     * joining does not have to wait for the file.
+     */
+    @EventHandler
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event)
+    {
+      PrefetchedLocations prefetched;
+      long now = System.currentTimeMillis();
+      Iterator<PrefetchedLocations> i;
+
+      if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED)
+        return;
+
+      // Drop prefetches of logins that never completed
+      i = _prefetchedLocations.values().iterator();
+      while (i.hasNext())
+      {
+        if (now - i.next().time > 60000)
+          i.remove();
+      }
+
+      prefetched = new PrefetchedLocations();
+      prefetched.writeCount = _storage.getWriteCount(event.getName());
+      prefetched.locations = _storage.load(event.getName());
+      prefetched.time = now;
+
+      if (prefetched.locations != null)
+        _prefetchedLocations.put(event.getName(), prefetched);
+    }
+
+
+    /***
+     * Indexes a joining player, resolves the player's permissions and makes
+     * the player's locations resident.
+     */
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event)
+    {
+      String playerName = event.getPlayer().getName();
+
+      _onlinePlayers.add(event.getPlayer());
+      _permissions.load(event.getPlayer());
+      _offlinePlayers.remove(playerName);
+      getPlayerLocations(playerName);
+    }
+
+
+    /***
+     * Drops a player leaving the server from the index, the permission cache
+     * and the completion state, and keeps the player's locations only while recently used.
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event)
+    {
+      String playerName = event.getPlayer().getName();
+
+      _onlinePlayers.remove(event.getPlayer());
+      _permissions.invalidate(playerName);
+      _completionCaches.remove(playerName);
+      _listPageCaches.remove(playerName);
+      _privateNameIndexes.remove(playerName);
+      _privateFuzzyIndexes.remove(playerName);
+      _privateSpatialIndexes.remove(playerName);
+
+      if (_privateLocations.containsKey(playerName))
+      {
+        _offlinePlayers.put(playerName, Boolean.TRUE);
+        evictColdPlayers();
+      }
+    }
+
+
+    /***
+     * Resolves the permissions of a player changing world again, as
+     * permission plugins may grant different permissions per world.
+     */
+    @EventHandler
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event)
+    {
+      _permissions.load(event.getPlayer());
+    }
+
+  }
+
+
+  /***
+   * Handles the go command
+   * 
+   * @author 
+   * 
+   */
+  private class GoCommandExecutor implements CommandExecutor
+  {
+
+
+    /***
+     * Handles the "go" command.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label,
+        String[] args)
+    {
+      Player player;
+      Player destPlayer;
+      String locationName;
+      Location location;
+      LocationReference locationReference;
+      Map<String, LocationReference> locations;
+
+      if (sender instanceof Player)
+      {
+        player = (Player) sender;
+
+        // Must be exactly 1 argument
+        if (args.length != 1)
+        {
+          player.sendMessage("Invalid number of arguments.");
+          return (false);
+        }
+
+        // Get the location name
+        locationName = args[0];
+
+        // If location is another player (starts with "@")
+        if (locationName.startsWith("@"))
+        {
+          // Player must have permission teleport to other players
+          if (!_permissions.has(player, XGoPermission.GO_PLAYER))
+          {
+            player.sendMessage("You do not have permission to teleport to other players.");
+            return (true);
+          }
+
+          // Get the destination player
+          destPlayer = _onlinePlayers.getPlayer(locationName.substring(1));
+
+          // If player not found
+          if (destPlayer == null)
+          {
+            player.sendMessage("Destination player not found.");
+            return (true);
+          }
+
+          // Teleport the player to the destination player
+          teleport(player, player, destPlayer);
+
+        }
+        else
+        {
+
+          // If public location (starts with "#")
+          if (locationName.startsWith("#"))
+          {
+            // Player must have permission to use public locations
+            if (!_permissions.has(player, XGoPermission.GO_PUBLIC))
+            {
+              player.sendMessage("You do not have permission to use public locations.");
+              return (true);
+            }
+          }
+
+          // If location does not exist, suggest similar names
+          locationName = findLocationName(player, locationName, XGoPermission.GO_PUBLIC, true);
+          if (locationName == null)
+            return (true);
+
+          // The name used may be in the other scope
+          locations = locationName.startsWith("#") ? getPublicLocations() : getPlayerLocations(player.getName());
+          locationReference = locations.get(locationName);
+
+          // Retrieve the location
+          location = _resolvedLocations.resolve(locationReference);
+          if (location == null)
+          {
+            player.sendMessage("Location's world is not loaded.");
+            return (true);
+          }
+
+          // Count teleports to public locations
+          if (_warmChunks != null && locationName.startsWith("#"))
+            _warmChunks.recordTeleport(locationName);
+
+          // Teleport to the location
+          teleport(player, player, location);
+
+        }
+
+      }
+      else
+      {
+        sender.sendMessage("This command can only be executed by a player.");
+        return (true);
+      }
+
+      return (true);
+    }
+
+  }
+
+
+  /***
+   * Handles the go-send command
+   * 
+   * @author 
+   * 
+   */
+  private class GoSendCommandExecutor implements CommandExecutor
+  {
+
+
+    /***
+     * Handles the "go-send" command.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label,
+        String[] args)
+    {
+      Player player;
+      LinkedHashSet<Player> srcPlayers;
+      ArrayList<String> notFound;
+      boolean batch;
+      Player destPlayer;
+      String locationName;
+      Location location;
+      LocationReference locationReference;
+      Map<String, LocationReference> locations;
+
+      if (sender instanceof Player)
+      {
+        player = (Player) sender;
+
+        // Must be at least 2 arguments
+        if (args.length < 2)
+        {
+          player.sendMessage("Invalid number of arguments.");
+          return (false);
+        }
+
+        // Sending several players at once needs permission
+        batch = args.length > 2 || args[0].startsWith("*");
+        if (args.length > 2 && !_permissions.has(player, XGoPermission.GO_SEND_MULTIPLE))
+        {
+          player.sendMessage("You do not have permission to send several players at once.");
+          return (true);
+        }
+
+        // Get the source players
+        srcPlayers = new LinkedHashSet<Player>();
+        notFound = new ArrayList<String>();
+        for (int j = 0; j < args.length - 1; j++)
+        {
+          if (!selectPlayers(player, args[j], srcPlayers, notFound))
+            return (true);
+        }
+
+        // If a single source player not found, error
+        if (!batch && !notFound.isEmpty())
+        {
+          player.sendMessage("Player \"" + notFound.get(0) + "\" not found.");
+          return (true);
+        }
+
+        // Report unknown players, but send the others
+        if (!notFound.isEmpty())
+        {
+          player.sendMessage("Players not found: " + join(notFound) + ".");
+        }
+
+        if (srcPlayers.isEmpty())
+        {
+          player.sendMessage("No players to send.");
+          return (true);
+        }
+
+        // Get the location name
+        locationName = args[args.length - 1];
+
+        // If location is another player (starts with "@")
+        if (locationName.startsWith("@"))
+        {
+          // Player must have permission teleport to other players
+          if (!_permissions.has(player, XGoPermission.GO_PLAYER))
+          {
+            player.sendMessage("You do not have permission to teleport to other players.");
+            return (true);
+          }
+
+          // Get the destination player
+          destPlayer = _onlinePlayers.getPlayer(locationName.substring(1));
+
+          // If player not found
+          if (destPlayer == null)
+          {
+            player.sendMessage("Destination player not found.");
+            return (true);
+          }
+
+          // Teleport the source players to the destination player
+          if (!batch)
+          {
+            teleport(player, srcPlayers.iterator().next(), destPlayer);
+          }
+          else
+          {
+            srcPlayers.remove(destPlayer);
+            if (!srcPlayers.isEmpty())
+              _teleportQueue.submit(player, srcPlayers, destPlayer);
+          }
+
+        }
+        else
+        {
+
+          // If public location (starts with "#")
+          if (locationName.startsWith("#"))
           {
             // Player must have permission to use public locations
-            if (!player.hasPermission("XGoPlugin.go-public"))
+            if (!_permissions.has(player, XGoPermission.GO_PUBLIC))
             {
               player.sendMessage("You do not have permission to use public locations.");
               return (true);
             }
+          }
 
-            // Get public locations
-            locations = getPublicLocations();
+          // If location does not exist, suggest similar names
+          locationName = findLocationName(player, locationName, XGoPermission.GO_PUBLIC, true);
+          if (locationName == null)
+            return (true);
+
+          // The name used may be in the other scope
+          locations = locationName.startsWith("#") ? getPublicLocations() : getPlayerLocations(player.getName());
+          locationReference = locations.get(locationName);
+
+          // Retrieve the location once for all source players
+          location = _resolvedLocations.resolve(locationReference);
+          if (location == null)
+          {
+            player.sendMessage("Location's world is not loaded.");
+            return (true);
           }
+
+          // Count teleports to public locations
+          if (_warmChunks != null && locationName.startsWith("#"))
+            _warmChunks.recordTeleport(locationName);
+
+          // Teleport the source players to the location
+          if (!batch)
+            teleport(player, srcPlayers.iterator().next(), location);
           else
+            _teleportQueue.submit(player, srcPlayers, location, locationName);
+
+        }
+      }
+      else
+      {
+        sender.sendMessage("This command can only be executed by a player.");
+        return (true);
+      }
+
+      return (true);
+    }
+
+
+    /***
+     * Adds the players a go-send argument stands for. The argument is either a
+     * player name or a selector: "*" for all online players, "*world" or
+     * "*world:<name>" for the players in the sender's or the named world, and
+     * "*radius:<blocks>" for the players within that distance of the sender.
+     * Selectors need their own permission and do not select the sender.
+     * 
+     * @param player
+     *          - The player sending the command.
+     * @param argument
+     *          - The player name or selector.
+     * @param players
+     *          - Receives the selected players.
+     * @param notFound
+     *          - Receives the player names not found.
+     * @return If the argument is valid, true is returned. Otherwise, the
+     *         player is told why and false is returned.
+     */
+    private boolean selectPlayers(Player player, String argument,
+        Set<Player> players, List<String> notFound)
+    {
+      Player srcPlayer;
+      World world;
+      Location center;
+      double radius;
+
+      // If a player name
+      if (!argument.startsWith("*"))
+      {
+        srcPlayer = _onlinePlayers.getPlayer(argument);
+        if (srcPlayer == null)
+          notFound.add(argument);
+        else
+          players.add(srcPlayer);
+
+        return (true);
+      }
+
+      // All online players
+      if (argument.equals("*"))
+      {
+        if (!_permissions.has(player, XGoPermission.GO_SEND_ALL))
+        {
+          player.sendMessage("You do not have permission to send all players.");
+          return (false);
+        }
+
+        for (Player onlinePlayer : _onlinePlayers.getPlayers())
+        {
+          if (onlinePlayer != player)
+            players.add(onlinePlayer);
+        }
+
+        return (true);
+      }
+
+      // Players in a world
+      if (argument.equals("*world") || argument.startsWith("*world:"))
+      {
+        if (!_permissions.has(player, XGoPermission.GO_SEND_WORLD))
+        {
+          player.sendMessage("You do not have permission to send the players of a world.");
+          return (false);
+        }
+
+        if (argument.equals("*world"))
+        {
+          world = player.getWorld();
+        }
+        else
+        {
+          world = getServer().getWorld(argument.substring(7));
+          if (world == null)
+          {
+            player.sendMessage("World \"" + argument.substring(7) + "\" not found.");
+            return (false);
+          }
+        }
+
+        for (Player worldPlayer : world.getPlayers())
+        {
+          if (worldPlayer != player)
+            players.add(worldPlayer);
+        }
+
+        return (true);
+      }
+
+      // Players around the sender
+      if (argument.startsWith("*radius:"))
+      {
+        if (!_permissions.has(player, XGoPermission.GO_SEND_RADIUS))
+        {
+          player.sendMessage("You do not have permission to send the players around you.");
+          return (false);
+        }
+
+        try
+        {
+          radius = Double.parseDouble(argument.substring(8));
+        }
+        catch (NumberFormatException e)
+        {
+          radius = -1;
+        }
+
+        if (radius < 0)
+        {
+          player.sendMessage("Invalid radius \"" + argument.substring(8) + "\".");
+          return (false);
+        }
+
+        center = player.getLocation();
+        for (Player worldPlayer : player.getWorld().getPlayers())
+        {
+          if (worldPlayer != player && worldPlayer.getLocation().distanceSquared(center) <= radius * radius)
+            players.add(worldPlayer);
+        }
+
+        return (true);
+      }
+
+      player.sendMessage("Unknown selector \"" + argument + "\".");
+
+      return (false);
+    }
+
+
+    /***
+     * Joins names into a comma separated list.
+     */
+    private String join(List<String> names)
+    {
+      StringBuilder builder = new StringBuilder();
+
+      for (int j = 0; j < names.size(); j++)
+      {
+        if (j > 0)
+          builder.append(", ");
+        builder.append(names.get(j));
+      }
+
+      return (builder.toString());
+    }
+
+  }
+
+
+  /***
+   * Class to handle go-add command.
+   * 
+   * @author 
+   * 
+   */
+  private class GoAddCommandExecutor implements CommandExecutor
+  {
+
+
+    /***
+     * Handles the "go-add" command.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label,
+        String[] args)
+    {
+      Player player;
+      String locationName;
+      Map<String, LocationReference> locations;
+
+      if (sender instanceof Player)
+      {
+        player = (Player) sender;
+
+        // Must be exactly 1 argument
+        if (args.length != 1)
+        {
+          player.sendMessage("Invalid number of arguments.");
+          return (false);
+        }
+
+        // Get the location name
+        locationName = args[0];
+
+        // Location name limited to 20 characters
+        if (locationName.length() > 20)
+        {
+          player.sendMessage("Location name is too long.  Max is 20.");
+          return (true);
+        }
+
+        // Location name cannot start with "@"
+        if (locationName.startsWith("@"))
+        {
+          player.sendMessage("Location name cannot start with \"@\".");
+          return (true);
+        }
+
+        // If public location (starts with "#")
+        if (locationName.startsWith("#"))
+        {
+          // Player must have permission to add public locations
+          if (!_permissions.has(player, XGoPermission.GO_ADD_PUBLIC))
           {
-            // Get player's locations
-            locations = getPlayerLocations(player.getName());
+            player.sendMessage("You do not have permission to add public locations.");
+            return (true);
           }
 
-          // If location does not exist, error
-          if (!locations.containsKey(locationName))
+          // Get public locations
+          locations = getPublicLocations();
+        }
+        else
+        {
+          locations = getPlayerLocations(player.getName());
+        }
+
+        // If location exists, error
+        if (locations.containsKey(locationName))
+        {
+          player.sendMessage("Location already exists.");
+          return (true);
+        }
+
+        // Save the location
+        putLocation(player.getName(), locationName, new LocationReference(player.getLocation()));
+
+        // Message
+        player.sendMessage(locationName + " added.");
+
+      }
+      else
+      {
+        sender.sendMessage("This command can only be executed by a player.");
+        return (true);
+      }
+
+      return (true);
+
+    }
+
+  }
+
+
+  /***
+   * Class to handle the go-del command
+   * 
+   * @author 
+   * 
+   */
+  private class GoDelCommandExecutor implements CommandExecutor
+  {
+
+
+    /***
+     * Handles the "go-del" command.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label,
+        String[] args)
+    {
+      Player player;
+      String locationName;
+
+      if (sender instanceof Player)
+      {
+        player = (Player) sender;
+
+        // Must be exactly 1 argument
+        if (args.length != 1)
+        {
+          player.sendMessage("Invalid number of arguments.");
+          return (false);
+        }
+
+        // Get the location name
+        locationName = args[0];
+
+        // If public location (starts with "#")
+        if (locationName.startsWith("#"))
+        {
+          // Player must have permission to delete public locations
+          if (!_permissions.has(player, XGoPermission.GO_DEL_PUBLIC))
           {
-            player.sendMessage("Location does not exist.");
+            player.sendMessage("You do not have permission to delete public locations.");
             return (true);
           }
+        }
 
-          // Retrieve the location
-          location = locations.get(locationName).ceateLocation(XGoPlugin.this);
+        // If location does not exist, suggest similar names
+        if (findLocationName(player, locationName, XGoPermission.GO_DEL_PUBLIC, false) == null)
+          return (true);
 
-          // Teleport to the location
-          player.teleport(location);
+        // Delete the location
+        removeLocation(player.getName(), locationName);
 
-        }
+        // Message
+        player.sendMessage(locationName + " deleted.");
 
       }
       else
@@ -364,122 +2509,463 @@ public final class XGoPlugin extends JavaPlugin
 
 
   /***
-   * Handles the go-send command
+   * Class to handle the go-near command
    * 
    * @author 
    * 
    */
-  private class GoSendCommandExecutor implements CommandExecutor
+  private class GoNearCommandExecutor implements CommandExecutor
   {
 
 
     /***
-     * Handles the "go-send" command.
+     * Handles the "go-near" command.
      */
     @Override
     public boolean onCommand(CommandSender sender, Command cmd, String label,
         String[] args)
     {
       Player player;
-      String srcPlayerName;
-      Player srcPlayer;
-      Player destPlayer;
-      String locationName;
-      Location location;
-      HashMap<String, LocationReference> locations;
+      int count;
+      int maxCount;
+      List<LocationSpatialIndex.Match> matches;
+      StringBuilder message;
 
       if (sender instanceof Player)
       {
         player = (Player) sender;
 
-        // Must be exactly 2 arguments
-        if (args.length != 2)
+        // At most 1 argument
+        if (args.length > 1)
         {
           player.sendMessage("Invalid number of arguments.");
           return (false);
         }
 
-        // Get the source player name
-        srcPlayerName = args[0];
-
-        // Get the source player
-        srcPlayer = getServer().getPlayer(srcPlayerName);
+        // Get the number of locations to list
+        count = getConfig().getInt("near.default-count");
+        maxCount = getConfig().getInt("near.max-count");
+        if (args.length == 1)
+        {
+          try
+          {
+            count = Integer.parseInt(args[0]);
+          }
+          catch (NumberFormatException e)
+          {
+            player.sendMessage("Invalid number of locations.");
+            return (false);
+          }
+        }
 
-        // If source player not found, error
-        if (srcPlayer == null)
+        if (count < 1 || count > maxCount)
         {
-          player.sendMessage("Player \"" + srcPlayerName + "\" not found.");
+          player.sendMessage("Number of locations must be between 1 and " + maxCount + ".");
           return (true);
         }
 
-        // Get the location name
-        locationName = args[1];
+        // Find the nearest locations the player may use
+        matches = findNearestLocations(player.getName(), player.getLocation(), count, _permissions.has(player, XGoPermission.GO_PUBLIC));
+        if (matches.isEmpty())
+        {
+          player.sendMessage("No locations in this world.");
+          return (true);
+        }
 
-        // If location is another player (starts with "@")
-        if (locationName.startsWith("@"))
+        message = new StringBuilder("Nearest locations:");
+        for (int i = 0; i < matches.size(); i++)
         {
-          // Player must have permission teleport to other players
-          if (!player.hasPermission("XGoPlugin.go-player"))
-          {
-            player.sendMessage("You do not have permission to teleport to other players.");
-            return (true);
-          }
+          message.append(i == 0 ? " " : ", ");
+          message.append(matches.get(i).name);
+          message.append(" (").append(Math.round(Math.sqrt(matches.get(i).distanceSquared))).append(" m)");
+        }
 
-          // Get the destination player
-          destPlayer = getServer().getPlayer(locationName.substring(1));
+        player.sendMessage(message.toString());
+      }
+      else
+      {
+        sender.sendMessage("This command can only be executed by a player.");
+        return (true);
+      }
 
-          // If player not found
-          if (destPlayer == null)
-          {
-            player.sendMessage("Destination player not found.");
-            return (true);
-          }
+      return (true);
+    }
 
-          // Teleport the player to the destination player
-          srcPlayer.teleport(destPlayer);
+  }
 
-        }
-        else
+
+  /***
+   * Handles the go-stats command
+   * 
+   * @author 
+   * 
+   */
+  private class GoStatsCommandExecutor implements CommandExecutor
+  {
+
+
+    /***
+     * Handles the "go-stats" command.
+     */
+    @Override
+    public boolean onCommand(final CommandSender sender, Command cmd,
+        String label, String[] args)
+    {
+      final File file;
+      List<String> lines;
+
+      // At most 1 argument
+      if (args.length > 1)
+      {
+        sender.sendMessage("Invalid number of arguments.");
+        return (false);
+      }
+
+      // Show the metrics
+      if (args.length == 0)
+      {
+        lines = _metrics.describe();
+        if (lines.isEmpty())
+          sender.sendMessage("No metrics recorded yet.");
+
+        for (String line : lines)
         {
+          sender.sendMessage(line);
+        }
 
-          // If public location (starts with "#")
-          if (locationName.startsWith("#"))
+        return (true);
+      }
+
+      // Start the metrics over
+      if (args[0].equalsIgnoreCase("reset"))
+      {
+        _metrics.reset();
+        sender.sendMessage("Metrics reset.");
+        return (true);
+      }
+
+      // Write the metrics to a file off the main thread
+      if (args[0].equalsIgnoreCase("dump"))
+      {
+        file = new File(getDataFolder(), "metrics-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv");
+        getServer().getScheduler().runTaskAsynchronously(XGoPlugin.this, new Runnable()
+        {
+          @Override
+          public void run()
           {
-            // Player must have permission to use public locations
-            if (!player.hasPermission("XGoPlugin.go-public"))
+            String message;
+
+            try
             {
-              player.sendMessage("You do not have permission to use public locations.");
-              return (true);
+              _metrics.dump(file);
+              message = "Metrics written to " + file.getName() + ".";
+            }
+            catch (IOException e)
+            {
+              getLogger().log(Level.SEVERE, "Unable to write metrics.", e);
+              message = "Unable to write metrics.";
             }
 
-            // Get public locations
-            locations = getPublicLocations();
+            // Report back on the main thread
+            final String report = message;
+            getServer().getScheduler().runTask(XGoPlugin.this, new Runnable()
+            {
+              @Override
+              public void run()
+              {
+                sender.sendMessage(report);
+              }
+            });
           }
-          else
+        });
+
+        return (true);
+      }
+
+      sender.sendMessage("Unknown option " + args[0] + ".");
+      return (false);
+    }
+
+  }
+
+
+  /***
+   * Loads the locations again on a background thread and computes what
+   * changed, then swaps the changed maps in on the main thread.
+   * 
+   * @author 
+   * 
+   */
+  private class ReloadTask implements Runnable
+  {
+
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final CommandSender _sender;
+    private final int _attempt;
+    private final int _snapshotGeneration;
+    private final HashMap<String, Map<String, LocationReference>> _live;
+
+
+    /***
+     * Creates a reload of the captured maps. The public locations are the
+     * entry with a null key.
+     */
+    ReloadTask(CommandSender sender, int attempt, int snapshotGeneration,
+        HashMap<String, Map<String, LocationReference>> live)
+    {
+      _sender = sender;
+      _attempt = attempt;
+      _snapshotGeneration = snapshotGeneration;
+      _live = live;
+    }
+
+
+    @Override
+    public void run()
+    {
+      final HashMap<String, LocationDiff> diffs = new HashMap<String, LocationDiff>();
+      final HashSet<String> failed = new HashSet<String>();
+      Map<String, LocationReference> loaded;
+      LocationDiff diff;
+      long start = System.nanoTime();
+
+      // Load and compare off the main thread
+      if (!_storage.refresh())
+        getLogger().warning("Unable to refresh the location storage, reloading anyway.");
+
+      for (Map.Entry<String, Map<String, LocationReference>> entry : _live.entrySet())
+      {
+        loaded = entry.getKey() == null ? _storage.loadPublicLocations() : _storage.load(entry.getKey());
+        if (loaded == null)
+        {
+          failed.add(entry.getKey());
+          continue;
+        }
+
+        diff = new LocationDiff(entry.getValue(), loaded);
+        if (!diff.isEmpty())
+          diffs.put(entry.getKey(), diff);
+      }
+      _metrics.record("reload.load", start);
+
+      getServer().getScheduler().runTask(XGoPlugin.this, new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          swap(diffs, failed);
+        }
+      });
+    }
+
+
+    /***
+     * Swaps the changed maps in on the main thread.
+     */
+    private void swap(HashMap<String, LocationDiff> diffs,
+        HashSet<String> failed)
+    {
+      Map<String, LocationReference> current;
+      LocationDiff diff;
+      int added = 0;
+      int removed = 0;
+      int changed = 0;
+      int skipped = 0;
+      long start = System.nanoTime();
+      String message;
+
+      _reloadRunning = false;
+
+      // A save during the reload may have written files while they were read
+      if (_snapshotCount != _snapshotGeneration || _snapshotPending)
+      {
+        if (_attempt + 1 < MAX_ATTEMPTS && startReload(_sender, _attempt + 1))
+          return;
+
+        report("Locations were being saved, reload skipped. Try again.");
+        return;
+      }
+
+      for (Map.Entry<String, LocationDiff> entry : diffs.entrySet())
+      {
+        diff = entry.getValue();
+        current = entry.getKey() == null ? _publicLocations : _privateLocations.get(entry.getKey());
+
+        // Dropped meanwhile, so loaded again on next use
+        if (current == null)
+          continue;
+
+        // Changed in game meanwhile or not saved yet, so the game wins
+        if (current != diff.getOldLocations() || (entry.getKey() == null ? _publicDirty : _dirtyPlayers.contains(entry.getKey())))
+        {
+          skipped++;
+          continue;
+        }
+
+        replaceLocations(entry.getKey(), diff);
+        changed += diff.getChangedCount();
+        added += diff.getAdded().size() - diff.getChangedCount();
+        removed += diff.getRemoved().size() - diff.getChangedCount();
+      }
+
+      // Locations that could not be read are saved back from memory
+      for (String playerName : failed)
+      {
+        if (playerName != null && _privateLocations.containsKey(playerName))
+          _dirtyPlayers.add(playerName);
+      }
+
+      // Locations prefetched at login may be older than the storage
+      _prefetchedLocations.clear();
+
+      _metrics.record("reload.swap", start);
+
+      message = "Reloaded locations: " + added + " added, " + removed + " removed, " + changed + " changed.";
+      if (skipped > 0)
+        message += " Kept " + skipped + " location lists changed in game.";
+      if (!failed.isEmpty())
+        message += " Unable to read " + failed.size() + " location lists.";
+      report(message);
+    }
+
+
+    /***
+     * Tells the sender the result, or logs it for a reload of changed files.
+     */
+    private void report(String message)
+    {
+      if (_sender != null)
+        _sender.sendMessage(message);
+      else
+        getLogger().info(message);
+    }
+
+  }
+
+
+  /***
+   * Class to handle the go-reload command
+   * 
+   * @author 
+   * 
+   */
+  private class GoReloadCommandExecutor implements CommandExecutor
+  {
+
+
+    /***
+     * Handles the "go-reload" command.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label,
+        String[] args)
+    {
+      // No arguments
+      if (args.length != 0)
+      {
+        sender.sendMessage("Invalid number of arguments.");
+        return (false);
+      }
+
+      if (!startReload(sender, 0))
+      {
+        sender.sendMessage("A reload is already running or locations are being saved. Try again.");
+        return (true);
+      }
+
+      sender.sendMessage("Reloading locations.");
+      return (true);
+    }
+
+  }
+
+
+  /***
+   * Class to handle the go-back command
+   * 
+   * @author 
+   * 
+   */
+  private class GoBackCommandExecutor implements CommandExecutor
+  {
+
+
+    /***
+     * Handles the "go-back" command.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command cmd, String label,
+        String[] args)
+    {
+      Player player;
+      int back = 1;
+      int count;
+      Location location;
+
+      if (sender instanceof Player)
+      {
+        player = (Player) sender;
+
+        // At most 1 argument
+        if (args.length > 1)
+        {
+          player.sendMessage("Invalid number of arguments.");
+          return (false);
+        }
+
+        if (_history == null)
+        {
+          player.sendMessage("Teleport history is disabled.");
+          return (true);
+        }
+
+        // Get how many positions to go back
+        if (args.length == 1)
+        {
+          try
           {
-            // Get player's locations
-            locations = getPlayerLocations(player.getName());
+            back = Integer.parseInt(args[0]);
           }
-
-          // If location does not exist, error
-          if (!locations.containsKey(locationName))
+          catch (NumberFormatException e)
           {
-            player.sendMessage("Location does not exist.");
-            return (true);
+            player.sendMessage("Invalid number of positions.");
+            return (false);
           }
+        }
 
-          // Retrieve the location
-          location = locations.get(locationName).ceateLocation(XGoPlugin.this);
+        if (back < 1 || back > _history.getSize())
+        {
+          player.sendMessage("Number of positions must be between 1 and " + _history.getSize() + ".");
+          return (true);
+        }
 
-          // Teleport the source player to the location
-          srcPlayer.teleport(location);
+        count = _history.count(player.getName());
+        if (count == 0)
+        {
+          player.sendMessage("No earlier position.");
+          return (true);
+        }
+        if (back > count)
+        {
+          player.sendMessage("Only " + count + " earlier positions.");
+          return (true);
+        }
 
+        location = _history.get(player.getName(), back, getServer());
+        if (location == null)
+        {
+          player.sendMessage("That world is not loaded.");
+          return (true);
         }
+
+        // The teleport is recorded too, so going back again returns here
+        teleport(player, player, location);
       }
       else
       {
         sender.sendMessage("This command can only be executed by a player.");
-        return (true);
       }
 
       return (true);
@@ -489,174 +2975,314 @@ public final class XGoPlugin extends JavaPlugin
 
 
   /***
-   * Class to handle go-add command.
+   * Class to handle the go-admin command
    * 
    * @author 
    * 
    */
-  private class GoAddCommandExecutor implements CommandExecutor
+  private class GoAdminCommandExecutor implements CommandExecutor
   {
 
 
     /***
-     * Handles the "go-add" command.
+     * Handles the "go-admin" command.
      */
     @Override
     public boolean onCommand(CommandSender sender, Command cmd, String label,
         String[] args)
     {
-      Player player;
-      String locationName;
-      HashMap<String, LocationReference> locations;
+      File file;
 
-      if (sender instanceof Player)
+      // Must be exactly 2 arguments
+      if (args.length != 2)
       {
-        player = (Player) sender;
+        sender.sendMessage("Invalid number of arguments.");
+        return (false);
+      }
 
-        // Must be exactly 1 argument
-        if (args.length != 1)
-        {
-          player.sendMessage("Invalid number of arguments.");
-          return (false);
-        }
+      // Files are only read from and written to the data folder
+      file = new File(getDataFolder(), new File(args[1]).getName());
 
-        // Get the location name
-        locationName = args[0];
+      // One transfer at a time
+      if (_transferRunning)
+      {
+        sender.sendMessage("An import or export is already running.");
+        return (true);
+      }
 
-        // Location name limited to 20 characters
-        if (locationName.length() > 20)
+      // Stream the locations from or to the file off the main thread
+      if (args[0].equalsIgnoreCase("import"))
+      {
+        if (!file.exists())
         {
-          player.sendMessage("Location name is too long.  Max is 20.");
+          sender.sendMessage(file.getName() + " does not exist.");
           return (true);
         }
 
-        // Location name cannot start with "@"
-        if (locationName.startsWith("@"))
-        {
-          player.sendMessage("Location name cannot start with \"@\".");
-          return (true);
-        }
+        _transferRunning = true;
+        sender.sendMessage("Importing locations from " + file.getName() + ".");
+        getServer().getScheduler().runTaskAsynchronously(XGoPlugin.this, new ImportTask(sender, file, getConfig().getInt("admin.import-batch-size")));
+        return (true);
+      }
 
-        // If public location (starts with "#")
-        if (locationName.startsWith("#"))
+      if (args[0].equalsIgnoreCase("export"))
+      {
+        _transferRunning = true;
+        sender.sendMessage("Exporting locations to " + file.getName() + ".");
+        getServer().getScheduler().runTaskAsynchronously(XGoPlugin.this, new ExportTask(sender, file));
+        return (true);
+      }
+
+      sender.sendMessage("Unknown option " + args[0] + ".");
+      return (false);
+    }
+
+  }
+
+
+  /***
+   * Reports the end of an import or export on the main thread.
+   * 
+   * @param sender
+   *          - The sender of the command.
+   * @param message
+   *          - The message to send.
+   */
+  private void finishTransfer(final CommandSender sender, final String message)
+  {
+    getServer().getScheduler().runTask(this, new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        _transferRunning = false;
+        sender.sendMessage(message);
+      }
+    });
+  }
+
+
+  /***
+   * Reads locations from a CSV file and adds them on the main thread, one
+   * batch at a time. The next batch is only read once the previous one was
+   * added, so only one batch is held in memory no matter how large the file
+   * is.
+   * 
+   * @author 
+   * 
+   */
+  private class ImportTask implements Runnable
+  {
+
+
+    private final CommandSender _sender;
+    private final File _file;
+    private final int _batchSize;
+
+
+    ImportTask(CommandSender sender, File file, int batchSize)
+    {
+      _sender = sender;
+      _file = file;
+      _batchSize = Math.max(1, batchSize);
+    }
+
+
+    @Override
+    public void run()
+    {
+      BufferedReader in;
+      LocationCsvReader reader;
+      LinkedHashMap<String, Map<String, LocationReference>> batch;
+      Map<String, LocationReference> locations;
+      int count = 0;
+      long imported = 0;
+      long skipped = 0;
+      String message;
+
+      try
+      {
+        in = new BufferedReader(new InputStreamReader(new FileInputStream(_file), "UTF-8"));
+        try
         {
-          // Player must have permission to add public locations
-          if (!player.hasPermission("XGoPlugin.go-add-public"))
+          reader = new LocationCsvReader(in);
+          batch = new LinkedHashMap<String, Map<String, LocationReference>>();
+          while (true)
           {
-            player.sendMessage("You do not have permission to add public locations.");
-            return (true);
+            // Skip invalid lines, logging the first few
+            try
+            {
+              if (!reader.next())
+                break;
+            }
+            catch (ParseException e)
+            {
+              if (skipped++ < 10)
+                getLogger().warning(_file.getName() + ": " + e.getMessage());
+              continue;
+            }
+
+            // Group the batch by owner
+            locations = batch.get(reader.getPlayerName());
+            if (locations == null)
+            {
+              locations = new HashMap<String, LocationReference>();
+              batch.put(reader.getPlayerName(), locations);
+            }
+            locations.put(reader.getName(), reader.getLocation());
+
+            if (++count == _batchSize)
+            {
+              add(batch);
+              imported += count;
+              count = 0;
+              batch = new LinkedHashMap<String, Map<String, LocationReference>>();
+            }
           }
 
-          // Get public locations
-          locations = getPublicLocations();
+          add(batch);
+          imported += count;
         }
-        else
+        finally
         {
-          locations = getPlayerLocations(player.getName());
+          in.close();
         }
 
-        // If location exists, error
-        if (locations.containsKey(locationName))
-        {
-          player.sendMessage("Location already exists.");
-          return (true);
-        }
+        message = "Imported " + imported + " locations from " + _file.getName() + (skipped > 0 ? ", skipped " + skipped + " invalid lines." : ".");
+      }
+      catch (IOException e)
+      {
+        getLogger().log(Level.SEVERE, "Unable to import " + _file.getName() + ".", e);
+        message = "Unable to import " + _file.getName() + " after " + imported + " locations.";
+      }
+      catch (ExecutionException e)
+      {
+        getLogger().log(Level.SEVERE, "Unable to import " + _file.getName() + ".", e.getCause());
+        message = "Unable to import " + _file.getName() + " after " + imported + " locations.";
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      catch (CancellationException e)
+      {
+        // The plugin was disabled
+        return;
+      }
 
-        // Save the location
-        locations.put(locationName, new LocationReference(player.getLocation()));
+      getLogger().info(message);
+      finishTransfer(_sender, message);
+    }
 
-        // Message
-        player.sendMessage(locationName + " added.");
 
-      }
-      else
+    /***
+     * Adds a batch of locations on the main thread and waits until done.
+     */
+    private void add(final Map<String, Map<String, LocationReference>> batch)
+        throws InterruptedException, ExecutionException
+    {
+      if (batch.isEmpty())
+        return;
+
+      getServer().getScheduler().callSyncMethod(XGoPlugin.this, new Callable<Void>()
       {
-        sender.sendMessage("This command can only be executed by a player.");
-        return (true);
-      }
+        @Override
+        public Void call()
+        {
+          for (Map.Entry<String, Map<String, LocationReference>> entry : batch.entrySet())
+          {
+            putLocations(entry.getKey(), entry.getValue());
+          }
 
-      return (true);
+          // Drop offline players loaded for the batch once saved
+          evictColdPlayers();
 
+          return (null);
+        }
+      }).get();
     }
 
   }
 
 
   /***
-   * Class to handle the go-del command
+   * Writes the public and saved private locations to a CSV file, one
+   * player's locations at a time. The file is written under a temporary name
+   * and renamed when complete.
    * 
    * @author 
    * 
    */
-  private class GoDelCommandExecutor implements CommandExecutor
+  private class ExportTask implements Runnable
   {
 
 
-    /***
-     * Handles the "go-del" command.
-     */
+    private final CommandSender _sender;
+    private final File _file;
+
+
+    ExportTask(CommandSender sender, File file)
+    {
+      _sender = sender;
+      _file = file;
+    }
+
+
     @Override
-    public boolean onCommand(CommandSender sender, Command cmd, String label,
-        String[] args)
+    public void run()
     {
-      Player player;
-      String locationName;
-      HashMap<String, LocationReference> locations;
+      File tempFile = new File(_file.getPath() + ".tmp");
+      Writer out;
+      LocationCsvWriter writer;
+      TreeSet<String> playerNames;
+      String message;
 
-      if (sender instanceof Player)
+      try
       {
-        player = (Player) sender;
-
-        // Must be exactly 1 argument
-        if (args.length != 1)
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+        try
         {
-          player.sendMessage("Invalid number of arguments.");
-          return (false);
-        }
+          writer = new LocationCsvWriter(out);
 
-        // Get the location name
-        locationName = args[0];
+          // Public locations, from the current map
+          for (Map.Entry<String, LocationReference> entry : getPublicLocations().entrySet())
+          {
+            writer.write(null, entry.getKey(), entry.getValue());
+          }
 
-        // If public location (starts with "#")
-        if (locationName.startsWith("#"))
-        {
-          // Player must have permission to delete public locations
-          if (!player.hasPermission("XGoPlugin.go-del-public"))
+          // Private locations, resident ones from memory, others from storage
+          playerNames = new TreeSet<String>(_storage.getPlayerNames());
+          playerNames.addAll(_privateLocations.keySet());
+          for (String playerName : playerNames)
           {
-            player.sendMessage("You do not have permission to delete public locations.");
-            return (true);
+            for (Map.Entry<String, LocationReference> entry : getPlayerLocations(playerName).entrySet())
+            {
+              writer.write(playerName, entry.getKey(), entry.getValue());
+            }
           }
 
-          // Get public locations
-          locations = getPublicLocations();
-        }
-        else
-        {
-          // Get player's locations
-          locations = getPlayerLocations(player.getName());
+          writer.flush();
         }
-
-        // If location does not exist, error
-        if (!locations.containsKey(locationName))
+        finally
         {
-          player.sendMessage("Location does not exist.");
-          return (true);
+          out.close();
         }
 
-        // Delete the location
-        locations.remove(locationName);
-
-        // Message
-        player.sendMessage(locationName + " deleted.");
+        if (!PluginDataFiles.replace(tempFile, _file))
+          throw new IOException("Unable to rename " + tempFile.getName() + ".");
 
+        message = "Exported " + writer.count() + " locations to " + _file.getName() + ".";
       }
-      else
+      catch (IOException e)
       {
-        sender.sendMessage("This command can only be executed by a player.");
-        return (true);
+        getLogger().log(Level.SEVERE, "Unable to export " + _file.getName() + ".", e);
+        tempFile.delete();
+        message = "Unable to export " + _file.getName() + ".";
       }
 
-      return (true);
+      getLogger().info(message);
+      finishTransfer(_sender, message);
     }
 
   }
@@ -680,76 +3306,64 @@ public final class XGoPlugin extends JavaPlugin
         String[] args)
     {
       Player player;
-      Iterator<String> i;
-      String locationName;
-      String message;
-      int maxLen = 60;
+      int page = 1;
+      String scope = "all";
+      String filter = "";
+      List<String> pages;
 
       if (sender instanceof Player)
       {
         player = (Player) sender;
 
-        // Must not be any arguments
-        if (args.length != 0)
+        // At most 3 arguments
+        if (args.length > 3)
         {
           player.sendMessage("Invalid number of arguments.");
           return (false);
         }
 
-        // Start message
-        player.sendMessage("go location list:");
-
-        // Init message
-        message = "";
-
-        // Process the public locations
-        if (player.hasPermission("XGoPlugin.go-list-public"))
+        // Arguments are a page number, a scope and a filter in any order
+        for (int j = 0; j < args.length; j++)
         {
-          i = getPublicLocations().keySet().iterator();
-          while (i.hasNext())
+          if (args[j].equalsIgnoreCase("public") || args[j].equalsIgnoreCase("private"))
           {
-            // Get the location name
-            locationName = i.next();
-
-            // If this would exceed the line length
-            if (message.length() + locationName.length() + 1 > maxLen)
+            scope = args[j].toLowerCase();
+          }
+          else
+          {
+            try
             {
-              player.sendMessage(message);
-              message = "";
+              page = Integer.parseInt(args[j]);
+            }
+            catch (NumberFormatException e)
+            {
+              filter = args[j];
             }
-
-            // Append the location
-            if (message.length() > 0)
-              message += " ";
-            message += locationName;
           }
         }
 
-        // Process the private locations
-        i = getPlayerLocations(player.getName()).keySet().iterator();
-        while (i.hasNext())
+        // Player must have permission to list public locations
+        if (scope.equals("public") && !_permissions.has(player, XGoPermission.GO_LIST_PUBLIC))
         {
-          // Get the location name
-          locationName = i.next();
+          player.sendMessage("You do not have permission to list public locations.");
+          return (true);
+        }
 
-          // If this would exceed the line length
-          if (message.length() + locationName.length() + 1 > maxLen)
-          {
-            player.sendMessage(message);
-            message = "";
-          }
+        pages = getListPages(player, scope, filter);
+        if (pages.isEmpty())
+        {
+          player.sendMessage("There are no locations.");
+          return (true);
+        }
 
-          // Append the location
-          if (message.length() > 0)
-            message += " ";
-          message += locationName;
+        if (page < 1 || page > pages.size())
+        {
+          player.sendMessage("Page must be between 1 and " + pages.size() + ".");
+          return (true);
         }
 
-        // Send the last line of locations
-        if (message.length() > 0)
-          player.sendMessage(message);
-        else
-          player.sendMessage("There are no locations.");
+        // Send the page as a single message
+        player.sendMessage("go location list, page " + page + " of " + pages.size() + ":\n" + pages.get(page - 1));
 
       }
       else
@@ -761,6 +3375,50 @@ public final class XGoPlugin extends JavaPlugin
       return (true);
     }
 
+
+    /***
+     * Returns the rendered pages listing the player's locations, sorted by
+     * name, public locations first. Pages are rendered again only when the
+     * query or the locations changed.
+     */
+    private List<String> getListPages(Player player, String scope,
+        String filter)
+    {
+      String playerName = player.getName();
+      ListPageCache cache;
+      List<String> pages;
+      List<String> names;
+      long publicVersion;
+      long privateVersion;
+
+      // Get the version stamps of the indexes involved
+      publicVersion = !scope.equals("private") && _permissions.has(player, XGoPermission.GO_LIST_PUBLIC) ? _publicNameIndex.getVersion() : -1;
+      privateVersion = !scope.equals("public") ? getPlayerNameIndex(playerName).getVersion() : -1;
+
+      // Get the player's cache
+      cache = _listPageCaches.get(playerName);
+      if (cache == null)
+      {
+        cache = new ListPageCache();
+        _listPageCaches.put(playerName, cache);
+      }
+
+      pages = cache.lookup(scope, filter, publicVersion, privateVersion);
+      if (pages == null)
+      {
+        names = new ArrayList<String>();
+        if (publicVersion != -1)
+          _publicNameIndex.filterMatches(filter, names);
+        if (privateVersion != -1)
+          getPlayerNameIndex(playerName).filterMatches(filter, names);
+
+        pages = ListPageCache.render(names, getConfig().getInt("list.line-width"), getConfig().getInt("list.lines-per-page"));
+        cache.store(scope, filter, publicVersion, privateVersion, pages);
+      }
+
+      return (pages);
+    }
+
   }
 
 
@@ -780,12 +3438,6 @@ public final class XGoPlugin extends JavaPlugin
     {
       List<String> locationNames = new ArrayList<String>();
       Player player;
-      String playerName;
-      Player[] onlinePlayers;
-      Player onlinePlayer;
-      String onlinePlayerName;
-      Iterator<String> i;
-      String locationName;
 
       // If not the first argument, return empty list
       if (args.length != 1)
@@ -794,49 +3446,14 @@ public final class XGoPlugin extends JavaPlugin
       if (sender instanceof Player)
       {
         player = (Player) sender;
-        playerName = player.getName();
-
-        // Process the public locations
-        if (player.hasPermission("XGoPlugin.go-public"))
-        {
-          i = getPublicLocations().keySet().iterator();
-          while (i.hasNext())
-          {
-            // Get the location name
-            locationName = i.next();
-
-            // Add the location name to the list
-            locationNames.add(locationName);
-          }
-        }
-
-        // Process the private locations
-        i = getPlayerLocations(playerName).keySet().iterator();
-        while (i.hasNext())
-        {
-          // Get the location name
-          locationName = i.next();
 
-          // Add the location name to the list
-          locationNames.add(locationName);
-        }
+        // Process the public and private locations
+        completeLocationNames(player, "go", XGoPermission.GO_PUBLIC, args[0], locationNames);
 
         // Process other online players
-        if (player.hasPermission("XGoPlugin.go-player"))
+        if (_permissions.has(player, XGoPermission.GO_PLAYER))
         {
-          onlinePlayers = getServer().getOnlinePlayers();
-
-          for (int j = 0; j < onlinePlayers.length; j++)
-          {
-            onlinePlayer = onlinePlayers[j];
-            onlinePlayerName = onlinePlayer.getName();
-
-            // If not current player
-            if (!onlinePlayerName.equals(playerName))
-            {
-              locationNames.add("@" + onlinePlayerName);
-            }
-          }
+          completePlayerNames(player, true, args[0], locationNames);
         }
 
       }
@@ -863,80 +3480,33 @@ public final class XGoPlugin extends JavaPlugin
     {
       List<String> names = new ArrayList<String>();
       Player player;
-      String playerName;
-      Player[] onlinePlayers;
-      Player onlinePlayer;
-      String onlinePlayerName;
-      Iterator<String> i;
-      String locationName;
 
 
       if (sender instanceof Player)
       {
         player = (Player) sender;
-        playerName = player.getName();
 
         // If processing the first argument
         if (args.length == 1)
         {
-          onlinePlayers = getServer().getOnlinePlayers();
-
-          for (int j = 0; j < onlinePlayers.length; j++)
-          {
-            onlinePlayer = onlinePlayers[j];
-            onlinePlayerName = onlinePlayer.getName();
-
-            // If not current player
-            if (!onlinePlayerName.equals(playerName))
-            {
-              names.add(onlinePlayerName);
-            }
-          }
+          completePlayerNames(player, false, args[0], names);
         }
-        // Else, if processing the second argument
-        else if (args.length == 2)
+        // Else, the argument is either another source player or the location
+        else if (args.length >= 2)
         {
-          // Process the public locations
-          if (player.hasPermission("XGoPlugin.go-public"))
+          // Process other source players
+          if (_permissions.has(player, XGoPermission.GO_SEND_MULTIPLE))
           {
-            i = getPublicLocations().keySet().iterator();
-            while (i.hasNext())
-            {
-              // Get the location name
-              locationName = i.next();
-
-              // Add the location name to the list
-              names.add(locationName);
-            }
+            completePlayerNames(player, false, args[args.length - 1], names);
           }
 
-          // Process the private locations
-          i = getPlayerLocations(playerName).keySet().iterator();
-          while (i.hasNext())
-          {
-            // Get the location name
-            locationName = i.next();
-
-            // Add the location name to the list
-            names.add(locationName);
-          }
+          // Process the public and private locations
+          completeLocationNames(player, "go", XGoPermission.GO_PUBLIC, args[args.length - 1], names);
 
           // Process other online players
-          if (player.hasPermission("XGoPlugin.go-player"))
+          if (_permissions.has(player, XGoPermission.GO_PLAYER))
           {
-            onlinePlayers = getServer().getOnlinePlayers();
-
-            for (int j = 0; j < onlinePlayers.length; j++)
-            {
-              onlinePlayer = onlinePlayers[j];
-              onlinePlayerName = onlinePlayer.getName();
-
-              // If not current player
-              if (!onlinePlayerName.equals(playerName))
-              {
-                names.add("@" + onlinePlayerName);
-              }
-            }
+            completePlayerNames(player, true, args[args.length - 1], names);
           }
         }
       }
@@ -963,9 +3533,6 @@ public final class XGoPlugin extends JavaPlugin
     {
       List<String> locationNames = new ArrayList<String>();
       Player player;
-      String playerName;
-      Iterator<String> i;
-      String locationName;
 
       // If not the first argument, return empty list
       if (args.length != 1)
@@ -974,32 +3541,9 @@ public final class XGoPlugin extends JavaPlugin
       if (sender instanceof Player)
       {
         player = (Player) sender;
-        playerName = player.getName();
-
-        // Process the public locations
-        if (player.hasPermission("XGoPlugin.go-del-public"))
-        {
-          i = getPublicLocations().keySet().iterator();
-          while (i.hasNext())
-          {
-            // Get the location name
-            locationName = i.next();
-
-            // Add the location name to the list
-            locationNames.add(locationName);
-          }
-        }
-
-        // Process the private locations
-        i = getPlayerLocations(playerName).keySet().iterator();
-        while (i.hasNext())
-        {
-          // Get the location name
-          locationName = i.next();
 
-          // Add the location name to the list
-          locationNames.add(locationName);
-        }
+        // Process the public and private locations
+        completeLocationNames(player, "go-del", XGoPermission.GO_DEL_PUBLIC, args[0], locationNames);
 
       }
 
@@ -1008,4 +3552,4 @@ public final class XGoPlugin extends JavaPlugin
 
   }
 
-}
\ No newline at end of file
+}